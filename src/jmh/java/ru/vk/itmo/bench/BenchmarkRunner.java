@@ -0,0 +1,32 @@
+package ru.vk.itmo.bench;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+
+/**
+ * Runs benchmarks with the usual JMH command line options.
+ * Unless {@code -p factory=<username>,...} is given, all factories of the max stage are benchmarked.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .jvmArgsAppend("--enable-preview");
+        if (!commandLineOptions.getParameter("factory").hasValue()) {
+            List<String> factories = DaoFactories.maxStageFactories();
+            options.param("factory", factories.toArray(new String[0]));
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,42 @@
+package ru.vk.itmo.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single shot compaction of the data set split into {@code sstables} interleaving sstables.
+ * Compaction may run in background, so it is measured together with the following close.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompactBenchmark extends DaoState {
+
+    @Param("10")
+    public int sstables;
+
+    @Setup(Level.Invocation)
+    public void setup() throws IOException {
+        createDao();
+        fillSplit(sstables);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        destroyDao();
+    }
+
+    @Benchmark
+    public void compact() throws IOException {
+        dao.compact();
+        dao.close();
+    }
+}
@@ -0,0 +1,106 @@
+package ru.vk.itmo.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.vk.itmo.MemorySegmentComparator;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparison of {@code PAIRS} pairs of equal or consecutive zero padded numbers of {@code keySize} digits,
+ * so the keys share a long prefix as the neighbouring keys of a binary search do.
+ * {@code mismatch} is the comparator {@link MemorySegmentComparator} replaced in the implementations:
+ * {@link MemorySegment#mismatch} followed by the single byte comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ComparatorBenchmark {
+
+    private static final int PAIRS = 1024;
+
+    @Param({"8", "16", "32", "100", "1000"})
+    public int keySize;
+
+    @Param({"shared", "mismatch"})
+    public String comparator;
+
+    @Param({"heap", "native"})
+    public String memory;
+
+    private final MemorySegment[] keys1 = new MemorySegment[PAIRS];
+    private final MemorySegment[] keys2 = new MemorySegment[PAIRS];
+    private Comparator<MemorySegment> keyComparator;
+    private Arena arena;
+
+    @Setup
+    public void setup() {
+        keyComparator = switch (comparator) {
+            case "shared" -> MemorySegmentComparator.INSTANCE;
+            case "mismatch" -> ComparatorBenchmark::mismatchCompare;
+            default -> throw new IllegalArgumentException("Unknown comparator " + comparator);
+        };
+        arena = Arena.ofConfined();
+        Random random = new Random(keySize);
+        for (int i = 0; i < PAIRS; i++) {
+            int number = random.nextInt(Integer.MAX_VALUE - 1);
+            keys1[i] = key(number);
+            keys2[i] = key(number + random.nextInt(2));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        arena.close();
+    }
+
+    private MemorySegment key(int number) {
+        String digits = "0".repeat(keySize) + number;
+        byte[] bytes = digits.substring(digits.length() - keySize).getBytes(StandardCharsets.UTF_8);
+        if ("heap".equals(memory)) {
+            return MemorySegment.ofArray(bytes);
+        }
+        return arena.allocate(bytes.length).copyFrom(MemorySegment.ofArray(bytes));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public int compare() {
+        int result = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            result += keyComparator.compare(keys1[i], keys2[i]);
+        }
+        return result;
+    }
+
+    private static int mismatchCompare(MemorySegment segment1, MemorySegment segment2) {
+        long mismatch = segment1.mismatch(segment2);
+        if (mismatch == -1) {
+            return 0;
+        }
+        if (mismatch == segment1.byteSize()) {
+            return -1;
+        }
+        if (mismatch == segment2.byteSize()) {
+            return 1;
+        }
+        return Byte.compare(
+                segment1.get(ValueLayout.JAVA_BYTE, mismatch),
+                segment2.get(ValueLayout.JAVA_BYTE, mismatch)
+        );
+    }
+}
@@ -0,0 +1,101 @@
+package ru.vk.itmo.bench;
+
+import ru.vk.itmo.test.DaoFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Finds {@link DaoFactory} implementations the same way as {@code DaoTest.DaoList} does:
+ * by scanning classes next to {@link DaoFactory} for the annotation.
+ * Factories are named by their package, e.g. {@code ru.vk.itmo.test.<username>}.
+ */
+public final class DaoFactories {
+
+    private static final String FACTORY_PACKAGE_PREFIX = "ru.vk.itmo.test.";
+
+    private DaoFactories() {
+    }
+
+    /**
+     * Returns names of the factories with the highest stage and week, they are the ones tested by default.
+     */
+    public static List<String> maxStageFactories() {
+        List<String> result = new ArrayList<>();
+        long maxStage = 0;
+        for (Class<?> factory : factories()) {
+            DaoFactory annotation = factory.getAnnotation(DaoFactory.class);
+            long stage = ((long) annotation.stage()) << 32 | annotation.week();
+            if (stage < maxStage) {
+                continue;
+            }
+            if (stage > maxStage) {
+                maxStage = stage;
+                result.clear();
+            }
+            result.add(name(factory));
+        }
+        return result;
+    }
+
+    public static DaoFactory.Factory<?, ?> create(String name) {
+        for (Class<?> factory : factories()) {
+            if (name(factory).equals(name)) {
+                try {
+                    return (DaoFactory.Factory<?, ?>) factory.getDeclaredConstructor().newInstance();
+                } catch (InstantiationException | IllegalAccessException | InvocationTargetException
+                         | NoSuchMethodException e) {
+                    throw new IllegalStateException("Can't create factory " + factory, e);
+                }
+            }
+        }
+        throw new IllegalArgumentException("No DaoFactory declared under " + FACTORY_PACKAGE_PREFIX + name);
+    }
+
+    private static String name(Class<?> factory) {
+        return factory.getPackageName().substring(FACTORY_PACKAGE_PREFIX.length());
+    }
+
+    private static List<Class<?>> factories() {
+        Path root;
+        try {
+            root = Path.of(DaoFactory.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Can't locate DaoFactory classes", e);
+        }
+
+        try (Stream<Path> walk = Files.walk(root)) {
+            List<Class<?>> result = new ArrayList<>();
+            for (Path file : walk.filter(p -> p.getFileName().toString().endsWith(".class")).toList()) {
+                Class<?> clazz = load(root, file);
+                if (clazz.getAnnotation(DaoFactory.class) != null
+                        && clazz.getPackageName().startsWith(FACTORY_PACKAGE_PREFIX)) {
+                    result.add(clazz);
+                }
+            }
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Class<?> load(Path root, Path file) {
+        StringBuilder className = new StringBuilder();
+        for (Path part : root.relativize(file)) {
+            className.append(part).append('.');
+        }
+        className.setLength(className.length() - ".class.".length());
+        try {
+            return Class.forName(className.toString(), false, DaoFactory.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
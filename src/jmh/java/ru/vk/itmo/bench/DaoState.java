@@ -0,0 +1,124 @@
+package ru.vk.itmo.bench;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Config;
+import ru.vk.itmo.Dao;
+import ru.vk.itmo.Entry;
+import ru.vk.itmo.test.DaoFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * Dao under benchmark together with the data set parameters.
+ * Keys are zero-padded numbers of {@code keySize} chars, so their order matches the numeric one.
+ */
+@State(Scope.Benchmark)
+public class DaoState {
+
+    /**
+     * Factory package name under {@code ru.vk.itmo.test}, filled by {@link BenchmarkRunner}.
+     */
+    @Param("")
+    public String factory;
+
+    @Param("16")
+    public int keySize;
+
+    @Param("100")
+    public int valueSize;
+
+    @Param("100000")
+    public int datasetSize;
+
+    @Param("1048576")
+    public long flushThresholdBytes;
+
+    protected Dao<String, Entry<String>> dao;
+    protected String value;
+    private Path basePath;
+
+    protected void createDao() throws IOException {
+        createDao(DaoFactories.create(factory));
+    }
+
+    protected void createDao(DaoFactory.Factory<?, ?> daoFactory) throws IOException {
+        char[] valueChars = new char[valueSize];
+        Arrays.fill(valueChars, 'v');
+        value = new String(valueChars);
+        basePath = Files.createTempDirectory("dao-bench");
+        dao = daoFactory.createStringDao(new Config(basePath, flushThresholdBytes));
+    }
+
+    protected void reopenDao() throws IOException {
+        dao.close();
+        dao = DaoFactory.Factory.reopen(dao);
+    }
+
+    /**
+     * Upserts keys [0; datasetSize) and reopens dao, so the data is read from disk.
+     */
+    protected void fill() throws IOException {
+        for (int i = 0; i < datasetSize; i++) {
+            dao.upsert(entry(i));
+        }
+        reopenDao();
+    }
+
+    /**
+     * Upserts keys [0; datasetSize) flushing them into {@code sstables} sstables with interleaving keys,
+     * so every sstable covers the whole key range.
+     */
+    protected void fillSplit(int sstables) throws IOException {
+        for (int sstable = 0; sstable < sstables; sstable++) {
+            for (int i = sstable; i < datasetSize; i += sstables) {
+                dao.upsert(entry(i));
+            }
+            dao.flush();
+        }
+    }
+
+    protected void destroyDao() throws IOException {
+        dao.close();
+        Files.walkFileTree(basePath, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw new UncheckedIOException(exc);
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    protected Entry<String> entry(long index) {
+        return new BaseEntry<>(key(index), value);
+    }
+
+    protected String key(long index) {
+        String digits = Long.toString(index);
+        if (digits.length() >= keySize) {
+            return digits;
+        }
+        char[] chars = new char[keySize];
+        Arrays.fill(chars, 0, keySize - digits.length(), '0');
+        digits.getChars(0, digits.length(), chars, keySize - digits.length());
+        return new String(chars);
+    }
+}
@@ -0,0 +1,39 @@
+package ru.vk.itmo.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single shot flush of the memtable with the whole data set.
+ * Run with {@code flushThresholdBytes} above the data set size to keep it in one memtable.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FlushBenchmark extends DaoState {
+
+    @Setup(Level.Invocation)
+    public void setup() throws IOException {
+        createDao();
+        for (int i = 0; i < datasetSize; i++) {
+            dao.upsert(entry(i));
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        destroyDao();
+    }
+
+    @Benchmark
+    public void flush() throws IOException {
+        dao.flush();
+    }
+}
@@ -0,0 +1,45 @@
+package ru.vk.itmo.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point lookups of existing and absent keys over the data set stored on disk.
+ * Absent keys fall between the existing ones, so they can't be rejected by the key range only.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GetBenchmark extends DaoState {
+
+    private static final String MISS_SUFFIX = "~";
+
+    @Setup
+    public void setup() throws IOException {
+        createDao();
+        fill();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        destroyDao();
+    }
+
+    @Benchmark
+    public Entry<String> getHit() {
+        return dao.get(key(ThreadLocalRandom.current().nextInt(datasetSize)));
+    }
+
+    @Benchmark
+    public Entry<String> getMiss() {
+        return dao.get(key(ThreadLocalRandom.current().nextInt(datasetSize)) + MISS_SUFFIX);
+    }
+}
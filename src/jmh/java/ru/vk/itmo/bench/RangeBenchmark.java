@@ -0,0 +1,59 @@
+package ru.vk.itmo.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Range scans of {@code shortRange} and {@code longRange} entries starting from a random key on disk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RangeBenchmark extends DaoState {
+
+    @Param("10")
+    public int shortRange;
+
+    @Param("1000")
+    public int longRange;
+
+    @Setup
+    public void setup() throws IOException {
+        createDao();
+        fill();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        destroyDao();
+    }
+
+    @Benchmark
+    public void shortScan(Blackhole blackhole) {
+        scan(shortRange, blackhole);
+    }
+
+    @Benchmark
+    public void longScan(Blackhole blackhole) {
+        scan(longRange, blackhole);
+    }
+
+    private void scan(int count, Blackhole blackhole) {
+        int from = ThreadLocalRandom.current().nextInt(Math.max(1, datasetSize - count));
+        Iterator<Entry<String>> iterator = dao.get(key(from), key((long) from + count));
+        while (iterator.hasNext()) {
+            blackhole.consume(iterator.next());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package ru.vk.itmo.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.vk.itmo.Entry;
+import ru.vk.itmo.test.DaoFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single shot opening of the data set split into {@code sstables} sstables followed by the first lookup.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReopenBenchmark extends DaoState {
+
+    @Param("10")
+    public int sstables;
+
+    @Setup(Level.Invocation)
+    public void setup() throws IOException {
+        createDao();
+        fillSplit(sstables);
+        dao.close();
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        destroyDao();
+    }
+
+    @Benchmark
+    public Entry<String> reopen() throws IOException {
+        dao = DaoFactory.Factory.reopen(dao);
+        return dao.get(key(0));
+    }
+}
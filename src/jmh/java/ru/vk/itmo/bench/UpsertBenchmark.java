@@ -0,0 +1,82 @@
+package ru.vk.itmo.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upserts random keys of [0; datasetSize), memtable is flushed as {@code flushThresholdBytes} is reached.
+ * Batches of {@code batchSize} entries are written either by a single {@code upsertAll} or one by one.
+ * Concurrent variants run the same operations from {@value #WRITERS} threads sharing the dao,
+ * so they measure contention on the memtable, write-ahead log and flush.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UpsertBenchmark extends DaoState {
+
+    static final int WRITERS = 4;
+
+    @Param("100")
+    public int batchSize;
+
+    @Setup
+    public void setup() throws IOException {
+        createDao();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        destroyDao();
+    }
+
+    @Benchmark
+    public void upsert() {
+        dao.upsert(entry(ThreadLocalRandom.current().nextInt(datasetSize)));
+    }
+
+    @Benchmark
+    public void upsertBatch() {
+        dao.upsertAll(batch());
+    }
+
+    @Benchmark
+    public void upsertOneByOne() {
+        for (Entry<String> entry : batch()) {
+            dao.upsert(entry);
+        }
+    }
+
+    @Benchmark
+    @Threads(WRITERS)
+    public void upsertConcurrent() {
+        upsert();
+    }
+
+    @Benchmark
+    @Threads(WRITERS)
+    public void upsertBatchConcurrent() {
+        upsertBatch();
+    }
+
+    private List<Entry<String>> batch() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Entry<String>> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(entry(random.nextInt(datasetSize)));
+        }
+        return batch;
+    }
+}
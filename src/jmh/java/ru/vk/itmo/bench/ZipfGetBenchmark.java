@@ -0,0 +1,80 @@
+package ru.vk.itmo.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.vk.itmo.Entry;
+import ru.vk.itmo.test.DaoFactory;
+import ru.vk.itmo.test.kovalchukvladislav.MemorySegmentDaoFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point lookups of existing keys with Zipfian popularity over the data set stored on disk.
+ * Popularity ranks are scattered over the key range, so the hot keys are not neighbours.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ZipfGetBenchmark extends DaoState {
+
+    private static final int SAMPLES = 1 << 20;
+
+    @Param("0.99")
+    public double exponent;
+
+    /**
+     * Row cache of the factories which have one: kovalchukvladislav. The other factories ignore it.
+     */
+    @Param({"on", "off"})
+    public String rowCache;
+
+    private final int[] samples = new int[SAMPLES];
+
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        DaoFactory.Factory<?, ?> daoFactory = DaoFactories.create(factory);
+        if ("off".equals(rowCache) && daoFactory instanceof MemorySegmentDaoFactory) {
+            daoFactory = new MemorySegmentDaoFactory(0);
+        }
+        createDao(daoFactory);
+        fill();
+        double[] cumulative = new double[datasetSize];
+        double sum = 0;
+        for (int rank = 0; rank < datasetSize; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+        Random random = new Random(datasetSize);
+        int[] keyOfRank = new int[datasetSize];
+        for (int i = 0; i < datasetSize; i++) {
+            int j = random.nextInt(i + 1);
+            keyOfRank[i] = keyOfRank[j];
+            keyOfRank[j] = i;
+        }
+        for (int i = 0; i < SAMPLES; i++) {
+            int found = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            samples[i] = keyOfRank[Math.min(datasetSize - 1, found < 0 ? -found - 1 : found)];
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        destroyDao();
+    }
+
+    @Benchmark
+    public Entry<String> getZipf() {
+        return dao.get(key(samples[next++ & (SAMPLES - 1)]));
+    }
+}
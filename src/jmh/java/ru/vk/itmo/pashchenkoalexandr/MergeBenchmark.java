@@ -0,0 +1,119 @@
+package ru.vk.itmo.pashchenkoalexandr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full scan of {@code sstables} sstables with interleaving keys merged by {@link MergeCursor} directly,
+ * through {@link CursorIterator} and by {@link PriorityQueueMergeIterator} it replaced.
+ * Every {@code overlapEvery}th key is written to all sstables, so duplicates are merged as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MergeBenchmark {
+
+    @Param({"2", "10", "32"})
+    public int sstables;
+
+    @Param({"cursor", "loserTree", "priorityQueue"})
+    public String merge;
+
+    @Param("200000")
+    public int datasetSize;
+
+    @Param("16")
+    public int overlapEvery;
+
+    private final List<SSTable> tables = new ArrayList<>();
+    private Path basePath;
+
+    @Setup
+    public void setup() throws IOException {
+        basePath = Files.createTempDirectory("merge-bench");
+        MemorySegment value = MemorySegment.ofArray(new byte[100]);
+        for (int sstable = 0; sstable < sstables; sstable++) {
+            Path path = basePath.resolve(DiskStorage.sstableName(sstable));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                SSTableWriter writer = new SSTableWriter(channel);
+                for (int i = 0; i < datasetSize; i++) {
+                    if (i % sstables == sstable || i % overlapEvery == 0) {
+                        byte[] key = String.format("%016d", i).getBytes(StandardCharsets.UTF_8);
+                        writer.add(MemorySegment.ofArray(key), value);
+                    }
+                }
+                writer.finish();
+            }
+            tables.add(DiskStorage.openSSTable(path));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (SSTable table : tables) {
+            table.release();
+        }
+        tables.clear();
+        try (var files = Files.list(basePath)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(basePath);
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole) {
+        if ("priorityQueue".equals(merge)) {
+            List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>(tables.size());
+            for (SSTable table : tables) {
+                iterators.add(table.iterator(null, null));
+            }
+            consume(new PriorityQueueMergeIterator<>(iterators, Comparator.comparing(Entry::key, PaschenkoDao::compare)),
+                    blackhole);
+            return;
+        }
+
+        List<Cursor> cursors = new ArrayList<>(tables.size());
+        for (SSTable table : tables) {
+            cursors.add(table.cursor(null, null));
+        }
+        Cursor cursor = new MergeCursor(cursors, false);
+        if ("loserTree".equals(merge)) {
+            consume(new CursorIterator(cursor), blackhole);
+            return;
+        }
+        while (cursor.next()) {
+            blackhole.consume(cursor.key());
+            blackhole.consume(cursor.value());
+        }
+    }
+
+    private static void consume(Iterator<Entry<MemorySegment>> iterator, Blackhole blackhole) {
+        while (iterator.hasNext()) {
+            blackhole.consume(iterator.next());
+        }
+    }
+}
@@ -6,7 +6,7 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
 
-public class MergeIterator<T> implements Iterator<T> {
+public class PriorityQueueMergeIterator<T> implements Iterator<T> {
 
     private final PriorityQueue<PeekIterator<T>> priorityQueue;
     private final Comparator<T> comparator;
@@ -53,11 +53,11 @@ public class MergeIterator<T> implements Iterator<T> {
 
     PeekIterator<T> nextIterator;
 
-    public MergeIterator(Collection<Iterator<T>> iterators, Comparator<T> comparator) {
+    public PriorityQueueMergeIterator(Collection<Iterator<T>> iterators, Comparator<T> comparator) {
         this.comparator = comparator;
         Comparator<PeekIterator<T>> peekComp = (o1, o2) -> comparator.compare(o1.peek(), o2.peek());
         priorityQueue = new PriorityQueue<>(
-                iterators.size(),
+                Math.max(1, iterators.size()),
                 peekComp.thenComparing(o -> -o.id)
         );
 
@@ -0,0 +1,106 @@
+package ru.vk.itmo;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+/**
+ * Bloom filter over 64-bit key hashes, stored as [hash_functions_count][bits...].
+ * Hash functions are built from the two halves of the key hash (Kirsch-Mitzenmacher).
+ *
+ * <p>Filters and key hashes are persisted next to sstables, so the header, the bit words and the key words
+ * of {@link #hash(MemorySegment)} are all read in little-endian order whatever the platform order is.
+ */
+public final class BloomFilter {
+    private static final ValueLayout.OfLong LONG_LAYOUT =
+            ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final long HEADER_SIZE = Long.BYTES;
+    private static final double LN_2 = Math.log(2);
+
+    private final MemorySegment segment;
+    private final long bitsCount;
+    private final long hashFunctionsCount;
+
+    private BloomFilter(MemorySegment segment) {
+        this.segment = segment;
+        this.bitsCount = (segment.byteSize() - HEADER_SIZE) * Byte.SIZE;
+        this.hashFunctionsCount = segment.get(LONG_LAYOUT, 0);
+    }
+
+    public static long byteSize(long entriesCount, double falsePositiveRate) {
+        return HEADER_SIZE + bitsCount(entriesCount, falsePositiveRate) / Byte.SIZE;
+    }
+
+    /**
+     * Initializes empty filter in the segment of {@link #byteSize(long, double)} bytes.
+     */
+    public static BloomFilter create(MemorySegment segment, long entriesCount, double falsePositiveRate) {
+        long bitsCount = bitsCount(entriesCount, falsePositiveRate);
+        long hashFunctionsCount = Math.max(1, Math.round((double) bitsCount / Math.max(1, entriesCount) * LN_2));
+        segment.set(LONG_LAYOUT, 0, hashFunctionsCount);
+        return new BloomFilter(segment);
+    }
+
+    /**
+     * Reads filter that was created with {@link #create(MemorySegment, long, double)}.
+     */
+    public static BloomFilter wrap(MemorySegment segment) {
+        return new BloomFilter(segment);
+    }
+
+    /**
+     * Hash of the key bytes to be added to and checked against filters.
+     */
+    public static long hash(MemorySegment key) {
+        long size = key.byteSize();
+        long hash = size * HASH_MULTIPLIER;
+        long offset = 0;
+        for (; offset + Long.BYTES <= size; offset += Long.BYTES) {
+            hash = Long.rotateLeft(hash ^ key.get(LONG_LAYOUT, offset), 31) * HASH_MULTIPLIER;
+        }
+        for (; offset < size; offset++) {
+            hash = Long.rotateLeft(hash ^ key.get(ValueLayout.JAVA_BYTE, offset), 31) * HASH_MULTIPLIER;
+        }
+        // murmur3 finalizer
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    public void add(long hash) {
+        for (int i = 0; i < hashFunctionsCount; i++) {
+            long bit = bitIndex(hash, i);
+            long wordOffset = HEADER_SIZE + (bit >>> 6) * Long.BYTES;
+            segment.set(LONG_LAYOUT, wordOffset, segment.get(LONG_LAYOUT, wordOffset) | (1L << bit));
+        }
+    }
+
+    /**
+     * Returns false if the key with the hash is definitely absent.
+     */
+    public boolean mightContain(long hash) {
+        for (int i = 0; i < hashFunctionsCount; i++) {
+            long bit = bitIndex(hash, i);
+            long wordOffset = HEADER_SIZE + (bit >>> 6) * Long.BYTES;
+            if ((segment.get(LONG_LAYOUT, wordOffset) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long bitIndex(long hash, int i) {
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        return Math.floorMod(hash1 + (long) i * hash2, bitsCount);
+    }
+
+    private static long bitsCount(long entriesCount, double falsePositiveRate) {
+        double bits = -Math.max(1, entriesCount) * Math.log(falsePositiveRate) / (LN_2 * LN_2);
+        // rounded up to whole longs
+        return Math.max(1, (long) Math.ceil(bits / Long.SIZE)) * Long.SIZE;
+    }
+}
@@ -2,6 +2,7 @@ package ru.vk.itmo;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Iterator;
 
 public interface Dao<D, E extends Entry<D>> extends Closeable {
@@ -64,6 +65,17 @@ public interface Dao<D, E extends Entry<D>> extends Closeable {
      */
     void upsert(E entry);
 
+    /**
+     * Inserts or replaces entries as if they were upserted one by one in the iteration order,
+     * so the last entry wins among entries with the same key. Note: default implementation does exactly that.
+     * @param entries elements to upsert
+     */
+    default void upsertAll(Collection<E> entries) {
+        for (E entry : entries) {
+            upsert(entry);
+        }
+    }
+
     /**
      * Persists data (no-op by default).
      */
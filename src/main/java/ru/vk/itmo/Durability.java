@@ -0,0 +1,19 @@
+package ru.vk.itmo;
+
+/**
+ * What happens to the updates which are not in sstables yet on crash, see {@link WriteAheadLog}.
+ */
+public enum Durability {
+    /**
+     * Updates are not logged, everything since the last flush is lost.
+     */
+    NONE,
+    /**
+     * Updates are logged and forced to disk in background, the last ones may be lost.
+     */
+    ASYNC,
+    /**
+     * Update returns once it is forced to disk, concurrent updates share a single force.
+     */
+    SYNC
+}
@@ -0,0 +1,86 @@
+package ru.vk.itmo;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.Comparator;
+
+/**
+ * Unsigned lexicographic order of memory segments: the first differing byte compared as unsigned decides,
+ * otherwise the shorter segment goes first. For UTF-8 encoded strings it is the code point order.
+ *
+ * <p>Keys are compared by 8-byte big-endian words, so a word of equal bytes costs a single comparison.
+ * Keys shorter than a word skip the word loop, keys longer than {@link #MISMATCH_THRESHOLD} bytes
+ * are handed to {@link MemorySegment#mismatch} which is vectorized.
+ */
+public final class MemorySegmentComparator implements Comparator<MemorySegment> {
+
+    public static final MemorySegmentComparator INSTANCE = new MemorySegmentComparator();
+
+    /**
+     * Common length after which the vectorized mismatch beats the word loop.
+     */
+    static final long MISMATCH_THRESHOLD = 64;
+
+    private static final ValueLayout.OfLong WORD = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    private MemorySegmentComparator() {
+    }
+
+    @Override
+    public int compare(MemorySegment segment1, MemorySegment segment2) {
+        return compare(segment1, 0, segment1.byteSize(), segment2, 0, segment2.byteSize());
+    }
+
+    /**
+     * Compares [from1; to1) of the first segment with [from2; to2) of the second one.
+     * @param segment1 first segment
+     * @param from1 start of the first key (inclusive)
+     * @param to1 end of the first key (exclusive)
+     * @param segment2 second segment
+     * @param from2 start of the second key (inclusive)
+     * @param to2 end of the second key (exclusive)
+     * @return negative, zero or positive if the first key is less than, equal to or greater than the second
+     */
+    public static int compare(MemorySegment segment1, long from1, long to1,
+                              MemorySegment segment2, long from2, long to2) {
+        long size1 = to1 - from1;
+        long size2 = to2 - from2;
+        long common = Math.min(size1, size2);
+
+        if (common > MISMATCH_THRESHOLD) {
+            long mismatch = MemorySegment.mismatch(segment1, from1, from1 + common, segment2, from2, from2 + common);
+            if (mismatch == -1) {
+                return Long.compare(size1, size2);
+            }
+            return Integer.compare(
+                    Byte.toUnsignedInt(segment1.get(ValueLayout.JAVA_BYTE, from1 + mismatch)),
+                    Byte.toUnsignedInt(segment2.get(ValueLayout.JAVA_BYTE, from2 + mismatch))
+            );
+        }
+
+        if (common < Long.BYTES) {
+            for (long i = 0; i < common; i++) {
+                int b1 = Byte.toUnsignedInt(segment1.get(ValueLayout.JAVA_BYTE, from1 + i));
+                int b2 = Byte.toUnsignedInt(segment2.get(ValueLayout.JAVA_BYTE, from2 + i));
+                if (b1 != b2) {
+                    return Integer.compare(b1, b2);
+                }
+            }
+            return Long.compare(size1, size2);
+        }
+
+        long offset = 0;
+        while (offset < common) {
+            // the last word overlaps the previous one instead of falling back to bytes
+            long wordOffset = Math.min(offset, common - Long.BYTES);
+            long word1 = segment1.get(WORD, from1 + wordOffset);
+            long word2 = segment2.get(WORD, from2 + wordOffset);
+            if (word1 != word2) {
+                return Long.compareUnsigned(word1, word2);
+            }
+            offset += Long.BYTES;
+        }
+        return Long.compare(size1, size2);
+    }
+}
@@ -0,0 +1,36 @@
+package ru.vk.itmo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference count which frees the resource when the last reference is released.
+ * The creator holds the first reference.
+ */
+public final class RefCount implements RefCounted {
+
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final Runnable free;
+
+    public RefCount(Runnable free) {
+        this.free = free;
+    }
+
+    @Override
+    public boolean acquire() {
+        int current = references.get();
+        while (current > 0) {
+            if (references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+            current = references.get();
+        }
+        return false;
+    }
+
+    @Override
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            free.run();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ru.vk.itmo;
+
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Resource shared between its owner and concurrent reads: the owner holds one reference,
+ * every read acquires its own one, and the resource is freed when the last reference is released.
+ */
+public interface RefCounted {
+
+    /**
+     * Returns false if the resource is already freed, the read should take the newer resources then.
+     */
+    boolean acquire();
+
+    void release();
+
+    /**
+     * Acquires all resources or none of them.
+     */
+    static boolean acquireAll(List<? extends RefCounted> resources) {
+        for (int i = 0; i < resources.size(); i++) {
+            if (!resources.get(i).acquire()) {
+                releaseAll(resources.subList(0, i));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void releaseAll(Iterable<? extends RefCounted> resources) {
+        for (RefCounted resource : resources) {
+            resource.release();
+        }
+    }
+
+    /**
+     * Returns the current value once it is acquired. Failed acquisition means that the resources of the value
+     * have just been replaced and freed, so the newer value is published already and is taken instead.
+     */
+    static <T> T acquireCurrent(Supplier<? extends T> current, Predicate<? super T> acquire) {
+        T value = current.get();
+        while (!acquire.test(value)) {
+            value = current.get();
+        }
+        return value;
+    }
+}
@@ -0,0 +1,28 @@
+package ru.vk.itmo;
+
+import java.lang.foreign.Arena;
+
+/**
+ * Shared arena which is closed when the last reference to it is released.
+ * Sstable mapped in its own arena is unmapped right after the last read which still uses it,
+ * even if the sstable is replaced by compaction meanwhile.
+ */
+public final class RefCountedArena implements RefCounted {
+
+    private final Arena arena = Arena.ofShared();
+    private final RefCount references = new RefCount(arena::close);
+
+    public Arena arena() {
+        return arena;
+    }
+
+    @Override
+    public boolean acquire() {
+        return references.acquire();
+    }
+
+    @Override
+    public void release() {
+        references.release();
+    }
+}
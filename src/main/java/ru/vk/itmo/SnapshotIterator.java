@@ -0,0 +1,44 @@
+package ru.vk.itmo;
+
+import java.lang.ref.Cleaner;
+import java.util.Iterator;
+
+/**
+ * Iterator over acquired resources which releases them once it is exhausted.
+ * The iterator which is not read to the end releases them when it is garbage collected.
+ */
+public final class SnapshotIterator<T> implements Iterator<T> {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Iterator<T> delegate;
+    private final Cleaner.Cleanable release;
+
+    public SnapshotIterator(Iterator<T> delegate, Runnable release) {
+        this.delegate = delegate;
+        this.release = releaseOnCollect(this, release);
+    }
+
+    /**
+     * Registers the release of the resources used by the owner. The returned cleanable runs it at most once:
+     * when it is cleaned explicitly or when the owner becomes unreachable.
+     * The release must not reference the owner, otherwise the owner is never collected.
+     */
+    public static Cleaner.Cleanable releaseOnCollect(Object owner, Runnable release) {
+        return CLEANER.register(owner, release);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (delegate.hasNext()) {
+            return true;
+        }
+        release.clean();
+        return false;
+    }
+
+    @Override
+    public T next() {
+        return delegate.next();
+    }
+}
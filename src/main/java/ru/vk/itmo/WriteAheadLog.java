@@ -0,0 +1,418 @@
+package ru.vk.itmo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Log of memtable updates, so they survive a crash before the memtable is flushed.
+ *
+ * <p>Each memtable generation is logged to its own segment {@code wal_<number>}. Segments are deleted once
+ * their memtables are flushed, the remaining ones are replayed on open. Segment is a sequence of records
+ * {@code [body_size][crc32c][body]}, body is a batch of entries {@code [key_size][key][value_size][value]...},
+ * value size is -1 for tombstones. Replay of a segment stops at the first torn record.
+ *
+ * <p>Segments are written by a single writer thread. It takes all the records appended since its previous write,
+ * writes them at once and forces the segment, so concurrent writers share a single {@link FileChannel#force}.
+ */
+public final class WriteAheadLog implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "wal_";
+    // the log shares the directory with the dao files
+    private static final Pattern SEGMENT_NAME = Pattern.compile(SEGMENT_PREFIX + "\\d+");
+    private static final long HEADER_SIZE = 2L * Integer.BYTES;
+    private static final long TOMBSTONE_SIZE = -1;
+    private static final ValueLayout.OfInt INT_LAYOUT = ValueLayout.JAVA_INT_UNALIGNED;
+    private static final ValueLayout.OfLong LONG_LAYOUT = ValueLayout.JAVA_LONG_UNALIGNED;
+
+    private final Path path;
+    private final Durability durability;
+    // the thread is started by the first task, so idle instances don't cost a thread
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition hasTasks = lock.newCondition();
+    private final Condition written = lock.newCondition();
+    // guarded by lock, segments are listed from the oldest to the newest
+    private final List<Task> tasks = new ArrayList<>();
+    private final Deque<Long> segments;
+    private long segment;
+    private FileChannel channel;
+    private long appended;
+    private long durable;
+    private IOException failure;
+    private boolean started;
+    private boolean closed;
+
+    private WriteAheadLog(Path path, Durability durability, Deque<Long> segments, long segment) {
+        this.path = path;
+        this.durability = durability;
+        this.segments = segments;
+        this.segment = segment;
+    }
+
+    /**
+     * Passes the batches of the segments left by the previous run to {@code replay} in the order they were logged
+     * and starts a new segment after them. Entries are valid only during the call, so they must be copied.
+     * Replayed segments are kept until they are released.
+     */
+    public static WriteAheadLog open(Path path, Durability durability,
+                                     Consumer<List<Entry<MemorySegment>>> replay) throws IOException {
+        List<Long> existing = Files.exists(path) ? listSegments(path) : List.of();
+        for (long number : existing) {
+            replay(segmentPath(path, number), replay);
+        }
+        long next = existing.isEmpty() ? 0 : existing.getLast() + 1;
+        return new WriteAheadLog(path, durability, new ArrayDeque<>(existing), next);
+    }
+
+    /**
+     * Logs the batch to the current segment and runs {@code apply} which puts it to the memtable,
+     * returns its sequence number for {@link #await(long)}.
+     * Both are done under the log lock, so the memtable gets updates of the same key in the order they are logged
+     * and replayed. Must be called under the same lock as the memtable swap, so the batch goes to the segment
+     * of its memtable.
+     */
+    public long append(Collection<Entry<MemorySegment>> entries, Runnable apply) {
+        if (durability == Durability.NONE) {
+            apply.run();
+            return 0;
+        }
+        ByteBuffer record = encode(entries);
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw new UncheckedIOException("Write-ahead log failed", failure);
+            }
+            if (closed) {
+                throw new IllegalStateException("Write-ahead log is closed");
+            }
+            if (channel == null) {
+                // the file is created by the caller, so none of them appears after the log is closed
+                channel = FileChannel.open(segmentPath(path, segment),
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                segments.addLast(segment);
+            }
+            apply.run();
+            submit(new Task(Task.Kind.APPEND, record, channel, 0));
+            return ++appended;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the batch is forced to disk if durability is {@link Durability#SYNC}.
+     */
+    public void await(long sequence) {
+        if (durability != Durability.SYNC) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (durable < sequence) {
+                if (failure != null) {
+                    throw new UncheckedIOException("Write-ahead log failed", failure);
+                }
+                written.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for write-ahead log", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a new segment for the next memtable generation, returns its number.
+     * Must be called under the same lock as the memtable swap.
+     */
+    public long rollover() {
+        lock.lock();
+        try {
+            closeSegment();
+            return ++segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes segments older than the given one, their memtables are flushed.
+     */
+    public void release(long before) {
+        lock.lock();
+        try {
+            while (!segments.isEmpty() && segments.getFirst() < before) {
+                long number = segments.removeFirst();
+                if (number == segment) {
+                    closeSegment();
+                }
+                submit(new Task(Task.Kind.DELETE, null, null, number));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeSegment() {
+        if (channel != null) {
+            submit(new Task(Task.Kind.CLOSE, null, channel, 0));
+            channel = null;
+        }
+    }
+
+    private void submit(Task task) {
+        tasks.add(task);
+        if (!started) {
+            writer.execute(this::writeLoop);
+            started = true;
+        }
+        hasTasks.signal();
+    }
+
+    private void writeLoop() {
+        try {
+            List<Task> batch = new ArrayList<>();
+            long sequence = takeTasks(batch);
+            while (sequence >= 0) {
+                process(batch);
+                batch.clear();
+
+                lock.lock();
+                try {
+                    durable = sequence;
+                    written.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                sequence = takeTasks(batch);
+            }
+        } catch (IOException e) {
+            lock.lock();
+            try {
+                failure = e;
+                written.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Moves pending tasks to the batch, returns the sequence number of the last appended record
+     * or -1 if the log is closed and there is nothing left to write.
+     */
+    private long takeTasks(List<Task> batch) throws InterruptedIOException {
+        lock.lock();
+        try {
+            while (tasks.isEmpty() && !closed) {
+                hasTasks.await();
+            }
+            if (tasks.isEmpty()) {
+                return -1;
+            }
+            batch.addAll(tasks);
+            tasks.clear();
+            return appended;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for write-ahead log records");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void process(List<Task> batch) throws IOException {
+        List<ByteBuffer> records = new ArrayList<>(batch.size());
+        FileChannel recordsChannel = null;
+        for (Task task : batch) {
+            if (task.kind() == Task.Kind.APPEND && task.channel() == recordsChannel) {
+                records.add(task.record());
+                continue;
+            }
+            // records are written before the segment is switched, closed or deleted
+            write(recordsChannel, records);
+            recordsChannel = null;
+            switch (task.kind()) {
+                case APPEND -> {
+                    recordsChannel = task.channel();
+                    records.add(task.record());
+                }
+                case CLOSE -> task.channel().close();
+                case DELETE -> Files.deleteIfExists(segmentPath(path, task.segment()));
+                default -> throw new IllegalStateException("Unknown task " + task.kind());
+            }
+        }
+        write(recordsChannel, records);
+    }
+
+    private static void write(FileChannel channel, List<ByteBuffer> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] buffers = records.toArray(new ByteBuffer[0]);
+        ByteBuffer last = buffers[buffers.length - 1];
+        while (last.hasRemaining()) {
+            channel.write(buffers);
+        }
+        channel.force(false);
+        records.clear();
+    }
+
+    /**
+     * Writes the remaining records and stops the writer thread.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closeSegment();
+            closed = true;
+            hasTasks.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        writer.shutdown();
+        try {
+            while (!writer.awaitTermination(1, TimeUnit.HOURS)) {
+                // waiting for the remaining records
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while closing write-ahead log", e);
+        }
+        // tasks are left only if the writer failed
+        for (Task task : tasks) {
+            if (task.kind() == Task.Kind.CLOSE) {
+                task.channel().close();
+            }
+        }
+    }
+
+    private static ByteBuffer encode(Collection<Entry<MemorySegment>> entries) {
+        long bodySize = 0;
+        for (Entry<MemorySegment> entry : entries) {
+            bodySize += 2L * Long.BYTES + entry.key().byteSize();
+            if (entry.value() != null) {
+                bodySize += entry.value().byteSize();
+            }
+        }
+
+        MemorySegment record = MemorySegment.ofArray(new byte[Math.toIntExact(HEADER_SIZE + bodySize)]);
+        long offset = HEADER_SIZE;
+        for (Entry<MemorySegment> entry : entries) {
+            offset = put(record, offset, entry.key());
+            offset = put(record, offset, entry.value());
+        }
+        record.set(INT_LAYOUT, 0, (int) bodySize);
+        record.set(INT_LAYOUT, Integer.BYTES, checksum(record.asSlice(HEADER_SIZE)));
+        return record.asByteBuffer();
+    }
+
+    private static long put(MemorySegment record, long offset, MemorySegment data) {
+        if (data == null) {
+            record.set(LONG_LAYOUT, offset, TOMBSTONE_SIZE);
+            return offset + Long.BYTES;
+        }
+        record.set(LONG_LAYOUT, offset, data.byteSize());
+        MemorySegment.copy(data, 0, record, offset + Long.BYTES, data.byteSize());
+        return offset + Long.BYTES + data.byteSize();
+    }
+
+    private static int checksum(MemorySegment body) {
+        CRC32C crc = new CRC32C();
+        crc.update(body.asByteBuffer());
+        return (int) crc.getValue();
+    }
+
+    private static void replay(Path file, Consumer<List<Entry<MemorySegment>>> replay) throws IOException {
+        try (Arena arena = Arena.ofConfined();
+             FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MemorySegment log = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size(), arena);
+            List<Entry<MemorySegment>> batch = new ArrayList<>();
+            long offset = 0;
+            while (offset + HEADER_SIZE <= log.byteSize()) {
+                long bodySize = Integer.toUnsignedLong(log.get(INT_LAYOUT, offset));
+                if (offset + HEADER_SIZE + bodySize > log.byteSize()) {
+                    break;
+                }
+                MemorySegment body = log.asSlice(offset + HEADER_SIZE, bodySize);
+                if (checksum(body) != log.get(INT_LAYOUT, offset + Integer.BYTES)) {
+                    break;
+                }
+                readBatch(body, batch);
+                // the entries are copied by the consumer, so the mapping can be closed afterwards
+                replay.accept(batch);
+                batch.clear();
+                offset += HEADER_SIZE + bodySize;
+            }
+        }
+    }
+
+    private static void readBatch(MemorySegment body, List<Entry<MemorySegment>> batch) {
+        long offset = 0;
+        while (offset < body.byteSize()) {
+            MemorySegment key = get(body, offset);
+            offset += Long.BYTES + key.byteSize();
+            MemorySegment value = get(body, offset);
+            offset += Long.BYTES + (value == null ? 0 : value.byteSize());
+            batch.add(new BaseEntry<>(key, value));
+        }
+    }
+
+    private static MemorySegment get(MemorySegment body, long offset) {
+        long size = body.get(LONG_LAYOUT, offset);
+        return size == TOMBSTONE_SIZE ? null : body.asSlice(offset + Long.BYTES, size);
+    }
+
+    private static List<Long> listSegments(Path path) throws IOException {
+        try (Stream<Path> files = Files.list(path)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> SEGMENT_NAME.matcher(name).matches())
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static Path segmentPath(Path path, long number) {
+        return path.resolve(SEGMENT_PREFIX + number);
+    }
+
+    record Task(Kind kind, ByteBuffer record, FileChannel channel, long segment) {
+        enum Kind {
+            APPEND,
+            CLOSE,
+            DELETE
+        }
+    }
+}
@@ -4,33 +4,38 @@ import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Config;
 import ru.vk.itmo.Dao;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.RefCounted;
+import ru.vk.itmo.SnapshotIterator;
 
 import java.io.IOException;
-import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
-import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class DaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
-    private final ConcurrentNavigableMap<MemorySegment, Entry<MemorySegment>> map =
-            new ConcurrentSkipListMap<>(DaoImpl::compareMemorySegments);
     private final Path storagePath;
-    private final Arena arena = Arena.ofShared();
     private static final String SSTABLE_BASE_NAME = "storage";
     private static final String INDEX_BASE_NAME = "table";
     private final Path metaFilePath;
-    private final List<FileChannel> sstableFileChannels = new ArrayList<>();
-    private final List<MemorySegment> sstableMappedList = new ArrayList<>();
-    private final List<FileChannel> indexFileChannels = new ArrayList<>();
-    private final List<MemorySegment> indexMappedList = new ArrayList<>();
+    // memTables and sstables are published together, reads take the current state without locks
+    private final AtomicReference<State> state;
+    // upserts don't go to the memTable which is being flushed
+    private final ReadWriteLock upsertLock = new ReentrantReadWriteLock();
+    // flush and close replace the state one at a time
+    private final Lock flushLock = new ReentrantLock();
 
     public DaoImpl(Config config) throws IOException {
         storagePath = config.basePath();
@@ -43,64 +48,78 @@ public class DaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
         }
 
         int totalSSTables = Integer.parseInt(Files.readString(metaFilePath));
+        List<MappedSSTable> sstables = new ArrayList<>(totalSSTables);
         for (int sstableNum = 0; sstableNum < totalSSTables; sstableNum++) {
-            Path sstablePath = storagePath.resolve(SSTABLE_BASE_NAME + sstableNum);
-            Path indexPath = storagePath.resolve(INDEX_BASE_NAME + sstableNum);
-
-            FileChannel sstableFileChannel = FileChannel.open(sstablePath, StandardOpenOption.READ);
-            sstableFileChannels.add(sstableFileChannel);
-            MemorySegment sstableMapped =
-                    sstableFileChannel.map(FileChannel.MapMode.READ_ONLY, 0, Files.size(sstablePath), arena);
-            sstableMappedList.add(sstableMapped);
-
-            FileChannel indexFileChannel = FileChannel.open(indexPath, StandardOpenOption.READ);
-            indexFileChannels.add(indexFileChannel);
-            MemorySegment indexMapped =
-                    indexFileChannel.map(FileChannel.MapMode.READ_ONLY, 0, Files.size(indexPath), arena);
-            indexMappedList.add(indexMapped);
+            sstables.add(new MappedSSTable(
+                    storagePath.resolve(SSTABLE_BASE_NAME + sstableNum),
+                    storagePath.resolve(INDEX_BASE_NAME + sstableNum)
+            ));
         }
+        state = new AtomicReference<>(new State(newMemTable(), newMemTable(), List.copyOf(sstables)));
+    }
+
+    private static ConcurrentNavigableMap<MemorySegment, Entry<MemorySegment>> newMemTable() {
+        return new ConcurrentSkipListMap<>(DaoImpl::compareMemorySegments);
+    }
+
+    // sstables of the returned state are not unmapped until it is released
+    private State acquireState() {
+        return RefCounted.acquireCurrent(state::get, State::acquire);
     }
 
     @Override
     public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
-        return new DaoIterator(getTotalSStables(), from, to, sstableMappedList, indexMappedList, map);
+        State current = acquireState();
+        return new SnapshotIterator<>(
+                new DaoIterator(from, to, current.sstables(), current.map(), current.flushingMap()),
+                current::release
+        );
     }
 
     @Override
     public void upsert(Entry<MemorySegment> entry) {
-        map.put(entry.key(), entry);
+        upsertLock.readLock().lock();
+        try {
+            state.get().map().put(entry.key(), entry);
+        } finally {
+            upsertLock.readLock().unlock();
+        }
     }
 
     @Override
     public Entry<MemorySegment> get(MemorySegment key) {
-        var value = map.get(key);
-        if (value != null) {
-            if (value.value() != null) {
-                return value;
+        State current = acquireState();
+        try {
+            var value = current.map().get(key);
+            if (value == null) {
+                value = current.flushingMap().get(key);
             }
-            return null;
-        }
-
-        int totalSStables = getTotalSStables();
-        for (int sstableNum = totalSStables; sstableNum >= 0; sstableNum--) {
-            var foundEntry = seekForValueInFile(key, sstableNum);
-            if (foundEntry != null) {
-                if (foundEntry.value() != null) {
-                    return foundEntry;
+            if (value != null) {
+                if (value.value() != null) {
+                    return value;
                 }
                 return null;
             }
-        }
-        return null;
-    }
 
-    private Entry<MemorySegment> seekForValueInFile(MemorySegment key, int sstableNum) {
-        if (sstableNum >= sstableFileChannels.size()) {
+            List<MappedSSTable> sstables = current.sstables();
+            for (int sstableNum = sstables.size() - 1; sstableNum >= 0; sstableNum--) {
+                var foundEntry = seekForValueInFile(key, sstables.get(sstableNum));
+                if (foundEntry != null) {
+                    if (foundEntry.value() != null) {
+                        return foundEntry;
+                    }
+                    return null;
+                }
+            }
             return null;
+        } finally {
+            current.release();
         }
+    }
 
-        MemorySegment storageMapped = sstableMappedList.get(sstableNum);
-        MemorySegment indexMapped = indexMappedList.get(sstableNum);
+    private Entry<MemorySegment> seekForValueInFile(MemorySegment key, MappedSSTable sstable) {
+        MemorySegment storageMapped = sstable.storageMapped();
+        MemorySegment indexMapped = sstable.indexMapped();
 
         int foundIndex = upperBound(key, storageMapped, indexMapped, indexMapped.byteSize());
         long keyStorageOffset = getKeyStorageOffset(indexMapped, foundIndex);
@@ -170,54 +189,64 @@ public class DaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
 
     @Override
     public void flush() throws IOException {
-        writeMapIntoFile();
-        if (!map.isEmpty()) incTotalSStablesAmount();
-    }
+        flushLock.lock();
+        try {
+            State current = state.get();
+            if (current.map().isEmpty()) {
+                return;
+            }
+            upsertLock.writeLock().lock();
+            try {
+                current = new State(newMemTable(), current.map(), current.sstables());
+                state.set(current);
+            } finally {
+                upsertLock.writeLock().unlock();
+            }
 
-    private void incTotalSStablesAmount() throws IOException {
-        int totalSStables = getTotalSStables();
-        Files.writeString(metaFilePath, String.valueOf(totalSStables + 1));
+            int currSStableNum = current.sstables().size();
+            MappedSSTable sstable = writeMapIntoFile(current.flushingMap(), currSStableNum);
+            Files.writeString(metaFilePath, String.valueOf(currSStableNum + 1));
+
+            List<MappedSSTable> sstables = new ArrayList<>(current.sstables());
+            sstables.add(sstable);
+            state.set(new State(state.get().map(), newMemTable(), List.copyOf(sstables)));
+        } finally {
+            flushLock.unlock();
+        }
     }
 
     @Override
     public void close() throws IOException {
-        if (arena.scope().isAlive()) {
-            arena.close();
-        }
-        flush();
-        for (FileChannel fc : sstableFileChannels) {
-            if (fc.isOpen()) fc.close();
-        }
-        for (FileChannel fc : indexFileChannels) {
-            if (fc.isOpen()) fc.close();
+        flushLock.lock();
+        try {
+            flush();
+            State current = state.get();
+            state.set(new State(newMemTable(), newMemTable(), List.of()));
+            // sstables still used by the reads are unmapped by the last of them
+            current.release();
+        } finally {
+            flushLock.unlock();
         }
     }
 
-    private void writeMapIntoFile() throws IOException {
-        if (map.isEmpty()) {
-            return;
-        }
-
-        int currSStableNum = getTotalSStables();
+    private MappedSSTable writeMapIntoFile(NavigableMap<MemorySegment, Entry<MemorySegment>> map,
+                                           int currSStableNum) throws IOException {
         Path sstablePath = storagePath.resolve(SSTABLE_BASE_NAME + currSStableNum);
         Path indexPath = storagePath.resolve(INDEX_BASE_NAME + currSStableNum);
 
         StorageWriter.writeSStableAndIndex(sstablePath,
-                calcMapByteSizeInFile(),
+                calcMapByteSizeInFile(map),
                 indexPath,
-                calcIndexByteSizeInFile(),
+                calcIndexByteSizeInFile(map),
                 map);
+        return new MappedSSTable(sstablePath, indexPath);
     }
 
-    private int getTotalSStables() {
-        return sstableFileChannels.size();
-    }
-
-    private long calcIndexByteSizeInFile() {
+    private static long calcIndexByteSizeInFile(NavigableMap<MemorySegment, Entry<MemorySegment>> map) {
         return (long) map.size() * (Integer.BYTES + Long.BYTES);
     }
 
-    private long calcMapByteSizeInFile() {
+    private static long calcMapByteSizeInFile(NavigableMap<MemorySegment, Entry<MemorySegment>> map) {
         long size = 0;
         for (var entry : map.values()) {
             size += 2 * Long.BYTES;
@@ -263,4 +292,18 @@ public class DaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
                 segment2.get(ValueLayout.JAVA_BYTE, segment2Offset + mismatch));
 
     }
+
+    record State(
+            NavigableMap<MemorySegment, Entry<MemorySegment>> map,
+            NavigableMap<MemorySegment, Entry<MemorySegment>> flushingMap,
+            List<MappedSSTable> sstables
+    ) {
+        boolean acquire() {
+            return RefCounted.acquireAll(sstables);
+        }
+
+        void release() {
+            RefCounted.releaseAll(sstables);
+        }
+    }
 }
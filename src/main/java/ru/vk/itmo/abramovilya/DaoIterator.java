@@ -18,36 +18,37 @@ class DaoIterator implements Iterator<Entry<MemorySegment>> {
     private final PriorityQueue<TableEntry> priorityQueue = new PriorityQueue<>();
     private final MemorySegment from;
     private final MemorySegment to;
-    private final List<MemorySegment> sstableMappedList;
-    private final List<MemorySegment> indexMappedList;
 
-    DaoIterator(int totalSStables,
-                MemorySegment from,
+    DaoIterator(MemorySegment from,
                 MemorySegment to,
-                List<MemorySegment> sstableMappedList,
-                List<MemorySegment> indexMappedList,
-                NavigableMap<MemorySegment, Entry<MemorySegment>> memTable) {
+                List<MappedSSTable> sstables,
+                NavigableMap<MemorySegment, Entry<MemorySegment>> memTable,
+                NavigableMap<MemorySegment, Entry<MemorySegment>> flushingMemTable) {
         this.from = from;
         this.to = to;
-        this.sstableMappedList = sstableMappedList;
-        this.indexMappedList = indexMappedList;
 
-        NavigableMap<MemorySegment, Entry<MemorySegment>> subMap = getSubMap(memTable);
-        for (int i = 0; i < totalSStables; i++) {
-            long offset = findOffsetInIndex(from, to, i);
+        for (int i = 0; i < sstables.size(); i++) {
+            MappedSSTable sstable = sstables.get(i);
+            long offset = findOffsetInIndex(from, to, sstable.storageMapped(), sstable.indexMapped());
             if (offset != -1) {
                 priorityQueue.add(new SSTable(
                         i,
                         offset,
-                        sstableMappedList.get(i),
-                        indexMappedList.get(i)
+                        sstable.storageMapped(),
+                        sstable.indexMapped()
                 ).currentEntry());
             }
         }
+        addMemTable(flushingMemTable, Integer.MAX_VALUE - 1);
+        addMemTable(memTable, Integer.MAX_VALUE);
+        cleanUpSStableQueue();
+    }
+
+    private void addMemTable(NavigableMap<MemorySegment, Entry<MemorySegment>> memTable, int number) {
+        NavigableMap<MemorySegment, Entry<MemorySegment>> subMap = getSubMap(memTable);
         if (!subMap.isEmpty()) {
-            priorityQueue.add(new MemTable(subMap).currentEntry());
+            priorityQueue.add(new MemTable(subMap, number).currentEntry());
         }
-        cleanUpSStableQueue();
     }
 
     private NavigableMap<MemorySegment, Entry<MemorySegment>> getSubMap(
@@ -115,10 +116,11 @@ class DaoIterator implements Iterator<Entry<MemorySegment>> {
         }
     }
 
-    private long findOffsetInIndex(MemorySegment from, MemorySegment to, int i) {
+    private static long findOffsetInIndex(MemorySegment from,
+                                          MemorySegment to,
+                                          MemorySegment storageMapped,
+                                          MemorySegment indexMapped) {
         long readOffset = 0;
-        MemorySegment storageMapped = sstableMappedList.get(i);
-        MemorySegment indexMapped = indexMappedList.get(i);
 
         if (from == null && to == null) {
             return Integer.BYTES;
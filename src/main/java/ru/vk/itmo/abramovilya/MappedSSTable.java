@@ -0,0 +1,46 @@
+package ru.vk.itmo.abramovilya;
+
+import ru.vk.itmo.RefCounted;
+import ru.vk.itmo.RefCountedArena;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class MappedSSTable implements RefCounted {
+    // one reference belongs to the dao, the others to the reads which use the table
+    private final RefCountedArena arena = new RefCountedArena();
+    private final MemorySegment storageMapped;
+    private final MemorySegment indexMapped;
+
+    MappedSSTable(Path sstablePath, Path indexPath) throws IOException {
+        storageMapped = map(sstablePath);
+        indexMapped = map(indexPath);
+    }
+
+    private MemorySegment map(Path path) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size(), arena.arena());
+        }
+    }
+
+    MemorySegment storageMapped() {
+        return storageMapped;
+    }
+
+    MemorySegment indexMapped() {
+        return indexMapped;
+    }
+
+    @Override
+    public boolean acquire() {
+        return arena.acquire();
+    }
+
+    @Override
+    public void release() {
+        arena.release();
+    }
+}
@@ -8,9 +8,11 @@ import java.util.NavigableMap;
 
 public class MemTable implements Table {
     private final Iterator<Entry<MemorySegment>> iterator;
+    private final int number;
     private MemTableEntry currentEntry;
 
-    public MemTable(NavigableMap<MemorySegment, Entry<MemorySegment>> map) {
+    public MemTable(NavigableMap<MemorySegment, Entry<MemorySegment>> map, int number) {
+        this.number = number;
         iterator = map.values().iterator();
         if (iterator.hasNext()) {
             currentEntry = new MemTableEntry(iterator.next(), this);
@@ -33,4 +35,8 @@ public class MemTable implements Table {
     public TableEntry currentEntry() {
         return currentEntry;
     }
+
+    public int number() {
+        return number;
+    }
 }
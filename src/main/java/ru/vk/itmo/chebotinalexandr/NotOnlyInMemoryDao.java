@@ -3,10 +3,10 @@ package ru.vk.itmo.chebotinalexandr;
 import ru.vk.itmo.Config;
 import ru.vk.itmo.Dao;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.MemorySegmentComparator;
 
 import java.io.IOException;
 import java.lang.foreign.MemorySegment;
-import java.lang.foreign.ValueLayout;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -20,22 +20,7 @@ public class NotOnlyInMemoryDao implements Dao<MemorySegment, Entry<MemorySegmen
             new ConcurrentSkipListMap<>(NotOnlyInMemoryDao::comparator);
 
     public static int comparator(MemorySegment segment1, MemorySegment segment2) {
-        long offset = segment1.mismatch(segment2);
-
-        if (offset == -1) {
-            return 0;
-        }
-        if (offset == segment1.byteSize()) {
-            return -1;
-        }
-        if (offset == segment2.byteSize()) {
-            return 1;
-        }
-
-        return Byte.compare(
-                segment1.get(ValueLayout.JAVA_BYTE, offset),
-                segment2.get(ValueLayout.JAVA_BYTE, offset)
-        );
+        return MemorySegmentComparator.INSTANCE.compare(segment1, segment2);
     }
 
     public static int entryComparator(Entry<MemorySegment> entry1, Entry<MemorySegment> entry2) {
@@ -114,6 +99,7 @@ public class NotOnlyInMemoryDao implements Dao<MemorySegment, Entry<MemorySegmen
         }
         sizeForCompaction += 2L * Long.BYTES * entryCount;
         sizeForCompaction += Long.BYTES + Long.BYTES * entryCount; //for metadata (header + key offsets)
+        sizeForCompaction += Long.BYTES; //format
 
         iterator = new SkipTombstoneIterator(iteratorForCompaction());
         ssTablesStorage.compact(iterator, sizeForCompaction, entryCount);
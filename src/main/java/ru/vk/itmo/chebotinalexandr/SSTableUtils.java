@@ -1,5 +1,7 @@
 package ru.vk.itmo.chebotinalexandr;
 
+import ru.vk.itmo.MemorySegmentComparator;
+
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 
@@ -22,25 +24,12 @@ public final class SSTableUtils {
             long keySize = readSegment.get(ValueLayout.JAVA_LONG_UNALIGNED, offset);
             offset += Long.BYTES;
 
-            long mismatch = MemorySegment.mismatch(readSegment, offset, offset + keySize,
+            int compare = MemorySegmentComparator.compare(readSegment, offset, offset + keySize,
                     key, 0, key.byteSize());
 
-            if (mismatch == -1) {
+            if (compare == 0) {
                 return mid;
             }
-
-            if (mismatch == keySize) {
-                low = mid;
-                continue;
-            }
-            if (mismatch == key.byteSize()) {
-                high = mid;
-                continue;
-            }
-
-            int compare = Byte.compare(readSegment.get(ValueLayout.JAVA_BYTE, offset + mismatch),
-                    key.get(ValueLayout.JAVA_BYTE, mismatch));
-
             if (compare > 0) {
                 high = mid;
             } else {
@@ -32,6 +32,12 @@ public class SSTablesStorage {
     private static final long COMPACTION_NOT_FINISHED_TAG = -1;
     private final Path basePath;
     public static final long OFFSET_FOR_SIZE = 0;
+    /*
+    Last long of the sstable, magic in the high bytes and the format version in the low ones:
+    1 - no format, keys in signed byte order
+    2 - the current one, keys in unsigned byte order of MemorySegmentComparator
+    */
+    public static final long FORMAT = 0xCEB0_7AB1_0000_0002L;
     private static final long OLDEST_SS_TABLE_INDEX = 0;
     private final List<MemorySegment> sstables;
     private final Arena arena;
@@ -59,6 +65,7 @@ public class SSTablesStorage {
                                     channel.size(),
                                     arena);
 
+                            checkFormat(readSegment, entry.getKey());
                             sstables.add(readSegment);
                         } catch (FileNotFoundException | NoSuchFileException e) {
                             arena.close();
@@ -73,6 +80,14 @@ public class SSTablesStorage {
         }
     }
 
+    //Old sstables are not converted, their keys may be ordered differently
+    private static void checkFormat(MemorySegment sstable, Path path) throws IOException {
+        long size = sstable.byteSize();
+        if (size < Long.BYTES || sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, size - Long.BYTES) != FORMAT) {
+            throw new IOException("Unsupported format of sstable " + path + ", expected version " + (FORMAT & 0xFFFF));
+        }
+    }
+
     private boolean compactionTmpFileExists() {
         Path pathTmp = basePath.resolve(SSTABLE_NAME + ".tmp");
         return Files.exists(pathTmp);
@@ -156,6 +171,7 @@ public class SSTablesStorage {
         }
         size += 2L * Long.BYTES * dataToFlush.size();
         size += Long.BYTES + Long.BYTES * dataToFlush.size(); //for metadata (header + key offsets)
+        size += Long.BYTES; //format
 
         MemorySegment memorySegment;
         try (Arena arenaForSave = Arena.ofConfined()) {
@@ -171,6 +187,7 @@ public class SSTablesStorage {
                 offset = writeEntry(entry, memorySegment, offset);
                 i++;
             }
+            memorySegment.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, FORMAT);
 
         }
         arena.close();
@@ -247,6 +264,7 @@ public class SSTablesStorage {
                 offset = writeEntry(iterator.next(), memorySegment, offset);
                 i++;
             }
+            memorySegment.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, FORMAT);
 
             memorySegment.set(ValueLayout.JAVA_LONG_UNALIGNED, OFFSET_FOR_SIZE, entryCount); //our header
         }
@@ -2,6 +2,7 @@ package ru.vk.itmo.emelyanovpavel;
 
 import ru.vk.itmo.Dao;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.MemorySegmentComparator;
 
 import java.io.IOException;
 import java.lang.foreign.Arena;
@@ -42,18 +43,23 @@ public class InMemoryDaoImpl implements Dao<MemorySegment, Entry<MemorySegment>>
 
     public InMemoryDaoImpl(Path path) throws IOException {
         configPath = path;
-        storage = new ConcurrentSkipListMap<>(new MemorySegmentComparator());
+        storage = new ConcurrentSkipListMap<>(MemorySegmentComparator.INSTANCE);
 
         if (!Files.exists(configPath)) {
             return;
         }
 
-        ssTables.addAll(getSSTablesFromMemory(path));
+        try {
+            ssTables.addAll(getSSTablesFromMemory(path));
+        } catch (IOException e) {
+            arena.close();
+            throw e;
+        }
     }
 
     public InMemoryDaoImpl() {
         configPath = null;
-        storage = new ConcurrentSkipListMap<>(new MemorySegmentComparator());
+        storage = new ConcurrentSkipListMap<>(MemorySegmentComparator.INSTANCE);
     }
 
     @Override
@@ -160,13 +166,14 @@ public class InMemoryDaoImpl implements Dao<MemorySegment, Entry<MemorySegment>>
                         writeDataToMemorySegment(entry.value(), msData, dataOffset);
                         dataOffset = getNextOffsetAfterInsertion(entry.value(), dataOffset);
                     }
+                    msData.set(JAVA_LONG_UNALIGNED, dataOffset, SSTable.FORMAT);
                 }
             }
         }
     }
 
     private long calculateCurrentStorageSize() {
-        return getAmountOfBytesToStoreKeyAndValue() + getAmountOfBytesToStoreKeyAndValueSize();
+        return getAmountOfBytesToStoreKeyAndValue() + getAmountOfBytesToStoreKeyAndValueSize() + Long.BYTES;
     }
 
     private long getAmountOfBytesToStoreKeyAndValueSize() {
@@ -219,6 +226,7 @@ public class InMemoryDaoImpl implements Dao<MemorySegment, Entry<MemorySegment>>
                             try (FileChannel dataChanel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
                                 try (FileChannel indexChanel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
                                     MemorySegment msData = dataChanel.map(READ_ONLY, 0, Files.size(dataFile), arena);
+                                    SSTable.checkFormat(msData, dataFile);
                                     MemorySegment msIndex = indexChanel.map(READ_ONLY, 0, Files.size(indexFile), arena);
                                     result.add(new SSTable(msData, msIndex, priority));
                                 }
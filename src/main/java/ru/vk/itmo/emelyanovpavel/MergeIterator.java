@@ -1,6 +1,7 @@
 package ru.vk.itmo.emelyanovpavel;
 
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.MemorySegmentComparator;
 
 import java.lang.foreign.MemorySegment;
 import java.util.Comparator;
@@ -62,7 +63,7 @@ public class MergeIterator implements Iterator<Entry<MemorySegment>> {
         return Comparator
                 .comparing(
                         (PeekIterator<Entry<MemorySegment>> it) -> it.peek().key(),
-                        new MemorySegmentComparator()
+                        MemorySegmentComparator.INSTANCE
                 )
                 .thenComparing(
                         PeekIterator::getPriority,
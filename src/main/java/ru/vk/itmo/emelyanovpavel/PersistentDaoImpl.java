@@ -3,6 +3,7 @@ package ru.vk.itmo.emelyanovpavel;
 import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Dao;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.MemorySegmentComparator;
 
 import java.io.IOException;
 import java.lang.foreign.Arena;
@@ -17,7 +18,6 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 
-import static java.lang.foreign.ValueLayout.JAVA_BYTE;
 import static java.lang.foreign.ValueLayout.JAVA_LONG_UNALIGNED;
 import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
 
@@ -40,7 +40,7 @@ public class PersistentDaoImpl implements Dao<MemorySegment, Entry<MemorySegment
     private final ConcurrentNavigableMap<MemorySegment, Entry<MemorySegment>> storage;
 
     public PersistentDaoImpl(Path path) throws IOException {
-        storage = new ConcurrentSkipListMap<>(new MemorySegmentComparator());
+        storage = new ConcurrentSkipListMap<>(MemorySegmentComparator.INSTANCE);
         dataPath = path.resolve(SSTABLE_NAME);
         indexPath = path.resolve(INDEX_NAME);
 
@@ -55,6 +55,10 @@ public class PersistentDaoImpl implements Dao<MemorySegment, Entry<MemorySegment
                 mappedData = dataChanel.map(FileChannel.MapMode.READ_ONLY, 0, Files.size(dataPath), arena);
                 mappedIndex = indexChanel.map(FileChannel.MapMode.READ_ONLY, 0, Files.size(indexPath), arena);
             }
+            SSTable.checkFormat(mappedData, dataPath);
+        } catch (IOException e) {
+            arena.close();
+            throw e;
         }
     }
 
@@ -129,24 +133,12 @@ public class PersistentDaoImpl implements Dao<MemorySegment, Entry<MemorySegment
 
             long currentKeySize = mappedData.get(JAVA_LONG_UNALIGNED, offset);
 
-            long srcKeySize = key.byteSize();
-            if (currentKeySize > srcKeySize) {
-                right = mid - 1;
-                continue;
-            }
-            if (currentKeySize < srcKeySize) {
-                left = mid + 1;
-                continue;
-            }
             offset += Long.BYTES + currentKeySize;
-            long mismatch = MemorySegment.mismatch(mappedData, offset - currentKeySize, offset, key, 0, srcKeySize);
-            if (mismatch == -1) {
+            int diff = MemorySegmentComparator.compare(mappedData, offset - currentKeySize, offset,
+                    key, 0, key.byteSize());
+            if (diff == 0) {
                 return new BaseEntry<>(key, getMappedData(offset));
             }
-
-            long indexOfMismatchByteInSStable = offset - currentKeySize + mismatch;
-            byte mismatchByteInSStable = mappedData.get(JAVA_BYTE, indexOfMismatchByteInSStable);
-            int diff = Byte.compare(mismatchByteInSStable, key.get(JAVA_BYTE, mismatch));
             if (diff < 0) {
                 left = mid + 1;
             } else {
@@ -181,6 +173,7 @@ public class PersistentDaoImpl implements Dao<MemorySegment, Entry<MemorySegment
                         writeDataToMemorySegment(entry.value(), dataSegmentSaver, dataOffset);
                         dataOffset = getNextOffsetAfterInsertion(entry.value(), dataOffset);
                     }
+                    dataSegmentSaver.set(JAVA_LONG_UNALIGNED, dataOffset, SSTable.FORMAT);
                 }
             }
         }
@@ -197,7 +190,7 @@ public class PersistentDaoImpl implements Dao<MemorySegment, Entry<MemorySegment
     }
 
     private long calculateCurrentStorageSize() {
-        return getAmountOfBytesToStoreKeyAndValue() + getAmountOfBytesToStoreKeyAndValueSize();
+        return getAmountOfBytesToStoreKeyAndValue() + getAmountOfBytesToStoreKeyAndValueSize() + Long.BYTES;
     }
 
     private long getAmountOfBytesToStoreKeyAndValueSize() {
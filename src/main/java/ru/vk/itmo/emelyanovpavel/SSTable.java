@@ -2,15 +2,23 @@ package ru.vk.itmo.emelyanovpavel;
 
 import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.MemorySegmentComparator;
 
+import java.io.IOException;
 import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
-import static java.lang.foreign.ValueLayout.JAVA_BYTE;
 import static java.lang.foreign.ValueLayout.JAVA_LONG_UNALIGNED;
 
 public class SSTable {
+    /*
+    Last long of the data file, magic in the high bytes and the format version in the low ones:
+    1 - no format, keys in signed byte order
+    2 - the current one, keys in unsigned byte order of MemorySegmentComparator
+    */
+    public static final long FORMAT = 0xE3E1_7AB1_0000_0002L;
     private final MemorySegment mappedData;
     private final MemorySegment mappedIndex;
     private final int priority;
@@ -21,6 +29,17 @@ public class SSTable {
         this.priority = priority;
     }
 
+    /**
+     * Fails on data files written in another format, their keys may be ordered differently and are not converted.
+     */
+    public static void checkFormat(MemorySegment mappedData, Path dataFile) throws IOException {
+        long size = mappedData.byteSize();
+        if (size < Long.BYTES || mappedData.get(JAVA_LONG_UNALIGNED, size - Long.BYTES) != FORMAT) {
+            throw new IOException("Unsupported format of sstable " + dataFile
+                    + ", expected version " + (FORMAT & 0xFFFF));
+        }
+    }
+
     public PeekIterator<Entry<MemorySegment>> iterator(MemorySegment from, MemorySegment to) {
         return new PeekIteratorImpl(new SSTableIterator(from, to), priority);
     }
@@ -48,7 +67,8 @@ public class SSTable {
             currentKeySize = mappedData.get(JAVA_LONG_UNALIGNED, currentKeyOffset);
 
             long fromOffset = currentKeyOffset + Long.BYTES;
-            return compare(to, mappedData, fromOffset, fromOffset + currentKeySize) > 0;
+            return MemorySegmentComparator.compare(to, 0, to.byteSize(),
+                    mappedData, fromOffset, fromOffset + currentKeySize) > 0;
         }
 
         @Override
@@ -89,7 +109,8 @@ public class SSTable {
                 long currentSize = mappedData.get(JAVA_LONG_UNALIGNED, offset);
                 offset += Long.BYTES;
 
-                int comparator = compare(key, mappedData, offset, offset + currentSize);
+                int comparator = MemorySegmentComparator.compare(key, 0, key.byteSize(),
+                        mappedData, offset, offset + currentSize);
                 if (comparator == 0) {
                     return mid * Long.BYTES;
                 }
@@ -106,25 +127,5 @@ public class SSTable {
         private long getRightLimit() {
             return mappedIndex.byteSize() / Long.BYTES - 1;
         }
-
-        private static int compare(MemorySegment segment1, MemorySegment segment2, long fromOffset, long toOffset) {
-            long mismatchOffset =
-                    MemorySegment.mismatch(
-                            segment1, 0, segment1.byteSize(),
-                            segment2, fromOffset, toOffset
-                    );
-            if (mismatchOffset == -1) {
-                return 0;
-            }
-            if (mismatchOffset == segment1.byteSize()) {
-                return -1;
-            }
-            if (mismatchOffset == segment2.byteSize()) {
-                return 1;
-            }
-            byte first = segment1.get(JAVA_BYTE, mismatchOffset);
-            byte second = segment2.get(JAVA_BYTE, fromOffset + mismatchOffset);
-            return Byte.compare(first, second);
-        }
     }
 }
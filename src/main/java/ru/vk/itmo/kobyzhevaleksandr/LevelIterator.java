@@ -0,0 +1,42 @@
+package ru.vk.itmo.kobyzhevaleksandr;
+
+import ru.vk.itmo.Entry;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over non-overlapping tables of one level sorted by key range, opening them one by one.
+ */
+public class LevelIterator implements Iterator<Entry<MemorySegment>> {
+
+    private final Iterator<LeveledTable> tables;
+    private final MemorySegment from;
+    private final MemorySegment to;
+    private Iterator<Entry<MemorySegment>> current = Collections.emptyIterator();
+
+    LevelIterator(List<LeveledTable> tables, MemorySegment from, MemorySegment to) {
+        this.tables = tables.iterator();
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext() && tables.hasNext()) {
+            current = Storage.tableIterator(tables.next().segment(), from, to);
+        }
+        return current.hasNext();
+    }
+
+    @Override
+    public Entry<MemorySegment> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+}
@@ -0,0 +1,383 @@
+package ru.vk.itmo.kobyzhevaleksandr;
+
+import ru.vk.itmo.Config;
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Leveled layout of ssTables.
+ *
+ * <p>Level 0 consists of flushed tables which may overlap. Levels 1..{@value MAX_LEVEL} consist of
+ * non-overlapping tables of about {@value TARGET_TABLE_SIZE} bytes sorted by key range,
+ * each next level is {@value LEVEL_SIZE_MULTIPLIER} times bigger than the previous one.
+ * When a level gets too big one of its tables is merged with the overlapping tables of the next level only,
+ * so the amount of rewritten data doesn't depend on the total size of the storage.
+ *
+ * <p>Tables of each level are listed in the manifest file with lines {@code <level> <file_name>},
+ * level 0 tables go from the oldest to the newest one.
+ */
+public class LeveledStorage implements TableStorage {
+
+    private static final String TABLE_FILENAME = "levelTable";
+    private static final String TABLE_EXTENSION = ".sst";
+    private static final String MANIFEST_FILENAME = "MANIFEST";
+    private static final String MANIFEST_TMP_FILENAME = MANIFEST_FILENAME + ".tmp";
+    private static final int MAX_LEVEL = 6;
+    private static final int LEVEL_ZERO_COMPACTION_TRIGGER = 4;
+    private static final long TARGET_TABLE_SIZE = 2L << 20;
+    private static final long LEVEL_BASE_SIZE = 10L << 20;
+    private static final int LEVEL_SIZE_MULTIPLIER = 10;
+    private static final MemorySegmentComparator comparator = new MemorySegmentComparator();
+
+    private final Arena arena = Arena.ofShared();
+    private final Path basePath;
+    // level 0 goes from the newest table to the oldest one, other levels are sorted by min key
+    private final List<List<LeveledTable>> levels = new ArrayList<>(MAX_LEVEL + 1);
+    // max key of the last table compacted from the level, the next compaction starts after it
+    private final MemorySegment[] compactPointers = new MemorySegment[MAX_LEVEL + 1];
+
+    private long nextTableNumber;
+
+    public LeveledStorage(Config config) {
+        this.basePath = config.basePath();
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            levels.add(new ArrayList<>());
+        }
+
+        try {
+            Files.createDirectories(basePath);
+            loadManifest();
+            removeUnlisted();
+        } catch (IOException e) {
+            throw new ApplicationException("Can't load leveled storage", e);
+        }
+    }
+
+    @Override
+    public Iterator<Entry<MemorySegment>> iterator(Iterator<Entry<MemorySegment>> memoryIterator,
+                                                   MemorySegment from, MemorySegment to) {
+        List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>();
+        iterators.add(memoryIterator);
+        for (LeveledTable table : levels.getFirst()) {
+            iterators.add(Storage.tableIterator(table.segment(), from, to));
+        }
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            List<LeveledTable> tables = levels.get(level).stream()
+                .filter(table -> table.overlaps(from, null))
+                .filter(table -> to == null || comparator.compare(table.minKey(), to) < 0)
+                .toList();
+            if (!tables.isEmpty()) {
+                iterators.add(new LevelIterator(tables, from, to));
+            }
+        }
+        return new SkipNullIterator(GlobalIterator.merge(iterators));
+    }
+
+    /**
+     * Looks through all level 0 tables and at most one table of each next level.
+     */
+    @Override
+    public Entry<MemorySegment> get(MemorySegment key) {
+        for (LeveledTable table : levels.getFirst()) {
+            Entry<MemorySegment> entry = getFromTable(table, key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            LeveledTable table = findTable(levels.get(level), key);
+            Entry<MemorySegment> entry = table == null ? null : getFromTable(table, key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static Entry<MemorySegment> getFromTable(LeveledTable table, MemorySegment key) {
+        return table.contains(key) ? Storage.getFromTable(table.segment(), key) : null;
+    }
+
+    private static LeveledTable findTable(List<LeveledTable> tables, MemorySegment key) {
+        int left = 0;
+        int right = tables.size() - 1;
+        while (left <= right) {
+            int mid = (left + right) >>> 1;
+            if (comparator.compare(tables.get(mid).maxKey(), key) < 0) {
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return left < tables.size() ? tables.get(left) : null;
+    }
+
+    @Override
+    public void save(Collection<Entry<MemorySegment>> entries) throws IOException {
+        if (!arena.scope().isAlive()) {
+            return;
+        }
+
+        try {
+            // entries already written by compaction are saved again, the newer level 0 table shadows them
+            if (!entries.isEmpty()) {
+                levels.getFirst().addFirst(writeTable(0, entries));
+                saveManifest();
+                compactLevels();
+            }
+        } finally {
+            arena.close();
+        }
+    }
+
+    @Override
+    public void compact(Iterable<Entry<MemorySegment>> iterable) throws IOException {
+        if (!arena.scope().isAlive()) {
+            return;
+        }
+        Iterator<Entry<MemorySegment>> entries = iterable.iterator();
+        if (!entries.hasNext()) {
+            return;
+        }
+
+        // every table of the current set is replaced, so compaction may run again after new saves
+        List<LeveledTable> replaced = new ArrayList<>();
+        for (List<LeveledTable> tables : levels) {
+            replaced.addAll(tables);
+        }
+        replaceTables(replaced, 1, writeTables(1, entries));
+    }
+
+    private void compactLevels() throws IOException {
+        while (true) {
+            if (levels.getFirst().size() >= LEVEL_ZERO_COMPACTION_TRIGGER) {
+                compactLevelZero();
+                continue;
+            }
+            int level = oversizedLevel();
+            if (level < 0) {
+                return;
+            }
+            compactTable(level, pickTable(level));
+        }
+    }
+
+    private void compactLevelZero() throws IOException {
+        List<LeveledTable> inputs = new ArrayList<>(levels.getFirst());
+        MemorySegment minKey = inputs.getFirst().minKey();
+        MemorySegment maxKey = inputs.getFirst().maxKey();
+        List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>(inputs.size() + 1);
+        for (LeveledTable table : inputs) {
+            iterators.add(Storage.tableIterator(table.segment(), null, null));
+            minKey = comparator.compare(table.minKey(), minKey) < 0 ? table.minKey() : minKey;
+            maxKey = comparator.compare(table.maxKey(), maxKey) > 0 ? table.maxKey() : maxKey;
+        }
+        mergeIntoNextLevel(0, inputs, iterators, minKey, maxKey);
+    }
+
+    private void compactTable(int level, LeveledTable table) throws IOException {
+        List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>(2);
+        iterators.add(Storage.tableIterator(table.segment(), null, null));
+        mergeIntoNextLevel(level, List.of(table), iterators, table.minKey(), table.maxKey());
+        compactPointers[level] = table.maxKey();
+    }
+
+    /**
+     * Merges the inputs of the level with the overlapping tables of the next level.
+     * Iterators of the inputs go from the newest to the oldest, tables of the next level are older than any of them.
+     */
+    private void mergeIntoNextLevel(int level, List<LeveledTable> inputs,
+                                    List<Iterator<Entry<MemorySegment>>> iterators,
+                                    MemorySegment minKey, MemorySegment maxKey) throws IOException {
+        int nextLevel = level + 1;
+        List<LeveledTable> overlapping = levels.get(nextLevel).stream()
+            .filter(table -> table.overlaps(minKey, maxKey))
+            .toList();
+        if (!overlapping.isEmpty()) {
+            iterators.add(new LevelIterator(overlapping, null, null));
+        }
+
+        PeekIterator<Entry<MemorySegment>> merged = GlobalIterator.merge(iterators);
+        // tombstones are needed only to hide older entries of the deeper levels
+        Iterator<Entry<MemorySegment>> entries = isLastNonEmptyLevel(nextLevel) ? new SkipNullIterator(merged) : merged;
+
+        List<LeveledTable> replaced = new ArrayList<>(inputs);
+        replaced.addAll(overlapping);
+        replaceTables(replaced, nextLevel, writeTables(nextLevel, entries));
+    }
+
+    private boolean isLastNonEmptyLevel(int level) {
+        for (int deeperLevel = level + 1; deeperLevel <= MAX_LEVEL; deeperLevel++) {
+            if (!levels.get(deeperLevel).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int oversizedLevel() {
+        long maxLevelSize = LEVEL_BASE_SIZE;
+        for (int level = 1; level < MAX_LEVEL; level++) {
+            long levelSize = 0;
+            for (LeveledTable table : levels.get(level)) {
+                levelSize += table.size();
+            }
+            if (levelSize > maxLevelSize) {
+                return level;
+            }
+            maxLevelSize *= LEVEL_SIZE_MULTIPLIER;
+        }
+        return -1;
+    }
+
+    /**
+     * Picks tables of the level in round-robin, so the whole key range is compacted evenly.
+     */
+    private LeveledTable pickTable(int level) {
+        List<LeveledTable> tables = levels.get(level);
+        MemorySegment pointer = compactPointers[level];
+        if (pointer != null) {
+            for (LeveledTable table : tables) {
+                if (comparator.compare(table.minKey(), pointer) > 0) {
+                    return table;
+                }
+            }
+        }
+        return tables.getFirst();
+    }
+
+    /**
+     * Splits sorted entries into tables of about {@value TARGET_TABLE_SIZE} bytes.
+     * Keys are unique, so the resulting tables don't overlap.
+     */
+    private List<LeveledTable> writeTables(int level, Iterator<Entry<MemorySegment>> entries) throws IOException {
+        List<LeveledTable> tables = new ArrayList<>();
+        while (entries.hasNext()) {
+            String fileName = nextTableFileName();
+            try (TableWriter writer = new TableWriter(basePath.resolve(fileName))) {
+                while (entries.hasNext() && writer.size() < TARGET_TABLE_SIZE) {
+                    writer.add(entries.next());
+                }
+                writer.finish();
+            }
+            tables.add(mapTable(level, fileName));
+        }
+        return tables;
+    }
+
+    private LeveledTable writeTable(int level, Collection<Entry<MemorySegment>> entries) throws IOException {
+        String fileName = nextTableFileName();
+        Storage.saveOnDisk(entries, basePath.resolve(fileName));
+        return mapTable(level, fileName);
+    }
+
+    private String nextTableFileName() {
+        return TABLE_FILENAME + String.format("%010d", nextTableNumber++) + TABLE_EXTENSION;
+    }
+
+    private LeveledTable mapTable(int level, String fileName) throws IOException {
+        Path tablePath = basePath.resolve(fileName);
+        MemorySegment segment = Storage.mapFile(tablePath, Files.size(tablePath), FileChannel.MapMode.READ_ONLY,
+            arena, StandardOpenOption.READ);
+        Storage.checkFormat(segment, tablePath);
+        long entriesCount = Storage.entriesCount(segment);
+        MemorySegment minKey = Storage.getEntryByIndex(segment, 0).key();
+        MemorySegment maxKey = Storage.getEntryByIndex(segment, entriesCount - 1).key();
+        return new LeveledTable(level, fileName, segment, minKey, maxKey);
+    }
+
+    /**
+     * Publishes new tables of the level in place of the replaced ones.
+     * Replaced files are deleted only after the manifest doesn't refer to them.
+     */
+    private void replaceTables(List<LeveledTable> replaced, int level, List<LeveledTable> tables) throws IOException {
+        for (LeveledTable table : replaced) {
+            levels.get(table.level()).remove(table);
+        }
+        List<LeveledTable> levelTables = levels.get(level);
+        levelTables.addAll(tables);
+        levelTables.sort(Comparator.comparing(LeveledTable::minKey, comparator));
+        saveManifest();
+
+        for (LeveledTable table : replaced) {
+            Files.delete(basePath.resolve(table.fileName()));
+        }
+    }
+
+    private void saveManifest() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (LeveledTable table : levels.getFirst().reversed()) {
+            lines.add(table.level() + " " + table.fileName());
+        }
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            for (LeveledTable table : levels.get(level)) {
+                lines.add(table.level() + " " + table.fileName());
+            }
+        }
+
+        Path manifestTmpPath = basePath.resolve(MANIFEST_TMP_FILENAME);
+        Files.write(manifestTmpPath, lines, StandardCharsets.UTF_8);
+        Files.move(manifestTmpPath, basePath.resolve(MANIFEST_FILENAME),
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void loadManifest() throws IOException {
+        Path manifestPath = basePath.resolve(MANIFEST_FILENAME);
+        if (!Files.exists(manifestPath)) {
+            return;
+        }
+
+        for (String line : Files.readAllLines(manifestPath, StandardCharsets.UTF_8)) {
+            int separator = line.indexOf(' ');
+            int level = Integer.parseInt(line.substring(0, separator));
+            String fileName = line.substring(separator + 1);
+            LeveledTable table = mapTable(level, fileName);
+            if (level == 0) {
+                levels.getFirst().addFirst(table);
+            } else {
+                levels.get(level).add(table);
+            }
+            String tableNumber = fileName.substring(TABLE_FILENAME.length(),
+                fileName.length() - TABLE_EXTENSION.length());
+            nextTableNumber = Math.max(nextTableNumber, Long.parseLong(tableNumber) + 1);
+        }
+    }
+
+    /**
+     * Removes tables left by the compaction interrupted before the manifest was saved.
+     */
+    private void removeUnlisted() throws IOException {
+        Set<String> listed = new HashSet<>();
+        for (List<LeveledTable> tables : levels) {
+            for (LeveledTable table : tables) {
+                listed.add(table.fileName());
+            }
+        }
+
+        try (Stream<Path> files = Files.list(basePath)) {
+            for (Path tablePath : files.toList()) {
+                String fileName = tablePath.getFileName().toString();
+                if (fileName.endsWith(TABLE_EXTENSION) && !listed.contains(fileName)) {
+                    Files.delete(tablePath);
+                }
+            }
+        }
+    }
+}
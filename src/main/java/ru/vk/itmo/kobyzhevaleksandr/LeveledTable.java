@@ -0,0 +1,27 @@
+package ru.vk.itmo.kobyzhevaleksandr;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * SsTable of {@link LeveledStorage} with its key range [minKey; maxKey].
+ */
+record LeveledTable(int level, String fileName, MemorySegment segment, MemorySegment minKey, MemorySegment maxKey) {
+
+    private static final MemorySegmentComparator comparator = new MemorySegmentComparator();
+
+    long size() {
+        return segment.byteSize();
+    }
+
+    /**
+     * Checks if the table has keys in range [from; to], {@code null} means unbounded.
+     */
+    boolean overlaps(MemorySegment from, MemorySegment to) {
+        return (from == null || comparator.compare(maxKey, from) >= 0)
+            && (to == null || comparator.compare(minKey, to) <= 0);
+    }
+
+    boolean contains(MemorySegment key) {
+        return overlaps(key, key);
+    }
+}
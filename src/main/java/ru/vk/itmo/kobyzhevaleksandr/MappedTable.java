@@ -0,0 +1,47 @@
+package ru.vk.itmo.kobyzhevaleksandr;
+
+import ru.vk.itmo.RefCounted;
+import ru.vk.itmo.RefCountedArena;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * SsTable of {@link Storage} mapped in its own arena which is closed when the last reference is released.
+ * The storage holds one reference while the table is in use, every read acquires its own one,
+ * so the table replaced by compaction is unmapped right after the last read which still uses it.
+ */
+final class MappedTable implements RefCounted {
+
+    private final RefCountedArena arena = new RefCountedArena();
+    private final MemorySegment segment;
+
+    MappedTable(Path tablePath) throws IOException {
+        try {
+            segment = Storage.mapFile(tablePath, Files.size(tablePath), FileChannel.MapMode.READ_ONLY, arena.arena(),
+                StandardOpenOption.READ);
+            Storage.checkFormat(segment, tablePath);
+        } catch (IOException e) {
+            arena.release();
+            throw e;
+        }
+    }
+
+    MemorySegment segment() {
+        return segment;
+    }
+
+    @Override
+    public boolean acquire() {
+        return arena.acquire();
+    }
+
+    @Override
+    public void release() {
+        arena.release();
+    }
+}
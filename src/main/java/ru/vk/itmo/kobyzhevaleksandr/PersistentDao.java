@@ -1,11 +1,15 @@
 package ru.vk.itmo.kobyzhevaleksandr;
 
+import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Config;
 import ru.vk.itmo.Dao;
+import ru.vk.itmo.Durability;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.WriteAheadLog;
 
 import java.io.IOException;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NavigableMap;
@@ -16,7 +20,8 @@ public class PersistentDao implements Dao<MemorySegment, Entry<MemorySegment>>,
     private final MemorySegmentComparator memorySegmentComparator = new MemorySegmentComparator();
     private final NavigableMap<MemorySegment, Entry<MemorySegment>> map =
         new ConcurrentSkipListMap<>(memorySegmentComparator);
-    private final Storage storage;
+    private final TableStorage storage;
+    private final WriteAheadLog wal;
 
     /*
     Filling ssTable with bytes from the memory segment with a structure:
@@ -25,33 +30,45 @@ public class PersistentDao implements Dao<MemorySegment, Entry<MemorySegment>>,
     If value is null then value_size = -1
      */
     public PersistentDao(Config config) {
-        this.storage = new Storage(config);
+        this(config, false);
+    }
+
+    /**
+     * Creates dao with leveled layout of ssTables if {@code leveledCompaction} is set,
+     * otherwise all ssTables are kept in a single level and compaction rewrites all of them.
+     */
+    public PersistentDao(Config config, boolean leveledCompaction) {
+        this(config, leveledCompaction, Durability.ASYNC);
+    }
+
+    /**
+     * Creates dao which logs upserts with the given durability until they are saved on close,
+     * see {@link WriteAheadLog}.
+     */
+    public PersistentDao(Config config, boolean leveledCompaction, Durability durability) {
+        this.storage = leveledCompaction ? new LeveledStorage(config) : new Storage(config);
+        try {
+            this.wal = WriteAheadLog.open(config.basePath(), durability, this::replay);
+        } catch (IOException e) {
+            throw new ApplicationException("Can't replay write-ahead log", e);
+        }
     }
 
     @Override
     public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
-        Iterator<Entry<MemorySegment>> memoryIterator = getMemoryIterator(from, to);
-        Iterator<Entry<MemorySegment>> storageIterator = storage.iterator(from, to);
-        return new SkipNullIterator(GlobalIterator.merge(List.of(memoryIterator, storageIterator)));
+        return storage.iterator(getMemoryIterator(from, to), from, to);
     }
 
     @Override
     public Entry<MemorySegment> get(MemorySegment key) {
         Entry<MemorySegment> entry = map.get(key);
-        if (entry != null && entry.value() != null) {
-            return entry;
+        if (entry == null) {
+            entry = storage.get(key);
         }
-
-        Iterator<Entry<MemorySegment>> iterator = get(key, null);
-        if (!iterator.hasNext()) {
+        if (entry == null || entry.value() == null) {
             return null;
         }
-
-        Entry<MemorySegment> next = iterator.next();
-        if (memorySegmentComparator.compare(next.key(), key) == 0) {
-            return next;
-        }
-        return null;
+        return entry;
     }
 
     @Override
@@ -59,7 +76,8 @@ public class PersistentDao implements Dao<MemorySegment, Entry<MemorySegment>>,
         if (entry == null) {
             throw new IllegalArgumentException("Entry cannot be null.");
         }
-        map.put(entry.key(), entry);
+        long sequence = wal.append(List.of(entry), () -> map.put(entry.key(), entry));
+        wal.await(sequence);
     }
 
     @Override
@@ -69,7 +87,27 @@ public class PersistentDao implements Dao<MemorySegment, Entry<MemorySegment>>,
 
     @Override
     public void close() throws IOException {
-        storage.save(map.values());
+        try {
+            storage.save(map.values());
+            // everything is in ssTables now
+            wal.release(Long.MAX_VALUE);
+        } finally {
+            wal.close();
+        }
+    }
+
+    /**
+     * Logged entries are valid only during replay, so they are copied to the heap.
+     */
+    private void replay(List<Entry<MemorySegment>> entries) {
+        for (Entry<MemorySegment> entry : entries) {
+            MemorySegment key = copy(entry.key());
+            map.put(key, new BaseEntry<>(key, entry.value() == null ? null : copy(entry.value())));
+        }
+    }
+
+    private static MemorySegment copy(MemorySegment segment) {
+        return MemorySegment.ofArray(segment.toArray(ValueLayout.JAVA_BYTE));
     }
 
     @Override
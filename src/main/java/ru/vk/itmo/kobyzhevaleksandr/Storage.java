@@ -3,11 +3,14 @@ package ru.vk.itmo.kobyzhevaleksandr;
 import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Config;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.RefCounted;
+import ru.vk.itmo.SnapshotIterator;
 
 import java.io.IOException;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
@@ -25,35 +28,51 @@ import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
-public class Storage {
+public class Storage implements TableStorage {
 
     private static final String TABLE_FILENAME = "ssTable";
     private static final String TABLE_EXTENSION = ".dat";
     private static final String COMPACTED_TABLE_FILENAME = TABLE_FILENAME + "Compact" + TABLE_EXTENSION;
-    private static final long NULL_SIZE = -1;
-    private static final long ENTRY_COUNT_OFFSET = 0;
+    static final long NULL_SIZE = -1;
+    // entry position and normalized key prefix
+    static final long INDEX_ENTRY_SIZE = 2L * Long.BYTES;
+    // [entry_count][format]
+    static final long FOOTER_SIZE = 2L * Long.BYTES;
+    /*
+    Magic in the high bytes and the format version in the low ones, negative so it is never taken for
+    the entry count in the last long of the unversioned tables:
+    1 - [entry_count]{[entry_pos]...}{[key_size][key][value_size][value]}...
+    2 - {[key_size][key][value_size][value]}...{[entry_pos]...}[entry_count]
+    3 - the current one with key prefixes in the index and the format in the footer
+    */
+    static final long FORMAT = 0xC0B1_5AB1_0000_0003L;
+    private static final long SIGN_BITS = 0x8080808080808080L;
+    private static final ValueLayout.OfLong BIG_ENDIAN_LONG =
+        ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
     private static final Logger logger = Logger.getLogger(Storage.class.getPackage().getName());
     private static final Pattern tablesPattern = Pattern.compile(TABLE_FILENAME + "\\d*" + TABLE_EXTENSION + "$");
 
-    private final Arena arena = Arena.ofShared();
     private final Config config;
-    private final List<MemorySegment> mappedSsTables;
+    // from the newest table to the oldest one, replaced as a whole by compaction
+    private volatile List<MappedTable> ssTables;
 
-    private boolean isCompacted;
+    private boolean isClosed;
 
     /*
     Filling ssTable with bytes from the memory segment with a structure:
-    [entry_count]{[entry_pos]...}{[key_size][key][value_size][value]}...
+    {[key_size][key][value_size][value]}...{[entry_pos][key_prefix]...}[entry_count][format]
 
     If value is null then value_size = -1
+    key_prefix is the first 8 bytes of the key, see keyPrefix
     */
     public Storage(Config config) {
         this.config = config;
-        mappedSsTables = new ArrayList<>();
+        List<MappedTable> tables = new ArrayList<>();
         Path tablesDir = config.basePath();
 
         if (!Files.exists(tablesDir)) {
             logger.log(Level.WARNING, "Can''t find the file {0}", tablesDir);
+            ssTables = List.of();
             return;
         }
         try (Stream<Path> files = Files.list(tablesDir)) {
@@ -62,9 +81,7 @@ public class Storage {
                 .sorted(Collections.reverseOrder())
                 .forEach(tablePath -> {
                     try {
-                        long size = Files.size(tablePath);
-                        mappedSsTables.add(mapFile(tablePath, size, FileChannel.MapMode.READ_ONLY, arena,
-                            StandardOpenOption.READ));
+                        tables.add(new MappedTable(tablePath));
                     } catch (IOException e) {
                         logger.log(Level.SEVERE, "Can''t find the file {0}", tablePath);
                         throw new ApplicationException("Can't access the file", e);
@@ -73,70 +90,147 @@ public class Storage {
         } catch (IOException e) {
             throw new ApplicationException("Can't access the file", e);
         }
-        mappedSsTables.reversed();
+        ssTables = List.copyOf(tables);
     }
 
-    public Iterator<Entry<MemorySegment>> iterator(MemorySegment from, MemorySegment to) {
-        List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>(mappedSsTables.size());
-        for (MemorySegment mappedSsTable : mappedSsTables) {
-            long fromPos;
-            long toPos;
-            if (from == null) {
-                fromPos = 0;
-            } else {
-                fromPos = binarySearchIndex(mappedSsTable, from);
-            }
-            if (to == null) {
-                toPos = mappedSsTable.get(ValueLayout.JAVA_LONG_UNALIGNED, ENTRY_COUNT_OFFSET);
-            } else {
-                toPos = binarySearchIndex(mappedSsTable, to);
+    /**
+     * Acquires the current tables, retries if compaction has just replaced them.
+     */
+    private List<MappedTable> acquireTables() {
+        return RefCounted.acquireCurrent(() -> ssTables, RefCounted::acquireAll);
+    }
+
+    @Override
+    public Iterator<Entry<MemorySegment>> iterator(Iterator<Entry<MemorySegment>> memoryIterator,
+                                                   MemorySegment from, MemorySegment to) {
+        List<MappedTable> tables = acquireTables();
+        List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>(tables.size() + 1);
+        iterators.add(memoryIterator);
+        for (MappedTable table : tables) {
+            iterators.add(tableIterator(table.segment(), from, to));
+        }
+
+        return new SnapshotIterator<>(
+            new SkipNullIterator(GlobalIterator.merge(iterators)),
+            () -> RefCounted.releaseAll(tables)
+        );
+    }
+
+    /**
+     * The value is copied, so it stays valid after the table is unmapped.
+     */
+    @Override
+    public Entry<MemorySegment> get(MemorySegment key) {
+        List<MappedTable> tables = acquireTables();
+        try {
+            for (MappedTable table : tables) {
+                Entry<MemorySegment> entry = getFromTable(table.segment(), key);
+                if (entry != null) {
+                    return new BaseEntry<>(key, entry.value() == null ? null
+                        : MemorySegment.ofArray(entry.value().toArray(ValueLayout.JAVA_BYTE)));
+                }
             }
-            iterators.add(
-                new Iterator<>() {
-                    long pos = fromPos;
+            return null;
+        } finally {
+            RefCounted.releaseAll(tables);
+        }
+    }
 
-                    @Override
-                    public boolean hasNext() {
-                        return pos < toPos;
-                    }
+    static Iterator<Entry<MemorySegment>> tableIterator(MemorySegment mappedSsTable,
+                                                        MemorySegment from, MemorySegment to) {
+        long fromPos;
+        long toPos;
+        if (from == null) {
+            fromPos = 0;
+        } else {
+            fromPos = binarySearchIndex(mappedSsTable, from);
+        }
+        if (to == null) {
+            toPos = entriesCount(mappedSsTable);
+        } else {
+            toPos = binarySearchIndex(mappedSsTable, to);
+        }
+        return new Iterator<>() {
+            long pos = fromPos;
 
-                    @Override
-                    public Entry<MemorySegment> next() {
-                        if (!hasNext()) {
-                            throw new NoSuchElementException();
-                        }
+            @Override
+            public boolean hasNext() {
+                return pos < toPos;
+            }
 
-                        return getEntryByIndex(mappedSsTable, pos++);
-                    }
+            @Override
+            public Entry<MemorySegment> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
                 }
-            );
+
+                return getEntryByIndex(mappedSsTable, pos++);
+            }
+        };
+    }
+
+    /**
+     * Returns entry with exactly the same key (tombstones included) or {@code null} if there is no such key.
+     */
+    static Entry<MemorySegment> getFromTable(MemorySegment mappedSsTable, MemorySegment key) {
+        long pos = binarySearchIndex(mappedSsTable, key);
+        if (pos >= entriesCount(mappedSsTable)) {
+            return null;
         }
+        Entry<MemorySegment> entry = getEntryByIndex(mappedSsTable, pos);
+        return entry.key().mismatch(key) == -1 ? entry : null;
+    }
 
-        return GlobalIterator.merge(iterators);
+    static long entriesCount(MemorySegment mappedSsTable) {
+        return mappedSsTable.get(ValueLayout.JAVA_LONG_UNALIGNED, mappedSsTable.byteSize() - FOOTER_SIZE);
     }
 
+    /**
+     * Fails on tables written in another format, they are not converted and must be rewritten by the dao
+     * that wrote them.
+     */
+    static void checkFormat(MemorySegment mappedSsTable, Path tablePath) throws IOException {
+        long size = mappedSsTable.byteSize();
+        if (size < FOOTER_SIZE || mappedSsTable.get(ValueLayout.JAVA_LONG_UNALIGNED, size - Long.BYTES) != FORMAT) {
+            throw new IOException("Unsupported format of ssTable " + tablePath
+                + ", expected version " + (FORMAT & 0xFFFF));
+        }
+    }
+
+    @Override
     public void save(Collection<Entry<MemorySegment>> entries) throws IOException {
-        if (!arena.scope().isAlive()) {
+        if (isClosed) {
             return;
         }
-        arena.close();
+        isClosed = true;
+        // tables still used by the reads are unmapped after them
+        RefCounted.releaseAll(ssTables);
 
-        if (entries.isEmpty() || isCompacted) {
+        if (entries.isEmpty()) {
             return;
         }
 
-        Path tablePath = getTablePathForIndex(mappedSsTables.size());
+        Path tablePath = getTablePathForIndex(ssTables.size());
         saveOnDisk(entries, tablePath);
     }
 
+    /**
+     * Replaces all tables with the compacted one. Reads which use the replaced tables keep them mapped,
+     * the files are deleted right away.
+     */
+    @Override
     public void compact(Iterable<Entry<MemorySegment>> iterable) throws IOException {
-        if (!arena.scope().isAlive() || isCompacted || !iterable.iterator().hasNext()) {
+        if (isClosed) {
+            return;
+        }
+        // the iterator holds the tables until it is exhausted, so the same one is checked and written
+        Iterator<Entry<MemorySegment>> entries = iterable.iterator();
+        if (!entries.hasNext()) {
             return;
         }
 
         Path compactedTablePath = config.basePath().resolve(COMPACTED_TABLE_FILENAME);
-        saveOnDisk(iterable, compactedTablePath);
-        isCompacted = true;
+        saveOnDisk(() -> entries, compactedTablePath);
 
         try (Stream<Path> files = Files.list(config.basePath())) {
             files
@@ -152,74 +246,39 @@ public class Storage {
 
         Path tablePath = getTablePathForIndex(0);
         Files.move(compactedTablePath, tablePath, StandardCopyOption.ATOMIC_MOVE);
+
+        List<MappedTable> replaced = ssTables;
+        ssTables = List.of(new MappedTable(tablePath));
+        RefCounted.releaseAll(replaced);
     }
 
     /**
-     * Saving to disk is done using {@link Iterable}. Iterable allows you to return multiple iterators.
-     * In our case, the first iterator is used to calculate the size of the resulting ssTable and the number of entries,
-     * and the second one is used to write segments directly to the mapped ssTable.
-     *
-     * <p>In addition, using Iterable allows you to make the {@code saveOnDisk()} method universal,
-     * since saving is performed in two cases: when calling {@link PersistentDao#close()},
+     * Writes entries to ssTable in a single pass with {@link TableWriter}.
+     * Saving is performed in two cases: when calling {@link PersistentDao#close()},
      * that is, all entries from {@link java.util.NavigableMap} are written,
      * and also when {@link PersistentDao#compact()}, which involves the use of iterators.
      *
      * @param iterable data to be saved on disk
      * @param tablePath path to the file where you want to save the data
      */
-    private static void saveOnDisk(Iterable<Entry<MemorySegment>> iterable, Path tablePath) throws IOException {
-        try (Arena writeArena = Arena.ofConfined()) {
-            long ssTableSize = 0;
-            long entriesCount = 0;
-            Iterator<Entry<MemorySegment>> iterator = iterable.iterator();
-            Entry<MemorySegment> entry;
-            while (iterator.hasNext()) {
-                entry = iterator.next();
-                long valueSize = entry.value() == null ? 0 : entry.value().byteSize();
-                ssTableSize += Long.BYTES + entry.key().byteSize() + Long.BYTES + valueSize;
-                entriesCount++;
-            }
-            long entriesStartIndex = getOffsetInBytes(entriesCount);
-
-            MemorySegment mappedSsTableFile = mapFile(tablePath, ssTableSize + entriesStartIndex,
-                FileChannel.MapMode.READ_WRITE, writeArena,
-                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
-
-            long indexOffset = Long.BYTES;
-            long dataOffset = 0;
-            mappedSsTableFile.set(ValueLayout.JAVA_LONG_UNALIGNED, dataOffset, entriesCount);
-            dataOffset += entriesStartIndex;
-            iterator = iterable.iterator();
-            while (iterator.hasNext()) {
-                entry = iterator.next();
-                mappedSsTableFile.set(ValueLayout.JAVA_LONG_UNALIGNED, indexOffset, dataOffset);
-                indexOffset += Long.BYTES;
-                dataOffset += writeSegmentToMappedTableFile(mappedSsTableFile, entry.key(), dataOffset);
-                dataOffset += writeSegmentToMappedTableFile(mappedSsTableFile, entry.value(), dataOffset);
+    static void saveOnDisk(Iterable<Entry<MemorySegment>> iterable, Path tablePath) throws IOException {
+        try (TableWriter writer = new TableWriter(tablePath)) {
+            for (Entry<MemorySegment> entry : iterable) {
+                writer.add(entry);
             }
+            writer.finish();
         }
     }
 
-    private static MemorySegment mapFile(Path filePath, long bytesSize, FileChannel.MapMode mapMode, Arena arena,
-                                         OpenOption... options) throws IOException {
+    static MemorySegment mapFile(Path filePath, long bytesSize, FileChannel.MapMode mapMode, Arena arena,
+                                 OpenOption... options) throws IOException {
         try (FileChannel fileChannel = FileChannel.open(filePath, options)) {
             return fileChannel.map(mapMode, 0, bytesSize, arena);
         }
     }
 
-    private static long writeSegmentToMappedTableFile(MemorySegment mappedTableFile,
-                                                      MemorySegment segment, long offset) {
-        if (segment == null) {
-            mappedTableFile.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, NULL_SIZE);
-            return Long.BYTES;
-        }
-        mappedTableFile.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, segment.byteSize());
-        MemorySegment.copy(segment, 0, mappedTableFile, offset + Long.BYTES, segment.byteSize());
-        return Long.BYTES + segment.byteSize();
-    }
-
-    private static Entry<MemorySegment> getEntryByIndex(MemorySegment mappedSsTable, long index) {
-        long entryOffset = mappedSsTable.get(ValueLayout.JAVA_LONG_UNALIGNED, getOffsetInBytes(index));
+    static Entry<MemorySegment> getEntryByIndex(MemorySegment mappedSsTable, long index) {
+        long entryOffset = mappedSsTable.get(ValueLayout.JAVA_LONG_UNALIGNED, getOffsetInBytes(mappedSsTable, index));
         long keySize = mappedSsTable.get(ValueLayout.JAVA_LONG_UNALIGNED, entryOffset);
         long valueSize = mappedSsTable.get(ValueLayout.JAVA_LONG_UNALIGNED, entryOffset + Long.BYTES + keySize);
         return new BaseEntry<>(
@@ -229,36 +288,34 @@ public class Storage {
         );
     }
 
-    private static long getOffsetInBytes(long index) {
-        return Long.BYTES + Long.BYTES * index;
+    private static long getOffsetInBytes(MemorySegment mappedSsTable, long index) {
+        long indexStart = mappedSsTable.byteSize() - FOOTER_SIZE - INDEX_ENTRY_SIZE * entriesCount(mappedSsTable);
+        return indexStart + INDEX_ENTRY_SIZE * index;
     }
 
-    private long binarySearchIndex(MemorySegment ssTable, MemorySegment key) {
-        long entriesCount = ssTable.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
+    /**
+     * Searches the index by the key prefixes stored next to the entry positions,
+     * so the data region is read only when the prefixes are equal.
+     *
+     * @return index of the key or of the first greater key
+     */
+    static long binarySearchIndex(MemorySegment ssTable, MemorySegment key) {
+        long indexStart = getOffsetInBytes(ssTable, 0);
+        long keyPrefix = keyPrefix(key);
         long left = 0;
-        long right = entriesCount - 1;
+        long right = entriesCount(ssTable) - 1;
         while (left <= right) {
             long mid = (left + right) >>> 1;
-            long keyOffset = ssTable.get(ValueLayout.JAVA_LONG_UNALIGNED, getOffsetInBytes(mid));
-            long keySize = ssTable.get(ValueLayout.JAVA_LONG_UNALIGNED, keyOffset);
-            keyOffset += Long.BYTES;
+            long indexEntry = indexStart + INDEX_ENTRY_SIZE * mid;
+            int result = Long.compareUnsigned(
+                ssTable.get(ValueLayout.JAVA_LONG_UNALIGNED, indexEntry + Long.BYTES), keyPrefix);
+            if (result == 0) {
+                result = compareKey(ssTable, ssTable.get(ValueLayout.JAVA_LONG_UNALIGNED, indexEntry), key);
+            }
 
-            long mismatchResult = MemorySegment.mismatch(ssTable, keyOffset, keyOffset + keySize,
-                key, 0, key.byteSize());
-            if (mismatchResult == -1) {
+            if (result == 0) {
                 return mid;
             }
-            if (mismatchResult == keySize) {
-                left = mid + 1;
-                continue;
-            }
-            if (mismatchResult == key.byteSize()) {
-                right = mid - 1;
-                continue;
-            }
-
-            int result = Byte.compare(ssTable.get(ValueLayout.JAVA_BYTE, keyOffset + mismatchResult),
-                key.get(ValueLayout.JAVA_BYTE, mismatchResult));
             if (result < 0) {
                 left = mid + 1;
             } else {
@@ -268,6 +325,45 @@ public class Storage {
         return left;
     }
 
+    private static int compareKey(MemorySegment ssTable, long entryOffset, MemorySegment key) {
+        long keySize = ssTable.get(ValueLayout.JAVA_LONG_UNALIGNED, entryOffset);
+        long keyOffset = entryOffset + Long.BYTES;
+        long mismatchResult = MemorySegment.mismatch(ssTable, keyOffset, keyOffset + keySize,
+            key, 0, key.byteSize());
+        if (mismatchResult == -1) {
+            return 0;
+        }
+        if (mismatchResult == keySize) {
+            return -1;
+        }
+        if (mismatchResult == key.byteSize()) {
+            return 1;
+        }
+        return Byte.compare(ssTable.get(ValueLayout.JAVA_BYTE, keyOffset + mismatchResult),
+            key.get(ValueLayout.JAVA_BYTE, mismatchResult));
+    }
+
+    /**
+     * First 8 bytes of the key as a big-endian number, shorter keys are padded with zeros.
+     * The sign bit of every byte is flipped, so the prefixes compared as unsigned numbers
+     * follow the signed byte order of {@link MemorySegmentComparator}.
+     * Different prefixes order the keys, equal prefixes say nothing.
+     */
+    static long keyPrefix(MemorySegment key) {
+        long keySize = key.byteSize();
+        if (keySize >= Long.BYTES) {
+            return key.get(BIG_ENDIAN_LONG, 0) ^ SIGN_BITS;
+        }
+        long prefix = 0;
+        for (long i = 0; i < Long.BYTES; i++) {
+            prefix <<= Byte.SIZE;
+            if (i < keySize) {
+                prefix |= (key.get(ValueLayout.JAVA_BYTE, i) ^ 0x80) & 0xFF;
+            }
+        }
+        return prefix;
+    }
+
     private Path getTablePathForIndex(int index) {
         String tableIndex = String.format("%010d", index);
         return config.basePath().resolve(TABLE_FILENAME + tableIndex + TABLE_EXTENSION);
@@ -0,0 +1,37 @@
+package ru.vk.itmo.kobyzhevaleksandr;
+
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * On-disk part of {@link PersistentDao}: a set of ssTables with their layout and compaction strategy.
+ */
+public interface TableStorage {
+
+    /**
+     * Returns live entries of the in-memory iterator merged with all ssTables in range [from; to),
+     * in-memory entries win. The ssTables stay readable until the returned iterator is exhausted.
+     */
+    Iterator<Entry<MemorySegment>> iterator(Iterator<Entry<MemorySegment>> memoryIterator,
+                                            MemorySegment from, MemorySegment to);
+
+    /**
+     * Returns the newest entry for the key (it may be a tombstone) or {@code null} if the key is absent.
+     * The entry stays valid after compaction.
+     */
+    Entry<MemorySegment> get(MemorySegment key);
+
+    /**
+     * Persists in-memory entries and releases storage.
+     */
+    void save(Collection<Entry<MemorySegment>> entries) throws IOException;
+
+    /**
+     * Rewrites all data given by iterable, that is both in-memory and on-disk entries.
+     */
+    void compact(Iterable<Entry<MemorySegment>> iterable) throws IOException;
+}
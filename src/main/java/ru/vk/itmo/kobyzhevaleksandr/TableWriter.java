@@ -0,0 +1,132 @@
+package ru.vk.itmo.kobyzhevaleksandr;
+
+import ru.vk.itmo.Entry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes sorted entries to ssTable in a single pass, see {@link Storage} for the format.
+ *
+ * <p>Entries are appended through a reusable direct buffer. Segments that don't fit into the buffer
+ * are written straight from their memory together with the buffered bytes by a gather write.
+ * Entry positions and key prefixes are spilled to a temporary index file, which is appended to ssTable
+ * with {@link FileChannel#transferFrom} when the writer is finished.
+ */
+final class TableWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String INDEX_SUFFIX = ".index";
+
+    private final Path indexPath;
+    private final FileChannel channel;
+    private final FileChannel indexChannel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+    private final ByteBuffer indexBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+    private long position;
+    private long entriesCount;
+
+    TableWriter(Path tablePath) throws IOException {
+        this.indexPath = tablePath.resolveSibling(tablePath.getFileName() + INDEX_SUFFIX);
+        this.channel = FileChannel.open(tablePath,
+            StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.indexChannel = FileChannel.open(indexPath,
+            StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    void add(Entry<MemorySegment> entry) throws IOException {
+        if (indexBuffer.remaining() < Storage.INDEX_ENTRY_SIZE) {
+            writeFully(indexChannel, indexBuffer.flip());
+            indexBuffer.clear();
+        }
+        indexBuffer.putLong(position);
+        indexBuffer.putLong(Storage.keyPrefix(entry.key()));
+        entriesCount++;
+
+        putSegment(entry.key());
+        putSegment(entry.value());
+    }
+
+    /**
+     * Size of ssTable if it was finished now.
+     */
+    long size() {
+        return position + entriesCount * Storage.INDEX_ENTRY_SIZE + Storage.FOOTER_SIZE;
+    }
+
+    /**
+     * Appends index, entries count and format.
+     */
+    void finish() throws IOException {
+        writeFully(indexChannel, indexBuffer.flip());
+        indexBuffer.clear();
+        flushBuffer();
+
+        long indexSize = entriesCount * Storage.INDEX_ENTRY_SIZE;
+        long transferred = 0;
+        while (transferred < indexSize) {
+            transferred += channel.transferFrom(indexChannel.position(transferred), position + transferred,
+                indexSize - transferred);
+        }
+        position += indexSize;
+        // transfer doesn't move the channel position
+        channel.position(position);
+
+        buffer.putLong(entriesCount);
+        buffer.putLong(Storage.FORMAT);
+        flushBuffer();
+    }
+
+    private void putSegment(MemorySegment segment) throws IOException {
+        if (buffer.remaining() < Long.BYTES) {
+            flushBuffer();
+        }
+        if (segment == null) {
+            buffer.putLong(Storage.NULL_SIZE);
+            position += Long.BYTES;
+            return;
+        }
+        buffer.putLong(segment.byteSize());
+        position += Long.BYTES + segment.byteSize();
+
+        if (segment.byteSize() <= buffer.remaining()) {
+            buffer.put(segment.asByteBuffer());
+            return;
+        }
+        gather[0] = buffer.flip();
+        gather[1] = segment.asByteBuffer();
+        while (gather[1].hasRemaining()) {
+            channel.write(gather);
+        }
+        buffer.clear();
+    }
+
+    private void flushBuffer() throws IOException {
+        writeFully(channel, buffer.flip());
+        buffer.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer byteBuffer) throws IOException {
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            indexChannel.close();
+        } finally {
+            Files.deleteIfExists(indexPath);
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package ru.vk.itmo.kovalchukvladislav;
 
+import ru.vk.itmo.BloomFilter;
 import ru.vk.itmo.Config;
 import ru.vk.itmo.Entry;
 import ru.vk.itmo.kovalchukvladislav.model.DaoIterator;
 import ru.vk.itmo.kovalchukvladislav.model.EntryExtractor;
+import ru.vk.itmo.kovalchukvladislav.model.RowCache;
 
 import java.io.IOException;
 import java.lang.foreign.Arena;
@@ -18,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
 
 public abstract class AbstractBasedOnSSTableDao<D, E extends Entry<D>> extends AbstractInMemoryDao<D, E> {
     //  ===================================
@@ -27,6 +30,8 @@ public abstract class AbstractBasedOnSSTableDao<D, E extends Entry<D>> extends A
     private static final String OFFSETS_FILENAME_PREFIX = "offsets_";
     private static final String METADATA_FILENAME = "metadata";
     private static final String DB_FILENAME_PREFIX = "db_";
+    private static final String BLOOM_FILTER_FILENAME_PREFIX = "bloom_";
+    public static final double DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE = 0.01;
 
     //  ===================================
     //  Variables
@@ -36,6 +41,14 @@ public abstract class AbstractBasedOnSSTableDao<D, E extends Entry<D>> extends A
     private final Path metadataPath;
     private final Arena arena = Arena.ofShared();
     private final EntryExtractor<D, E> extractor;
+    private final double bloomFilterFalsePositiveRate;
+    private final LongAdder bloomFilterChecks = new LongAdder();
+    private final LongAdder bloomFilterSkips = new LongAdder();
+    private final int rowCacheCapacity;
+    private final LongAdder rowCacheLookups = new LongAdder();
+    private final LongAdder rowCacheHits = new LongAdder();
+    // null if disabled, replaced by an empty one on flush
+    private volatile RowCache<D, E> rowCache;
 
     //  ===================================
     //  Storages
@@ -44,10 +57,35 @@ public abstract class AbstractBasedOnSSTableDao<D, E extends Entry<D>> extends A
     private final int storagesCount;
     private final List<MemorySegment> dbMappedSegments;
     private final List<MemorySegment> offsetMappedSegments;
+    // null for storages written without bloom filter
+    private final List<BloomFilter> bloomFilters;
 
     protected AbstractBasedOnSSTableDao(Config config, EntryExtractor<D, E> extractor) throws IOException {
+        this(config, extractor, DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE);
+    }
+
+    protected AbstractBasedOnSSTableDao(Config config, EntryExtractor<D, E> extractor,
+                                        double bloomFilterFalsePositiveRate) throws IOException {
+        this(config, extractor, bloomFilterFalsePositiveRate, 0);
+    }
+
+    /**
+     * Row cache of {@code rowCacheCapacity} entries keeps results of storage lookups, 0 disables it.
+     */
+    protected AbstractBasedOnSSTableDao(Config config, EntryExtractor<D, E> extractor,
+                                        double bloomFilterFalsePositiveRate, int rowCacheCapacity) throws IOException {
         super(extractor);
+        if (!(bloomFilterFalsePositiveRate > 0 && bloomFilterFalsePositiveRate < 1)) {
+            throw new IllegalArgumentException(
+                    "False positive rate must be in (0, 1): " + bloomFilterFalsePositiveRate);
+        }
+        if (rowCacheCapacity < 0) {
+            throw new IllegalArgumentException("Row cache capacity must not be negative: " + rowCacheCapacity);
+        }
         this.extractor = extractor;
+        this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+        this.rowCacheCapacity = rowCacheCapacity;
+        this.rowCache = newRowCache();
         this.basePath = Objects.requireNonNull(config.basePath());
 
         if (!Files.exists(basePath)) {
@@ -58,10 +96,12 @@ public abstract class AbstractBasedOnSSTableDao<D, E extends Entry<D>> extends A
         this.storagesCount = getCountFromMetadataOrCreate();
         this.dbMappedSegments = new ArrayList<>(storagesCount);
         this.offsetMappedSegments = new ArrayList<>(storagesCount);
+        this.bloomFilters = new ArrayList<>(storagesCount);
 
         for (int i = 0; i < storagesCount; i++) {
             readFileAndMapToSegment(DB_FILENAME_PREFIX, i, dbMappedSegments);
             readFileAndMapToSegment(OFFSETS_FILENAME_PREFIX, i, offsetMappedSegments);
+            readBloomFilter(i);
         }
     }
 
@@ -86,6 +126,18 @@ public abstract class AbstractBasedOnSSTableDao<D, E extends Entry<D>> extends A
         }
     }
 
+    private void readBloomFilter(int index) throws IOException {
+        Path path = basePath.resolve(BLOOM_FILTER_FILENAME_PREFIX + index);
+        if (!Files.exists(path)) {
+            bloomFilters.add(null);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, Files.size(path), arena);
+            bloomFilters.add(BloomFilter.wrap(segment));
+        }
+    }
+
     //  ===================================
     //  Finding in storage
     //  ===================================
@@ -101,12 +153,60 @@ public abstract class AbstractBasedOnSSTableDao<D, E extends Entry<D>> extends A
         if (e != null) {
             return e.value() == null ? null : e;
         }
-        E fromFile = findInStorages(key);
+        E fromFile = findInStoragesCached(key);
         return (fromFile == null || fromFile.value() == null) ? null : fromFile;
     }
 
+    // memtable is checked before the cache, so a row cached concurrently with upsert of its key is never seen
+    private E findInStoragesCached(D key) {
+        RowCache<D, E> cache = rowCache;
+        if (cache == null) {
+            return findInStorages(key);
+        }
+        long keyHash = extractor.hash(key);
+        rowCacheLookups.increment();
+        RowCache.Row<D, E> row = cache.get(key, keyHash);
+        if (row != null) {
+            rowCacheHits.increment();
+            return row.entry();
+        }
+        E fromFile = findInStorages(key);
+        // keys from storages are mapped, the absent key is copied as the caller may reuse it
+        cache.put(fromFile == null ? copyOf(key) : fromFile.key(), keyHash, fromFile);
+        return fromFile;
+    }
+
+    // the memtable shadows the cached rows, so tests check the cache itself
+    boolean isRowCached(D key) {
+        RowCache<D, E> cache = rowCache;
+        return cache != null && cache.get(key, extractor.hash(key)) != null;
+    }
+
+    private D copyOf(D key) {
+        MemorySegment copy = MemorySegment.ofArray(new byte[Math.toIntExact(extractor.size(key))]);
+        extractor.writeValue(key, copy, 0);
+        return extractor.readValue(copy, 0);
+    }
+
+    private RowCache<D, E> newRowCache() {
+        return rowCacheCapacity == 0 ? null : new RowCache<>(rowCacheCapacity, comparator);
+    }
+
+    @Override
+    public void upsert(E entry) {
+        super.upsert(entry);
+        RowCache<D, E> cache = rowCache;
+        if (cache != null) {
+            cache.invalidate(entry.key(), extractor.hash(entry.key()));
+        }
+    }
+
     private E findInStorages(D key) {
+        long keyHash = extractor.hash(key);
         for (int i = storagesCount - 1; i >= 0; i--) {
+            if (!mightContain(bloomFilters.get(i), keyHash)) {
+                continue;
+            }
             MemorySegment storage = dbMappedSegments.get(i);
             MemorySegment offsets = offsetMappedSegments.get(i);
 
@@ -125,12 +225,41 @@ public abstract class AbstractBasedOnSSTableDao<D, E extends Entry<D>> extends A
         return null;
     }
 
+    private boolean mightContain(BloomFilter bloomFilter, long keyHash) {
+        if (bloomFilter == null) {
+            return true;
+        }
+        bloomFilterChecks.increment();
+        if (bloomFilter.mightContain(keyHash)) {
+            return true;
+        }
+        bloomFilterSkips.increment();
+        return false;
+    }
+
+    /**
+     * Returns share of storage lookups skipped by bloom filters since the dao was opened.
+     */
+    public double getBloomFilterSkipRate() {
+        long checks = bloomFilterChecks.sum();
+        return checks == 0 ? 0 : (double) bloomFilterSkips.sum() / checks;
+    }
+
+    /**
+     * Returns share of storage lookups answered by the row cache since the dao was opened.
+     */
+    public double getRowCacheHitRate() {
+        long lookups = rowCacheLookups.sum();
+        return lookups == 0 ? 0 : (double) rowCacheHits.sum() / lookups;
+    }
+
     //  ===================================
     //  Writing data
     //  ===================================
     private void writeData() throws IOException {
         Path dbPath = basePath.resolve(DB_FILENAME_PREFIX + storagesCount);
         Path offsetsPath = basePath.resolve(OFFSETS_FILENAME_PREFIX + storagesCount);
+        Path bloomFilterPath = basePath.resolve(BLOOM_FILTER_FILENAME_PREFIX + storagesCount);
 
         OpenOption[] options = new OpenOption[] {
                 StandardOpenOption.READ,
@@ -141,12 +270,17 @@ public abstract class AbstractBasedOnSSTableDao<D, E extends Entry<D>> extends A
 
         try (FileChannel db = FileChannel.open(dbPath, options);
              FileChannel offsets = FileChannel.open(offsetsPath, options);
+             FileChannel bloom = FileChannel.open(bloomFilterPath, options);
              Arena confinedArena = Arena.ofConfined()) {
 
             long dbSize = getDAOBytesSize();
-            long offsetsSize = (long) dao.size() * Long.BYTES;
+            int entriesCount = dao.size();
+            long offsetsSize = (long) entriesCount * Long.BYTES;
+            long bloomSize = BloomFilter.byteSize(entriesCount, bloomFilterFalsePositiveRate);
             MemorySegment fileSegment = db.map(FileChannel.MapMode.READ_WRITE, 0, dbSize, confinedArena);
             MemorySegment offsetsSegment = offsets.map(FileChannel.MapMode.READ_WRITE, 0, offsetsSize, confinedArena);
+            MemorySegment bloomSegment = bloom.map(FileChannel.MapMode.READ_WRITE, 0, bloomSize, confinedArena);
+            BloomFilter bloomFilter = BloomFilter.create(bloomSegment, entriesCount, bloomFilterFalsePositiveRate);
 
             int i = 0;
             long offset = 0;
@@ -154,9 +288,11 @@ public abstract class AbstractBasedOnSSTableDao<D, E extends Entry<D>> extends A
                 offsetsSegment.setAtIndex(LONG_LAYOUT, i, offset);
                 i += 1;
                 offset = extractor.writeEntry(entry, fileSegment, offset);
+                bloomFilter.add(extractor.hash(entry.key()));
             }
             fileSegment.load();
             offsetsSegment.load();
+            bloomSegment.load();
         }
     }
 
@@ -176,6 +312,8 @@ public abstract class AbstractBasedOnSSTableDao<D, E extends Entry<D>> extends A
         if (!dao.isEmpty()) {
             writeData();
             Files.writeString(metadataPath, String.valueOf(storagesCount + 1));
+            // rows are valid for the storages they were read from
+            rowCache = newRowCache();
         }
     }
 
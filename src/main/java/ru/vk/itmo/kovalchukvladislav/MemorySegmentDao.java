@@ -10,4 +10,13 @@ public class MemorySegmentDao extends AbstractBasedOnSSTableDao<MemorySegment, E
     public MemorySegmentDao(Config config) throws IOException {
         super(config, MemorySegmentEntryExtractor.INSTANCE);
     }
+
+    public MemorySegmentDao(Config config, double bloomFilterFalsePositiveRate) throws IOException {
+        super(config, MemorySegmentEntryExtractor.INSTANCE, bloomFilterFalsePositiveRate);
+    }
+
+    public MemorySegmentDao(Config config, double bloomFilterFalsePositiveRate,
+                            int rowCacheCapacity) throws IOException {
+        super(config, MemorySegmentEntryExtractor.INSTANCE, bloomFilterFalsePositiveRate, rowCacheCapacity);
+    }
 }
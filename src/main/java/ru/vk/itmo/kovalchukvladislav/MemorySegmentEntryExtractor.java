@@ -1,6 +1,7 @@
 package ru.vk.itmo.kovalchukvladislav;
 
 import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.BloomFilter;
 import ru.vk.itmo.Entry;
 import ru.vk.itmo.kovalchukvladislav.model.EntryExtractor;
 
@@ -88,6 +89,11 @@ public final class MemorySegmentEntryExtractor implements EntryExtractor<MemoryS
         return new BaseEntry<>(key, value);
     }
 
+    @Override
+    public long hash(MemorySegment value) {
+        return BloomFilter.hash(value);
+    }
+
     @Override
     public int compare(MemorySegment a, MemorySegment b) {
         if (a == null && b == null) {
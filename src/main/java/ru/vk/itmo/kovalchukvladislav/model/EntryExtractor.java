@@ -20,4 +20,6 @@ public interface EntryExtractor<D, E extends Entry<D>> extends Comparator<D> {
     long size(E entry);
 
     E createEntry(D key, D value);
+
+    long hash(D value);
 }
@@ -0,0 +1,58 @@
+package ru.vk.itmo.kovalchukvladislav.model;
+
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded direct-mapped cache of storage lookups by key hash. A row with null entry means
+ * the key is absent in storages. Colliding keys replace each other, so memory is fixed by capacity
+ * and reads and writes are single atomic array accesses.
+ */
+public final class RowCache<D, E> {
+    private final AtomicReferenceArray<Row<D, E>> rows;
+    private final Comparator<? super D> comparator;
+    private final int mask;
+
+    public RowCache(int capacity, Comparator<? super D> comparator) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        this.rows = new AtomicReferenceArray<>(size);
+        this.comparator = comparator;
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns the cached row of the key or null if the key is not cached.
+     */
+    public Row<D, E> get(D key, long hash) {
+        Row<D, E> row = rows.get(index(hash));
+        if (row == null || row.hash() != hash || comparator.compare(row.key(), key) != 0) {
+            return null;
+        }
+        return row;
+    }
+
+    /**
+     * Key must stay valid while the row is cached.
+     */
+    public void put(D key, long hash, E entry) {
+        rows.set(index(hash), new Row<>(hash, key, entry));
+    }
+
+    public void invalidate(D key, long hash) {
+        int index = index(hash);
+        Row<D, E> row = rows.get(index);
+        if (row != null && row.hash() == hash && comparator.compare(row.key(), key) == 0) {
+            rows.compareAndSet(index, row, null);
+        }
+    }
+
+    private int index(long hash) {
+        return (int) hash & mask;
+    }
+
+    public record Row<D, E>(long hash, D key, E entry) {
+    }
+}
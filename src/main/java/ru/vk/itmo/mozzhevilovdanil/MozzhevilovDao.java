@@ -1,32 +1,68 @@
 package ru.vk.itmo.mozzhevilovdanil;
 
+import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Config;
 import ru.vk.itmo.Dao;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.RefCounted;
+import ru.vk.itmo.SnapshotIterator;
 import ru.vk.itmo.mozzhevilovdanil.iterators.DatabaseIterator;
 
 import java.io.IOException;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class MozzhevilovDao implements Dao<MemorySegment, Entry<MemorySegment>> {
 
-    private final NavigableMap<MemorySegment, Entry<MemorySegment>> storage =
-            new ConcurrentSkipListMap<>(DatabaseUtils.comparator);
+    // memory tables and ssTables are published together, reads take the current state without locks
+    private final AtomicReference<State> state;
+    // upserts don't go to the storage which is being written
+    private final ReadWriteLock upsertLock = new ReentrantReadWriteLock();
+    // compaction and close replace the state one at a time
+    private final Lock tablesLock = new ReentrantLock();
     private final TablesManager tablesManager;
 
     public MozzhevilovDao(Config config) throws IOException {
         this.tablesManager = new TablesManager(config);
+        this.state = new AtomicReference<>(new State(newStorage(), newStorage(), tablesManager.open()));
+    }
+
+    private static NavigableMap<MemorySegment, Entry<MemorySegment>> newStorage() {
+        return new ConcurrentSkipListMap<>(DatabaseUtils.comparator);
+    }
+
+    // ssTables of the returned state are not unmapped until it is released
+    private State acquireState() {
+        return RefCounted.acquireCurrent(state::get, State::acquire);
     }
 
     @Override
     public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
-        return new DatabaseIterator(getMap(from, to), tablesManager.get(from, to));
+        State current = acquireState();
+        List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>();
+        iterators.add(getMap(current.writing(), from, to));
+        iterators.addAll(TablesManager.get(current.ssTables(), from, to));
+        return new SnapshotIterator<>(
+                new DatabaseIterator(getMap(current.storage(), from, to), iterators),
+                current::release
+        );
     }
 
-    private Iterator<Entry<MemorySegment>> getMap(MemorySegment from, MemorySegment to) {
+    private static Iterator<Entry<MemorySegment>> getMap(
+            NavigableMap<MemorySegment, Entry<MemorySegment>> storage,
+            MemorySegment from,
+            MemorySegment to
+    ) {
         if (from == null && to == null) {
             return storage.values().iterator();
         }
@@ -41,25 +77,86 @@ public class MozzhevilovDao implements Dao<MemorySegment, Entry<MemorySegment>>
 
     @Override
     public void upsert(Entry<MemorySegment> entry) {
-        storage.put(entry.key(), entry);
+        upsertLock.readLock().lock();
+        try {
+            state.get().storage().put(entry.key(), entry);
+        } finally {
+            upsertLock.readLock().unlock();
+        }
     }
 
     @Override
     public Entry<MemorySegment> get(MemorySegment key) {
-        Entry<MemorySegment> entry = storage.get(key);
-        if (entry != null) {
-            return entry.value() == null ? null : entry;
+        State current = acquireState();
+        try {
+            Entry<MemorySegment> entry = current.storage().get(key);
+            if (entry == null) {
+                entry = current.writing().get(key);
+            }
+            if (entry != null) {
+                return entry.value() == null ? null : entry;
+            }
+            entry = TablesManager.get(current.ssTables(), key);
+            // the table may be unmapped by compaction right after the release
+            return entry == null ? null
+                    : new BaseEntry<>(key, MemorySegment.ofArray(entry.value().toArray(ValueLayout.JAVA_BYTE)));
+        } finally {
+            current.release();
         }
-        return tablesManager.get(key);
     }
 
     @Override
     public void close() throws IOException {
-        tablesManager.store(storage, false);
+        tablesLock.lock();
+        try {
+            State current = state.get();
+            SSTable stored = tablesManager.store(current.storage(), current.ssTables(), false);
+            // the table is only written here, it is read after reopen
+            if (stored != null) {
+                stored.release();
+            }
+            state.set(new State(newStorage(), newStorage(), List.of()));
+            // the state doesn't hold the replaced tables anymore
+            current.release();
+        } finally {
+            tablesLock.unlock();
+        }
     }
 
     @Override
     public void compact() throws IOException {
-        tablesManager.compact(storage);
+        tablesLock.lock();
+        try {
+            State current;
+            upsertLock.writeLock().lock();
+            try {
+                current = state.get();
+                current = new State(newStorage(), current.storage(), current.ssTables());
+                state.set(current);
+            } finally {
+                upsertLock.writeLock().unlock();
+            }
+
+            SSTable compacted = tablesManager.compact(current.writing(), current.ssTables());
+            List<SSTable> ssTables = compacted == null ? List.of() : List.of(compacted);
+            state.set(new State(state.get().storage(), newStorage(), ssTables));
+            current.release();
+        } finally {
+            tablesLock.unlock();
+        }
+    }
+
+    record State(
+            NavigableMap<MemorySegment, Entry<MemorySegment>> storage,
+            NavigableMap<MemorySegment, Entry<MemorySegment>> writing,
+            List<SSTable> ssTables
+    ) {
+        boolean acquire() {
+            return RefCounted.acquireAll(ssTables);
+        }
+
+        void release() {
+            RefCounted.releaseAll(ssTables);
+        }
     }
 }
@@ -3,10 +3,11 @@ package ru.vk.itmo.mozzhevilovdanil;
 import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Config;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.RefCounted;
+import ru.vk.itmo.RefCountedArena;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
@@ -20,14 +21,16 @@ import static java.lang.foreign.ValueLayout.JAVA_LONG_UNALIGNED;
 import static java.util.Collections.emptyIterator;
 import static ru.vk.itmo.mozzhevilovdanil.DatabaseUtils.binSearch;
 
-public class SSTable {
+public class SSTable implements RefCounted {
     private final MemorySegment readPage;
     private final MemorySegment readIndex;
+    // one reference belongs to the dao until the table is replaced, the others to open reads
+    private final RefCountedArena arena = new RefCountedArena();
 
     private boolean isCreated;
 
     // comment to pass stage 3
-    SSTable(Arena arena, Config config, long tableIndex) throws IOException {
+    SSTable(Config config, long tableIndex) throws IOException {
         Path tablePath = config.basePath().resolve(tableIndex + ".db");
         Path indexPath = config.basePath().resolve(tableIndex + ".index.db");
 
@@ -42,17 +45,17 @@ public class SSTable {
             return;
         }
 
-        MemorySegment pageCurrent = getMemorySegment(size, tablePath, arena);
-        MemorySegment indexCurrent = getMemorySegment(indexSize, indexPath, arena);
+        MemorySegment pageCurrent = getMemorySegment(size, tablePath);
+        MemorySegment indexCurrent = getMemorySegment(indexSize, indexPath);
 
         readPage = pageCurrent;
         readIndex = indexCurrent;
     }
 
-    private MemorySegment getMemorySegment(long size, Path path, Arena arena) throws IOException {
+    private MemorySegment getMemorySegment(long size, Path path) throws IOException {
         MemorySegment currentMemorySegment;
         try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
-            currentMemorySegment = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+            currentMemorySegment = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena.arena());
             isCreated = true;
         } catch (FileNotFoundException e) {
             currentMemorySegment = null;
@@ -131,4 +134,14 @@ public class SSTable {
     public boolean isCreated() {
         return isCreated;
     }
+
+    @Override
+    public boolean acquire() {
+        return arena.acquire();
+    }
+
+    @Override
+    public void release() {
+        arena.release();
+    }
 }
@@ -23,39 +23,19 @@ import static java.lang.foreign.ValueLayout.JAVA_LONG_UNALIGNED;
 
 public class TablesManager {
     private final Config config;
-    private final Arena arena = Arena.ofShared();
-    private final List<SSTable> ssTables = new ArrayList<>();
     private long tableIndex;
-    private boolean isClosed;
 
     private static final String INDEX_PATH_SUFFIX = ".index.db";
     private static final String DB_PATH_SUFFIX = ".db";
 
-    public TablesManager(Config config) throws IOException {
+    public TablesManager(Config config) {
         this.config = config;
         File[] allFiles = config.basePath().toFile().listFiles();
         if (allFiles == null) {
             tableIndex = 0;
-            ssTables.add(new SSTable(arena, config, tableIndex));
             return;
         }
-
         tableIndex = allFiles.length / 2L;
-        for (long i = tableIndex; i >= 0; i--) {
-            ssTables.add(new SSTable(arena, config, i));
-        }
-
-        boolean isAnyTableAlive = false;
-        for (SSTable ssTable : ssTables) {
-            if (ssTable.isCreated()) {
-                isAnyTableAlive = true;
-                break;
-            }
-        }
-
-        if (!isAnyTableAlive) {
-            arena.close();
-        }
     }
 
     private static FileChannel getFileChannel(Path tempIndexPath) throws IOException {
@@ -63,7 +43,21 @@ public class TablesManager {
                 StandardOpenOption.READ, StandardOpenOption.CREATE);
     }
 
-    public Entry<MemorySegment> get(MemorySegment key) {
+    // newest tables go first
+    List<SSTable> open() throws IOException {
+        List<SSTable> ssTables = new ArrayList<>();
+        for (long i = tableIndex; i >= 0; i--) {
+            SSTable ssTable = new SSTable(config, i);
+            if (ssTable.isCreated()) {
+                ssTables.add(ssTable);
+            } else {
+                ssTable.release();
+            }
+        }
+        return List.copyOf(ssTables);
+    }
+
+    public static Entry<MemorySegment> get(List<SSTable> ssTables, MemorySegment key) {
         Entry<MemorySegment> entry;
         for (SSTable ssTable : ssTables) {
             entry = ssTable.get(key);
@@ -74,7 +68,11 @@ public class TablesManager {
         return null;
     }
 
-    public List<Iterator<Entry<MemorySegment>>> get(MemorySegment from, MemorySegment to) {
+    public static List<Iterator<Entry<MemorySegment>>> get(
+            List<SSTable> ssTables,
+            MemorySegment from,
+            MemorySegment to
+    ) {
         List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>();
         for (SSTable ssTable : ssTables) {
             iterators.add(ssTable.get(from, to));
@@ -82,38 +80,41 @@ public class TablesManager {
         return iterators;
     }
 
-    void compact(NavigableMap<MemorySegment, Entry<MemorySegment>> storage) throws IOException {
+    // the replaced tables are released by the dao after it publishes the compacted one
+    SSTable compact(
+            NavigableMap<MemorySegment, Entry<MemorySegment>> storage,
+            List<SSTable> ssTables
+    ) throws IOException {
         tableIndex = 0;
-        store(storage, true);
+        SSTable compacted = store(storage, ssTables, true);
 
         File[] allFiles = config.basePath().toFile().listFiles();
 
         if (allFiles != null) {
             for (File file : allFiles) {
-                if (file.toPath().compareTo(getIndexPath()) == 0 || file.toPath().compareTo(getDataBasePath()) == 0) {
+                if (compacted != null && (file.toPath().compareTo(getIndexPath(0)) == 0
+                        || file.toPath().compareTo(getDataBasePath(0)) == 0)) {
                     continue;
                 }
                 Files.deleteIfExists(file.toPath());
             }
         }
-        ssTables.clear();
+        return compacted;
     }
 
-    void store(NavigableMap<MemorySegment, Entry<MemorySegment>> storage, boolean withSStables) throws IOException {
-        if (isClosed) {
-            return;
-        }
+    // returns null if there is nothing to write
+    SSTable store(
+            NavigableMap<MemorySegment, Entry<MemorySegment>> storage,
+            List<SSTable> ssTables,
+            boolean withSStables
+    ) throws IOException {
         Iterator<Entry<MemorySegment>> iterator = storage.values().iterator();
         if (withSStables) {
-            iterator = new DatabaseIterator(iterator, get(null, null));
-        }
-
-        if (arena.scope().isAlive() && !withSStables) {
-            arena.close();
+            iterator = new DatabaseIterator(iterator, get(ssTables, null, null));
         }
 
         if (!iterator.hasNext()) {
-            return;
+            return null;
         }
 
         long size = 0;
@@ -138,25 +139,22 @@ public class TablesManager {
         Path tempIndexPath = tempDir.resolve(tableIndex + INDEX_PATH_SUFFIX);
         Path tempDataBasePath = tempDir.resolve(tableIndex + DB_PATH_SUFFIX);
 
-        tryToWrite(storage, withSStables, size, indexSize, tempDataBasePath, tempIndexPath);
+        tryToWrite(storage, ssTables, withSStables, size, indexSize, tempDataBasePath, tempIndexPath);
 
-        Path indexPath = getDataBasePath();
-        Path dataBasePath = getIndexPath();
+        Path indexPath = getDataBasePath(tableIndex);
+        Path dataBasePath = getIndexPath(tableIndex);
 
         Files.move(tempDataBasePath, dataBasePath, StandardCopyOption.ATOMIC_MOVE);
         Files.move(tempIndexPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
 
         Files.deleteIfExists(tempDir);
 
-        storage.clear();
-        isClosed = true;
-        if (arena.scope().isAlive() && withSStables) {
-            arena.close();
-        }
+        return new SSTable(config, tableIndex++);
     }
 
     private void tryToWrite(
             NavigableMap<MemorySegment, Entry<MemorySegment>> storage,
+            List<SSTable> ssTables,
             boolean withSStables,
             long size,
             long indexSize,
@@ -181,7 +179,7 @@ public class TablesManager {
             iterator = storage.values().iterator();
 
             if (withSStables) {
-                iterator = new DatabaseIterator(iterator, get(null, null));
+                iterator = new DatabaseIterator(iterator, get(ssTables, null, null));
             }
 
             while (iterator.hasNext()) {
@@ -215,7 +213,7 @@ public class TablesManager {
             iterator = storage.values().iterator();
 
             if (withSStables) {
-                iterator = new DatabaseIterator(iterator, get(null, null));
+                iterator = new DatabaseIterator(iterator, get(ssTables, null, null));
             }
 
             while (iterator.hasNext()) {
@@ -237,11 +235,11 @@ public class TablesManager {
         }
     }
 
-    private Path getIndexPath() {
-        return config.basePath().resolve(tableIndex + INDEX_PATH_SUFFIX);
+    private Path getIndexPath(long index) {
+        return config.basePath().resolve(index + INDEX_PATH_SUFFIX);
     }
 
-    private Path getDataBasePath() {
-        return config.basePath().resolve(tableIndex + DB_PATH_SUFFIX);
+    private Path getDataBasePath(long index) {
+        return config.basePath().resolve(index + DB_PATH_SUFFIX);
     }
 }
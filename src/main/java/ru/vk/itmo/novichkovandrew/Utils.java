@@ -33,11 +33,11 @@ public final class Utils {
 
     /**
      * Read long value from file opened in FileChannel.
+     * Doesn't move channel position, so concurrent reads are safe.
      */
     public static long readLong(FileChannel channel, long offset) throws IOException {
-        channel.position(offset);
         ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-        channel.read(buffer);
+        channel.read(buffer, offset);
         buffer.flip();
         return buffer.getLong();
     }
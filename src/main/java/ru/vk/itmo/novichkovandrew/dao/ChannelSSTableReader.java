@@ -0,0 +1,54 @@
+package ru.vk.itmo.novichkovandrew.dao;
+
+import ru.vk.itmo.novichkovandrew.Utils;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class ChannelSSTableReader implements SSTableReader {
+    private final FileChannel channel;
+    private final int size;
+
+    public ChannelSSTableReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = Math.toIntExact(Utils.readLong(channel, 0L));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public MemorySegment key(int index) throws IOException {
+        long keyOffset = Utils.readLong(channel, SSTableReader.keyOffsetPosition(index));
+        long valueOffset = Utils.readLong(channel, SSTableReader.valueOffsetPosition(index));
+        return read(keyOffset, valueOffset - keyOffset);
+    }
+
+    @Override
+    public MemorySegment value(int index) throws IOException {
+        long valueOffset = Utils.readLong(channel, SSTableReader.valueOffsetPosition(index));
+        long nextKeyOffset = Utils.readLong(channel, SSTableReader.keyOffsetPosition(index + 1));
+        return read(valueOffset, nextKeyOffset - valueOffset);
+    }
+
+    private MemorySegment read(long offset, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(length));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of SSTable at " + (offset + buffer.position()));
+            }
+        }
+        return MemorySegment.ofArray(buffer.array());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,57 @@
+package ru.vk.itmo.novichkovandrew.dao;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Offsets are written with ByteBuffer, so they are big-endian.
+ */
+public class MappedSSTableReader implements SSTableReader {
+    private static final ValueLayout.OfLong OFFSET_LAYOUT =
+            ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    private final Arena arena;
+    private final MemorySegment table;
+    private final int size;
+
+    public MappedSSTableReader(Path path) throws IOException {
+        this.arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.table = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+        } catch (IOException e) {
+            arena.close();
+            throw e;
+        }
+        this.size = Math.toIntExact(table.get(OFFSET_LAYOUT, 0L));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public MemorySegment key(int index) {
+        long keyOffset = table.get(OFFSET_LAYOUT, SSTableReader.keyOffsetPosition(index));
+        long valueOffset = table.get(OFFSET_LAYOUT, SSTableReader.valueOffsetPosition(index));
+        return table.asSlice(keyOffset, valueOffset - keyOffset);
+    }
+
+    @Override
+    public MemorySegment value(int index) {
+        long valueOffset = table.get(OFFSET_LAYOUT, SSTableReader.valueOffsetPosition(index));
+        long nextKeyOffset = table.get(OFFSET_LAYOUT, SSTableReader.keyOffsetPosition(index + 1));
+        return table.asSlice(valueOffset, nextKeyOffset - valueOffset);
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
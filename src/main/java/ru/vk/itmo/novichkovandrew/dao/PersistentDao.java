@@ -2,15 +2,19 @@ package ru.vk.itmo.novichkovandrew.dao;
 
 import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.RefCount;
+import ru.vk.itmo.RefCounted;
 import ru.vk.itmo.novichkovandrew.Utils;
 import ru.vk.itmo.novichkovandrew.exceptions.FileChannelException;
 
 import java.io.IOException;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 
 public class PersistentDao extends InMemoryDao {
@@ -18,22 +22,58 @@ public class PersistentDao extends InMemoryDao {
      * File with SSTable path.
      */
     private final Path path;
+    /**
+     * Flush writes here and then renames it over {@link #path}, so the live table is never rewritten.
+     */
+    private final Path tmpPath;
 
-    private final Arena arena;
+    private final SSTableReader.Mode readMode;
+    private volatile Table table;
     private final StandardOpenOption[] openOptions = new StandardOpenOption[]{
             StandardOpenOption.WRITE,
             StandardOpenOption.READ,
-            StandardOpenOption.CREATE
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING
     };
 
-    public PersistentDao(Path path) {
+    public PersistentDao(Path path) throws IOException {
+        this(path, SSTableReader.Mode.MMAP);
+    }
+
+    public PersistentDao(Path path, SSTableReader.Mode readMode) throws IOException {
         this.path = path.resolve("data.txt");
-        this.arena = Arena.ofConfined();
+        this.tmpPath = path.resolve("data.txt.tmp");
+        this.readMode = readMode;
+        this.table = openTable();
+    }
+
+    private Table openTable() throws IOException {
+        if (Files.notExists(path)) {
+            return null;
+        }
+        SSTableReader reader = switch (readMode) {
+            case CHANNEL -> new ChannelSSTableReader(path);
+            case MMAP -> new MappedSSTableReader(path);
+        };
+        return new Table(reader, new RefCount(() -> closeReader(reader)));
+    }
+
+    private void closeReader(SSTableReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new FileChannelException("Couldn't close file " + path, e);
+        }
     }
 
+    /**
+     * Gets keep reading the previous table while the new one is written.
+     * The previous reader is closed after the last get which uses it.
+     */
     @Override
-    public void flush() throws IOException {
-        try (FileChannel sst = FileChannel.open(path, openOptions)) {
+    public synchronized void flush() throws IOException {
+        try (FileChannel sst = FileChannel.open(tmpPath, openOptions);
+             Arena arena = Arena.ofConfined()) {
             long metaSize = super.getMetaDataSize();
             long sstOffset = 0L;
             long indexOffset = Utils.writeLong(sst, 0L, entriesMap.size());
@@ -47,6 +87,16 @@ public class PersistentDao extends InMemoryDao {
             }
             writePosToFile(sst, indexOffset, sstOffset + metaSize, 0L);
         }
+        Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        swapTable(openTable());
+    }
+
+    private void swapTable(Table newTable) {
+        Table replaced = table;
+        table = newTable;
+        if (replaced != null) {
+            replaced.release();
+        }
     }
 
     private long writePosToFile(FileChannel channel, long rawOffset, long keyOff, long valOff) throws IOException {
@@ -57,11 +107,9 @@ public class PersistentDao extends InMemoryDao {
     }
 
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
         if (!entriesMap.isEmpty()) flush();
-        if (arena.scope().isAlive()) {
-            arena.close();
-        }
+        swapTable(null);
     }
 
     @Override
@@ -70,58 +118,55 @@ public class PersistentDao extends InMemoryDao {
         if (entry != null) {
             return entry;
         }
-        if (Files.notExists(path)) {
+        Table current = RefCounted.acquireCurrent(() -> table, t -> t == null || t.acquire());
+        if (current == null) {
             return null;
         }
-        try (FileChannel sstChannel = FileChannel.open(path, StandardOpenOption.READ)) {
-            return binarySearch(sstChannel, key);
+        try {
+            return binarySearch(current.reader(), key);
         } catch (IOException e) {
-            throw new FileChannelException("Couldn't open file " + path, e);
+            throw new FileChannelException("Couldn't read file " + path, e);
+        } finally {
+            current.release();
         }
     }
 
-    private Entry<MemorySegment> binarySearch(FileChannel sst, MemorySegment key) throws IOException {
+    private Entry<MemorySegment> binarySearch(SSTableReader sst, MemorySegment key) throws IOException {
         int l = 0;
-        int r = Math.toIntExact(Utils.readLong(sst, 0L));
+        int r = sst.size();
         while (l < r) {
             int mid = l + (r - l) / 2;
-            MemorySegment middle = getKeyByIndex(sst, mid);
+            MemorySegment middle = sst.key(mid);
             if (comparator.compare(key, middle) <= 0) {
                 r = mid;
             } else {
                 l = mid + 1;
             }
         }
-        var resultKey = getKeyByIndex(sst, l);
+        if (l == sst.size()) {
+            return null;
+        }
+        var resultKey = sst.key(l);
         if (comparator.compare(key, resultKey) == 0) {
-            return new BaseEntry<>(resultKey, getValueByIndex(sst, l));
+            // the value is copied, so it stays valid after the reader is closed
+            return new BaseEntry<>(key, MemorySegment.ofArray(sst.value(l).toArray(ValueLayout.JAVA_BYTE)));
         }
         return null;
     }
 
-    private MemorySegment getKeyByIndex(FileChannel sst, int index) throws IOException {
-        long keyOffset = getKeyOffset(sst, index);
-        long valueOffset = getValueOffset(sst, index);
-        if (valueOffset == 0) return null;
-        return sst.map(FileChannel.MapMode.READ_ONLY, keyOffset, valueOffset - keyOffset, arena);
-    }
-
-    private MemorySegment getValueByIndex(FileChannel sst, int index) throws IOException {
-        long valueOffset = getValueOffset(sst, index);
-        if (valueOffset < 0) {
-            return null;
+    /**
+     * Reader of the table file, the dao holds one reference until the file is replaced by flush,
+     * every get acquires its own one.
+     */
+    record Table(SSTableReader reader, RefCount references) implements RefCounted {
+        @Override
+        public boolean acquire() {
+            return references.acquire();
         }
-        long nextKeyOffset = getKeyOffset(sst, index + 1);
-        return sst.map(FileChannel.MapMode.READ_ONLY, valueOffset, nextKeyOffset - valueOffset, arena);
-    }
 
-    private long getKeyOffset(FileChannel sst, int index) throws IOException {
-        long rawOffset = (2L * index + 1) * (long) Long.BYTES;
-        return Utils.readLong(sst, rawOffset);
-    }
-
-    private long getValueOffset(FileChannel sst, int index) throws IOException {
-        long rawOffset = (2L * index + 2) * (long) Long.BYTES;
-        return Utils.readLong(sst, rawOffset);
+        @Override
+        public void release() {
+            references.release();
+        }
     }
 }
@@ -0,0 +1,48 @@
+package ru.vk.itmo.novichkovandrew.dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Read access to SSTable file written by {@link PersistentDao#flush()}.
+ * File layout: [size][keyOffset_0, valueOffset_0]...[keyOffset_size, 0][key_0][value_0]...
+ */
+public interface SSTableReader extends Closeable {
+    /**
+     * Number of entries in the table.
+     */
+    int size();
+
+    MemorySegment key(int index) throws IOException;
+
+    MemorySegment value(int index) throws IOException;
+
+    /**
+     * Position of key offset of entry in the table file.
+     */
+    static long keyOffsetPosition(int index) {
+        return (2L * index + 1) * Long.BYTES;
+    }
+
+    /**
+     * Position of value offset of entry in the table file.
+     */
+    static long valueOffsetPosition(int index) {
+        return (2L * index + 2) * Long.BYTES;
+    }
+
+    /**
+     * How table is read, selected when dao is opened.
+     */
+    enum Mode {
+        /**
+         * Positional FileChannel reads on every probe.
+         */
+        CHANNEL,
+        /**
+         * Whole file is mapped once, probes are plain memory accesses.
+         */
+        MMAP
+    }
+}
@@ -0,0 +1,42 @@
+package ru.vk.itmo.pashchenkoalexandr;
+
+import ru.vk.itmo.Entry;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Forward cursor over sorted entries which doesn't allocate an entry per step.
+ * The cursor starts before the first entry, {@link #next()} moves it to the next one.
+ * {@link #key()} and {@link #value()} are views valid only until the cursor moves,
+ * {@link #entry()} returns the current entry which stays valid.
+ */
+public interface Cursor extends AutoCloseable {
+
+    /**
+     * Moves the cursor before the first entry with key not less than the given one, null means the first entry.
+     * Upper bound of the cursor is kept.
+     */
+    void seek(MemorySegment from);
+
+    /**
+     * Moves the cursor to the next entry, returns false if there are no more entries.
+     */
+    boolean next();
+
+    MemorySegment key();
+
+    /**
+     * Returns value of the current entry or null for tombstone.
+     */
+    MemorySegment value();
+
+    Entry<MemorySegment> entry();
+
+    /**
+     * Releases the sstables the cursor reads, the cursor and its entries can't be used after that.
+     */
+    @Override
+    default void close() {
+        // nothing is held by default
+    }
+}
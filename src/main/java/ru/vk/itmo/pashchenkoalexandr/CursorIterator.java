@@ -0,0 +1,58 @@
+package ru.vk.itmo.pashchenkoalexandr;
+
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Entry;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over the entries of the cursor, the cursor is closed once it is exhausted.
+ * Entries of the copying iterator are on heap, so they stay valid after the sstables are released.
+ */
+final class CursorIterator implements Iterator<Entry<MemorySegment>> {
+
+    private final Cursor cursor;
+    private final boolean copy;
+    private boolean moved;
+    private boolean hasNext;
+
+    CursorIterator(Cursor cursor) {
+        this(cursor, false);
+    }
+
+    CursorIterator(Cursor cursor, boolean copy) {
+        this.cursor = cursor;
+        this.copy = copy;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!moved) {
+            hasNext = cursor.next();
+            moved = true;
+            if (!hasNext) {
+                cursor.close();
+            }
+        }
+        return hasNext;
+    }
+
+    @Override
+    public Entry<MemorySegment> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        moved = false;
+        if (!copy) {
+            return cursor.entry();
+        }
+        MemorySegment value = cursor.value();
+        return new BaseEntry<>(
+                MemorySegment.ofArray(cursor.key().toArray(ValueLayout.JAVA_BYTE)),
+                value == null ? null : MemorySegment.ofArray(value.toArray(ValueLayout.JAVA_BYTE))
+        );
+    }
+}
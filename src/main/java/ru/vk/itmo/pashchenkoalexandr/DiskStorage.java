@@ -1,229 +1,221 @@
 package ru.vk.itmo.pashchenkoalexandr;
 
-import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.RefCounted;
+import ru.vk.itmo.RefCountedArena;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
-import java.lang.foreign.ValueLayout;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.stream.Stream;
 
 public class DiskStorage {
 
     public static final String SSTABLE_PREFIX = "sstable_";
-    private final List<MemorySegment> segmentList;
+    private static final String INDEX_FILE = "index.idx";
+    private static final String INDEX_TMP = "index.tmp";
 
-    public DiskStorage(List<MemorySegment> segmentList) {
-        this.segmentList = segmentList;
+    // file names in the same order as they are listed in index file: from the oldest to the newest
+    private final List<String> fileNames;
+    private final List<SSTable> sstables;
+
+    private DiskStorage(List<String> fileNames, List<SSTable> sstables) {
+        this.fileNames = fileNames;
+        this.sstables = sstables;
+    }
+
+    public int size() {
+        return sstables.size();
     }
 
-    public Iterator<Entry<MemorySegment>> range(
-            Iterator<Entry<MemorySegment>> firstIterator,
-            MemorySegment from,
-            MemorySegment to) {
-        List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>(segmentList.size() + 1);
-        for (MemorySegment memorySegment : segmentList) {
-            iterators.add(iterator(memorySegment, from, to));
+    public long sizeInBytes(int index) {
+        return sstables.get(index).byteSize();
+    }
+
+    public long maxFileNumber() {
+        long max = -1;
+        for (String fileName : fileNames) {
+            max = Math.max(max, Long.parseLong(fileName.substring(SSTABLE_PREFIX.length())));
         }
-        iterators.add(firstIterator);
+        return max;
+    }
 
-        return new MergeIterator<>(iterators, Comparator.comparing(Entry::key, PaschenkoDao::compare)) {
-            @Override
-            protected boolean shouldSkip(Entry<MemorySegment> memorySegmentEntry) {
-                return memorySegmentEntry.value() == null;
-            }
-        };
+    /**
+     * Acquires all sstables, so they stay mapped until {@link #release()} even if they are replaced meanwhile.
+     * Returns false if some of them is already unmapped, the newer storage should be taken then.
+     */
+    boolean acquire() {
+        return RefCounted.acquireAll(sstables);
     }
 
-    public static void saveNextSSTable(Path storagePath, Iterable<Entry<MemorySegment>> iterable)
-            throws IOException {
-        final Path indexTmp = storagePath.resolve("index.tmp");
-        final Path indexFile = storagePath.resolve("index.idx");
+    void release() {
+        release(0, sstables.size());
+    }
 
-        try {
-            Files.createFile(indexFile);
-        } catch (FileAlreadyExistsException ignored) {
-            // it is ok, actually it is normal state
+    /**
+     * Drops the references to sstables [from; to), called once they are replaced by the published storage
+     * or on close. They are unmapped after the readers which still use them.
+     */
+    void release(int from, int to) {
+        RefCounted.releaseAll(sstables.subList(from, to));
+    }
+
+    /**
+     * Registers new sstable as the newest one.
+     */
+    public DiskStorage withSSTable(Path storagePath, String fileName, SSTable sstable) throws IOException {
+        return replace(storagePath, sstables.size(), sstables.size(), fileName, sstable);
+    }
+
+    /**
+     * Replaces sstables [from; to) with the given one in index file and removes replaced files.
+     * Null file name means that replaced sstables are just removed.
+     * The replaced sstables stay mapped until they are released with {@link #release(int, int)}.
+     */
+    public DiskStorage replace(
+            Path storagePath,
+            int from,
+            int to,
+            String fileName,
+            SSTable sstable) throws IOException {
+        List<String> names = new ArrayList<>(fileNames.size() + 1);
+        names.addAll(fileNames.subList(0, from));
+        List<SSTable> tables = new ArrayList<>(sstables.size() + 1);
+        tables.addAll(sstables.subList(0, from));
+        if (fileName != null) {
+            names.add(fileName);
+            tables.add(sstable);
         }
-        List<String> existedFiles = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+        names.addAll(fileNames.subList(to, fileNames.size()));
+        tables.addAll(sstables.subList(to, sstables.size()));
 
-        String newFileName = SSTABLE_PREFIX + existedFiles.size();
+        saveIndex(storagePath, names);
+        // mapped memory stays valid after the file is removed
+        for (String replaced : fileNames.subList(from, to)) {
+            Files.deleteIfExists(storagePath.resolve(replaced));
+        }
+        return new DiskStorage(names, tables);
+    }
 
-        long dataSize = 0;
-        long count = 0;
-        for (Entry<MemorySegment> entry : iterable) {
-            dataSize += entry.key().byteSize();
-            MemorySegment value = entry.value();
-            if (value != null) {
-                dataSize += value.byteSize();
-            }
-            count++;
+    /**
+     * Merges sstables with in-memory cursors skipping tombstones.
+     * In-memory cursors are ordered from the oldest to the newest one.
+     */
+    public Cursor range(List<Cursor> inMemoryCursors, MemorySegment from, MemorySegment to) {
+        List<Cursor> cursors = new ArrayList<>(sstables.size() + inMemoryCursors.size());
+        for (SSTable sstable : sstables) {
+            cursors.add(sstable.cursor(from, to));
         }
-        long indexSize = count * 2 * Long.BYTES;
-
-        try (
-                FileChannel fileChannel = FileChannel.open(
-                        storagePath.resolve(newFileName),
-                        StandardOpenOption.WRITE,
-                        StandardOpenOption.READ,
-                        StandardOpenOption.CREATE
-                );
-                Arena writeArena = Arena.ofConfined()
-        ) {
-            MemorySegment fileSegment = fileChannel.map(
-                    FileChannel.MapMode.READ_WRITE,
-                    0,
-                    indexSize + dataSize,
-                    writeArena
-            );
+        cursors.addAll(inMemoryCursors);
+        return new MergeCursor(cursors, true);
+    }
 
-            // index:
-            // |key0_Start|value0_Start|key1_Start|value1_Start|key2_Start|value2_Start|...
-            // key0_Start = data start = end of index
-            long dataOffset = indexSize;
-            int indexOffset = 0;
-            for (Entry<MemorySegment> entry : iterable) {
-                fileSegment.set(ValueLayout.JAVA_LONG_UNALIGNED, indexOffset, dataOffset);
-                dataOffset += entry.key().byteSize();
-                indexOffset += Long.BYTES;
-
-                MemorySegment value = entry.value();
-                if (value == null) {
-                    fileSegment.set(ValueLayout.JAVA_LONG_UNALIGNED, indexOffset, tombstone(dataOffset));
-                } else {
-                    fileSegment.set(ValueLayout.JAVA_LONG_UNALIGNED, indexOffset, dataOffset);
-                    dataOffset += value.byteSize();
-                }
-                indexOffset += Long.BYTES;
+    /**
+     * Merges sstables [from; to) keeping only the newest entry for each key.
+     * Tombstones are kept unless there are no older sstables they could shadow.
+     */
+    public Cursor merge(int from, int to) {
+        List<SSTable> merged = sstables.subList(from, to);
+        List<Cursor> cursors = new ArrayList<>(merged.size());
+        for (SSTable sstable : merged) {
+            cursors.add(sstable.cursor(null, null));
+        }
+        return new MergeCursor(cursors, from == 0);
+    }
+
+    public static String sstableName(long fileNumber) {
+        return SSTABLE_PREFIX + fileNumber;
+    }
+
+    /**
+     * Writes sstable to a temporary file and atomically moves it to the target one.
+     * The file is left empty if there are no entries, the temporary file is removed if the cursor fails.
+     */
+    public static void writeSSTable(Path file, Cursor cursor) throws IOException {
+        writeSSTable(file, writer -> {
+            while (cursor.next()) {
+                writer.add(cursor.key(), cursor.value());
             }
+        });
+    }
 
-            // data:
-            // |key0|value0|key1|value1|...
-            dataOffset = indexSize;
-            for (Entry<MemorySegment> entry : iterable) {
-                MemorySegment key = entry.key();
-                MemorySegment.copy(key, 0, fileSegment, dataOffset, key.byteSize());
-                dataOffset += key.byteSize();
-
-                MemorySegment value = entry.value();
-                if (value != null) {
-                    MemorySegment.copy(value, 0, fileSegment, dataOffset, value.byteSize());
-                    dataOffset += value.byteSize();
+    /**
+     * Same for the entries of the iterator, which must be sorted by key without duplicates.
+     * Order is checked on each entry, so unsorted entries can't get into an sstable.
+     *
+     * @throws IllegalArgumentException if the entries are not sorted, the temporary file is removed then
+     */
+    public static void writeSSTable(Path file, Iterator<Entry<MemorySegment>> entries) throws IOException {
+        writeSSTable(file, writer -> {
+            // the previous key is copied, the iterator may reuse its segments
+            KeyBuffer previousKey = new KeyBuffer();
+            boolean first = true;
+            while (entries.hasNext()) {
+                Entry<MemorySegment> entry = entries.next();
+                if (!first && previousKey.compareTo(entry.key()) >= 0) {
+                    throw new IllegalArgumentException("Entries are not sorted by key or have duplicates");
                 }
+                previousKey.set(entry.key());
+                first = false;
+                writer.add(entry.key(), entry.value());
             }
-        }
+        });
+    }
 
-        List<String> list = new ArrayList<>(existedFiles.size() + 1);
-        list.addAll(existedFiles);
-        list.add(newFileName);
-        Files.write(
-                indexTmp,
-                list,
+    private static void writeSSTable(Path file, Content content) throws IOException {
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileChannel fileChannel = FileChannel.open(
+                tmpFile,
                 StandardOpenOption.WRITE,
                 StandardOpenOption.CREATE,
                 StandardOpenOption.TRUNCATE_EXISTING
-        );
-
-        Files.deleteIfExists(indexFile);
+        )) {
+            SSTableWriter writer = new SSTableWriter(fileChannel);
+            content.writeTo(writer);
+            writer.finish();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmpFile);
+            throw e;
+        }
 
-        Files.move(indexTmp, indexFile, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
     }
 
-    public static void compact(Path storagePath, Iterable<Entry<MemorySegment>> iterable)
-            throws IOException {
-
-        String newFileName = "compaction.tmp";
-        Path compactionTmpFile = storagePath.resolve(newFileName);
-
-        long dataSize = 0;
-        long count = 0;
-        for (Entry<MemorySegment> entry : iterable) {
-            dataSize += entry.key().byteSize();
-            MemorySegment value = entry.value();
-            if (value != null) {
-                dataSize += value.byteSize();
-            }
-            count++;
-        }
-        long indexSize = count * 2 * Long.BYTES;
-
-        try (
-                FileChannel fileChannel = FileChannel.open(
-                        compactionTmpFile,
-                        StandardOpenOption.WRITE,
-                        StandardOpenOption.READ,
-                        StandardOpenOption.CREATE
-                );
-                Arena writeArena = Arena.ofConfined()
-        ) {
-            MemorySegment fileSegment = fileChannel.map(
-                    FileChannel.MapMode.READ_WRITE,
-                    0,
-                    indexSize + dataSize,
-                    writeArena
-            );
-
-            // index:
-            // |key0_Start|value0_Start|key1_Start|value1_Start|key2_Start|value2_Start|...
-            // key0_Start = data start = end of index
-            long dataOffset = indexSize;
-            int indexOffset = 0;
-            for (Entry<MemorySegment> entry : iterable) {
-                fileSegment.set(ValueLayout.JAVA_LONG_UNALIGNED, indexOffset, dataOffset);
-                dataOffset += entry.key().byteSize();
-                indexOffset += Long.BYTES;
-
-                MemorySegment value = entry.value();
-                if (value == null) {
-                    fileSegment.set(ValueLayout.JAVA_LONG_UNALIGNED, indexOffset, tombstone(dataOffset));
-                } else {
-                    fileSegment.set(ValueLayout.JAVA_LONG_UNALIGNED, indexOffset, dataOffset);
-                    dataOffset += value.byteSize();
-                }
-                indexOffset += Long.BYTES;
-            }
+    @FunctionalInterface
+    private interface Content {
+        void writeTo(SSTableWriter writer) throws IOException;
+    }
 
-            // data:
-            // |key0|value0|key1|value1|...
-            dataOffset = indexSize;
-            for (Entry<MemorySegment> entry : iterable) {
-                MemorySegment key = entry.key();
-                MemorySegment.copy(key, 0, fileSegment, dataOffset, key.byteSize());
-                dataOffset += key.byteSize();
-
-                MemorySegment value = entry.value();
-                if (value != null) {
-                    MemorySegment.copy(value, 0, fileSegment, dataOffset, value.byteSize());
-                    dataOffset += value.byteSize();
-                }
-            }
-        }
+    private static void saveIndex(Path storagePath, List<String> fileNames) throws IOException {
+        Path indexTmp = storagePath.resolve(INDEX_TMP);
+        Path indexFile = storagePath.resolve(INDEX_FILE);
 
-        Files.move(
-                compactionTmpFile,
-                storagePath.resolve("compaction"),
-                StandardCopyOption.ATOMIC_MOVE,
-                StandardCopyOption.REPLACE_EXISTING
+        Files.write(
+                indexTmp,
+                fileNames,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING
         );
 
-        finalizeCompaction(storagePath);
+        Files.move(indexTmp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
     }
 
+    // recovers compaction of the previous storage versions which rewrote all sstables at once
     private static void finalizeCompaction(Path storagePath) throws IOException {
         try (Stream<Path> stream =
                      Files.find(
@@ -239,28 +231,14 @@ public class DiskStorage {
             });
         }
 
-        Path indexTmp = storagePath.resolve("index.tmp");
-        Path indexFile = storagePath.resolve("index.idx");
-
-        Files.deleteIfExists(indexFile);
-        Files.deleteIfExists(indexTmp);
-
         Path compactionFile = compactionFile(storagePath);
         boolean noData = Files.size(compactionFile) == 0;
 
-        Files.write(
-                indexTmp,
-                noData ? Collections.emptyList() : Collections.singleton(SSTABLE_PREFIX + "0"),
-                StandardOpenOption.WRITE,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.TRUNCATE_EXISTING
-        );
-
-        Files.move(indexTmp, indexFile, StandardCopyOption.ATOMIC_MOVE);
+        saveIndex(storagePath, noData ? Collections.emptyList() : Collections.singletonList(sstableName(0)));
         if (noData) {
             Files.delete(compactionFile);
         } else {
-            Files.move(compactionFile, storagePath.resolve(SSTABLE_PREFIX + "0"), StandardCopyOption.ATOMIC_MOVE);
+            Files.move(compactionFile, storagePath.resolve(sstableName(0)), StandardCopyOption.ATOMIC_MOVE);
         }
     }
 
@@ -268,13 +246,13 @@ public class DiskStorage {
         return storagePath.resolve("compaction");
     }
 
-    public static List<MemorySegment> loadOrRecover(Path storagePath, Arena arena) throws IOException {
+    public static DiskStorage loadOrRecover(Path storagePath) throws IOException {
         if (Files.exists(compactionFile(storagePath))) {
             finalizeCompaction(storagePath);
         }
 
-        Path indexTmp = storagePath.resolve("index.tmp");
-        Path indexFile = storagePath.resolve("index.idx");
+        Path indexTmp = storagePath.resolve(INDEX_TMP);
+        Path indexFile = storagePath.resolve(INDEX_FILE);
 
         if (!Files.exists(indexFile)) {
             if (Files.exists(indexTmp)) {
@@ -285,132 +263,57 @@ public class DiskStorage {
         }
 
         List<String> existedFiles = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
-        List<MemorySegment> result = new ArrayList<>(existedFiles.size());
-        for (String fileName : existedFiles) {
-            Path file = storagePath.resolve(fileName);
-            try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
-                MemorySegment fileSegment = fileChannel.map(
-                        FileChannel.MapMode.READ_WRITE,
-                        0,
-                        Files.size(file),
-                        arena
-                );
-                result.add(fileSegment);
-            }
-        }
+        removeUnlisted(storagePath, existedFiles);
 
-        return result;
-    }
-
-    private static long indexOf(MemorySegment segment, MemorySegment key) {
-        long recordsCount = recordsCount(segment);
-
-        long left = 0;
-        long right = recordsCount - 1;
-        while (left <= right) {
-            long mid = (left + right) >>> 1;
-
-            long startOfKey = startOfKey(segment, mid);
-            long endOfKey = endOfKey(segment, mid);
-            long mismatch = MemorySegment.mismatch(segment, startOfKey, endOfKey, key, 0, key.byteSize());
-            if (mismatch == -1) {
-                return mid;
-            }
-
-            if (mismatch == key.byteSize()) {
-                right = mid - 1;
-                continue;
-            }
-
-            if (mismatch == endOfKey - startOfKey) {
-                left = mid + 1;
-                continue;
-            }
-
-            int b1 = Byte.toUnsignedInt(segment.get(ValueLayout.JAVA_BYTE, startOfKey + mismatch));
-            int b2 = Byte.toUnsignedInt(key.get(ValueLayout.JAVA_BYTE, mismatch));
-            if (b1 > b2) {
-                right = mid - 1;
-            } else {
-                left = mid + 1;
+        List<SSTable> result = new ArrayList<>(existedFiles.size());
+        try {
+            for (String fileName : existedFiles) {
+                result.add(openSSTable(storagePath.resolve(fileName)));
             }
+        } catch (IOException | RuntimeException e) {
+            RefCounted.releaseAll(result);
+            throw e;
         }
 
-        return tombstone(left);
-    }
-
-    private static long recordsCount(MemorySegment segment) {
-        long indexSize = indexSize(segment);
-        return indexSize / Long.BYTES / 2;
-    }
-
-    private static long indexSize(MemorySegment segment) {
-        return segment.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
+        return new DiskStorage(existedFiles, result);
     }
 
-    private static Iterator<Entry<MemorySegment>> iterator(MemorySegment page, MemorySegment from, MemorySegment to) {
-        long recordIndexFrom = from == null ? 0 : normalize(indexOf(page, from));
-        long recordIndexTo = to == null ? recordsCount(page) : normalize(indexOf(page, to));
-        long recordsCount = recordsCount(page);
-
-        return new Iterator<>() {
-            long index = recordIndexFrom;
-
-            @Override
-            public boolean hasNext() {
-                return index < recordIndexTo;
-            }
-
-            @Override
-            public Entry<MemorySegment> next() {
-                if (!hasNext()) {
-                    throw new NoSuchElementException();
+    // sstables written or replaced right before a crash are not listed in index file
+    private static void removeUnlisted(Path storagePath, List<String> existedFiles) throws IOException {
+        Set<String> listed = new HashSet<>(existedFiles);
+        try (Stream<Path> stream = Files.list(storagePath)) {
+            for (Path file : stream.toList()) {
+                String fileName = file.getFileName().toString();
+                if (fileName.startsWith(SSTABLE_PREFIX) && !listed.contains(fileName)) {
+                    Files.delete(file);
                 }
-                MemorySegment key = slice(page, startOfKey(page, index), endOfKey(page, index));
-                long startOfValue = startOfValue(page, index);
-                MemorySegment value =
-                        startOfValue < 0
-                                ? null
-                                : slice(page, startOfValue, endOfValue(page, index, recordsCount));
-                index++;
-                return new BaseEntry<>(key, value);
             }
-        };
-    }
-
-    private static MemorySegment slice(MemorySegment page, long start, long end) {
-        return page.asSlice(start, end - start);
-    }
-
-    private static long startOfKey(MemorySegment segment, long recordIndex) {
-        return segment.get(ValueLayout.JAVA_LONG_UNALIGNED, recordIndex * 2 * Long.BYTES);
-    }
-
-    private static long endOfKey(MemorySegment segment, long recordIndex) {
-        return normalizedStartOfValue(segment, recordIndex);
-    }
-
-    private static long normalizedStartOfValue(MemorySegment segment, long recordIndex) {
-        return normalize(startOfValue(segment, recordIndex));
-    }
-
-    private static long startOfValue(MemorySegment segment, long recordIndex) {
-        return segment.get(ValueLayout.JAVA_LONG_UNALIGNED, recordIndex * 2 * Long.BYTES + Long.BYTES);
-    }
-
-    private static long endOfValue(MemorySegment segment, long recordIndex, long recordsCount) {
-        if (recordIndex < recordsCount - 1) {
-            return startOfKey(segment, recordIndex + 1);
         }
-        return segment.byteSize();
     }
 
-    private static long tombstone(long offset) {
-        return 1L << 63 | offset;
+    /**
+     * Maps sstable in a new arena owned by it.
+     */
+    public static SSTable openSSTable(Path file) throws IOException {
+        RefCountedArena arena = new RefCountedArena();
+        try {
+            MemorySegment segment = mapSSTable(file, arena.arena());
+            SSTable.checkFormat(segment, file);
+            return new SSTable(segment, arena);
+        } catch (IOException | RuntimeException e) {
+            arena.release();
+            throw e;
+        }
     }
 
-    private static long normalize(long value) {
-        return value & ~(1L << 63);
+    private static MemorySegment mapSSTable(Path file, Arena arena) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return fileChannel.map(
+                    FileChannel.MapMode.READ_WRITE,
+                    0,
+                    Files.size(file),
+                    arena
+            );
+        }
     }
-
 }
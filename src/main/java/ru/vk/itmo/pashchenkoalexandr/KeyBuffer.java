@@ -0,0 +1,51 @@
+package ru.vk.itmo.pashchenkoalexandr;
+
+import ru.vk.itmo.MemorySegmentComparator;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+/**
+ * Growable heap buffer for a key which is decoded or remembered without allocation per key.
+ */
+final class KeyBuffer {
+
+    private byte[] bytes = new byte[64];
+    private MemorySegment segment = MemorySegment.ofArray(bytes);
+    private int size;
+
+    /**
+     * Keeps the first {@code shared} bytes and appends the suffix from the source.
+     */
+    void update(int shared, MemorySegment source, long suffixStart, int suffixSize) {
+        size = shared + suffixSize;
+        if (size > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(size, 2 * bytes.length));
+            segment = MemorySegment.ofArray(bytes);
+        }
+        MemorySegment.copy(source, ValueLayout.JAVA_BYTE, suffixStart, bytes, shared, suffixSize);
+    }
+
+    void set(MemorySegment key) {
+        update(0, key, 0, Math.toIntExact(key.byteSize()));
+    }
+
+    /**
+     * Compares the buffer with the key in the same order as {@link PaschenkoDao#compare}.
+     */
+    int compareTo(MemorySegment key) {
+        return MemorySegmentComparator.compare(segment, 0, size, key, 0, key.byteSize());
+    }
+
+    /**
+     * Returns view of the buffer valid until the next update.
+     */
+    MemorySegment view() {
+        return segment.asSlice(0, size);
+    }
+
+    MemorySegment copy() {
+        return MemorySegment.ofArray(Arrays.copyOf(bytes, size));
+    }
+}
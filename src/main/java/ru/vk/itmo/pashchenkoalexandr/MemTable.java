@@ -0,0 +1,415 @@
+package ru.vk.itmo.pashchenkoalexandr;
+
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Entry;
+import ru.vk.itmo.MemorySegmentComparator;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Concurrent skip list which keeps nodes together with copies of keys and values off-heap.
+ *
+ * <pre>
+ * node:  |value ref|key size|height|next0|next1|...|key|value|
+ * value: |value size|value bytes|
+ * </pre>
+ * Nodes and values are bump allocated in chunks of automatic arena and referenced by
+ * {@code chunk index << 32 | offset in chunk}. Chunks are freed by GC once neither the memtable
+ * nor the entries returned from it are reachable, so readers never see a closed segment.
+ * Every record is 8-byte aligned, so links are updated with atomic operations on the chunk memory.
+ * The first value is stored right after the key of the node, the next upsert of the key allocates a new value
+ * and swaps the value ref. Nodes are never removed, deletion is an upsert of tombstone.
+ */
+final class MemTable implements Iterable<Entry<MemorySegment>> {
+
+    static final long MAX_CHUNK_SIZE = 1 << 20;
+    private static final long MIN_CHUNK_SIZE = 4 * 1024;
+    private static final int MAX_HEIGHT = 12;
+    // 1 / 4 of nodes on each level are promoted to the next one
+    private static final int BRANCHING = 4;
+    private static final long NIL = -1;
+    private static final long TOMBSTONE = -1;
+    private static final long HEAD = 0;
+
+    private static final VarHandle LONGS = ValueLayout.JAVA_LONG.arrayElementVarHandle();
+    private static final long VALUE_REF_OFFSET = 0;
+    private static final long KEY_SIZE_OFFSET = Long.BYTES;
+    private static final long HEIGHT_OFFSET = KEY_SIZE_OFFSET + Integer.BYTES;
+    private static final long NEXT_OFFSET = HEIGHT_OFFSET + Integer.BYTES;
+    private static final long VALUE_HEADER_SIZE = Long.BYTES;
+
+    private final Arena arena = Arena.ofAuto();
+    private final long maxChunkSize;
+
+    // replaced on growth under the allocation lock, read without it
+    private volatile MemorySegment[] chunks = new MemorySegment[0];
+    private volatile long byteSize;
+    private int currentChunk;
+    private long currentOffset;
+    private long chunkSize = MIN_CHUNK_SIZE;
+
+    /**
+     * Creates memtable which chunks start from {@value MIN_CHUNK_SIZE} bytes and double as it fills
+     * up to the expected size, but not larger than {@value MAX_CHUNK_SIZE} bytes.
+     * So an empty memtable costs a single small chunk.
+     */
+    MemTable(long expectedSize) {
+        this.maxChunkSize = Math.clamp(expectedSize, MIN_CHUNK_SIZE, MAX_CHUNK_SIZE);
+        this.currentChunk = addChunk(chunkSize);
+        long head = allocate(nodeSize(0, MAX_HEIGHT));
+        MemorySegment chunk = chunk(head);
+        chunk.set(ValueLayout.JAVA_INT, offset(head) + HEIGHT_OFFSET, MAX_HEIGHT);
+        for (int level = 0; level < MAX_HEIGHT; level++) {
+            setNext(head, level, NIL);
+        }
+    }
+
+    /**
+     * Bytes allocated for nodes, keys and values, including values replaced by later upserts.
+     */
+    long byteSize() {
+        return byteSize;
+    }
+
+    boolean isEmpty() {
+        return next(HEAD, 0) == NIL;
+    }
+
+    /**
+     * Returns the entry of the key with null value for tombstone, or null if the key is absent.
+     */
+    Entry<MemorySegment> get(MemorySegment key) {
+        long node = findGreaterOrEqual(key, null);
+        if (node == NIL || compareKey(node, key) != 0) {
+            return null;
+        }
+        return entry(node);
+    }
+
+    void upsert(Entry<MemorySegment> entry) {
+        long[] preds = new long[MAX_HEIGHT];
+        insert(entry, preds, findGreaterOrEqual(entry.key(), preds));
+    }
+
+    /**
+     * Upserts entries in the given order, so among equal keys the last entry wins.
+     * While keys go in ascending order, search of each key starts from the predecessors of the previous one
+     * instead of the head.
+     */
+    void upsertAll(Collection<Entry<MemorySegment>> entries) {
+        long[] preds = new long[MAX_HEIGHT];
+        MemorySegment previous = null;
+        for (Entry<MemorySegment> entry : entries) {
+            MemorySegment key = entry.key();
+            long found = previous == null || PaschenkoDao.compare(previous, key) > 0
+                    ? findGreaterOrEqual(key, preds)
+                    : findGreaterOrEqualFrom(key, preds);
+            insert(entry, preds, found);
+            previous = key;
+        }
+    }
+
+    /**
+     * Links the entry after the predecessors, or replaces the value of the found node with the same key.
+     * Predecessors only need to be less than the key, links are searched further from them if they are stale.
+     */
+    private void insert(Entry<MemorySegment> entry, long[] preds, long found) {
+        MemorySegment key = entry.key();
+        if (found != NIL && compareKey(found, key) == 0) {
+            setValueRef(found, allocateValue(entry.value()));
+            return;
+        }
+
+        int height = randomHeight();
+        long node = allocateNode(key, entry.value(), height);
+        for (int level = 0; level < height; level++) {
+            long pred = preds[level];
+            while (true) {
+                long succ = next(pred, level);
+                while (succ != NIL && compareKey(succ, key) < 0) {
+                    pred = succ;
+                    succ = next(pred, level);
+                }
+                if (level == 0 && succ != NIL && compareKey(succ, key) == 0) {
+                    // the same key was inserted concurrently, the allocated node is abandoned
+                    setValueRef(succ, valueRef(node));
+                    return;
+                }
+                setNext(node, level, succ);
+                if (LONGS.compareAndSet(chunk(pred), nextIndex(pred, level), succ, node)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public Iterator<Entry<MemorySegment>> iterator() {
+        return new CursorIterator(cursor(null, null));
+    }
+
+    Cursor cursor(MemorySegment from, MemorySegment to) {
+        Cursor cursor = new MemTableCursor(to);
+        cursor.seek(from);
+        return cursor;
+    }
+
+    /**
+     * Walks the bottom level of the list. Nodes are never removed, so the views stay valid after the cursor moves.
+     */
+    private final class MemTableCursor implements Cursor {
+
+        private final MemorySegment to;
+        private long node;
+        // the first node after seek is not reached yet
+        private long pending;
+        private MemorySegment key;
+        // the value ref may be swapped by a concurrent upsert, so the first read value is kept for the step
+        private MemorySegment value;
+        private boolean valueRead;
+
+        MemTableCursor(MemorySegment to) {
+            this.to = to;
+        }
+
+        @Override
+        public void seek(MemorySegment from) {
+            node = NIL;
+            pending = from == null ? MemTable.this.next(HEAD, 0) : findGreaterOrEqual(from, null);
+        }
+
+        @Override
+        public boolean next() {
+            if (pending != NIL) {
+                node = pending;
+                pending = NIL;
+            } else if (node != NIL) {
+                node = MemTable.this.next(node, 0);
+            }
+            key = null;
+            value = null;
+            valueRead = false;
+            if (node != NIL && to != null && compareKey(node, to) >= 0) {
+                node = NIL;
+            }
+            return node != NIL;
+        }
+
+        @Override
+        public MemorySegment key() {
+            if (key == null) {
+                key = nodeKey(node);
+            }
+            return key;
+        }
+
+        @Override
+        public MemorySegment value() {
+            if (!valueRead) {
+                value = nodeValue(node);
+                valueRead = true;
+            }
+            return value;
+        }
+
+        @Override
+        public Entry<MemorySegment> entry() {
+            return new BaseEntry<>(key(), value());
+        }
+    }
+
+    /**
+     * Returns the first node which key is not less than the key, filling predecessors on each level if requested.
+     */
+    private long findGreaterOrEqual(MemorySegment key, long[] preds) {
+        long node = HEAD;
+        long next = NIL;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            next = next(node, level);
+            while (next != NIL && compareKey(next, key) < 0) {
+                node = next;
+                next = next(node, level);
+            }
+            if (preds != null) {
+                preds[level] = node;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Same as {@link #findGreaterOrEqual} when predecessors of a lesser key are already known.
+     * Climbs up while the predecessor is too far behind on its level, then goes down as the usual search.
+     * Predecessors above the climbed level are still predecessors of the key, otherwise
+     * their next node would be less than the key on the climbed level too.
+     */
+    private long findGreaterOrEqualFrom(MemorySegment key, long[] preds) {
+        int top = 0;
+        while (top < MAX_HEIGHT - 1) {
+            long next = next(preds[top], top);
+            if (next == NIL || compareKey(next, key) >= 0) {
+                break;
+            }
+            top++;
+        }
+
+        long node = preds[top];
+        long next = NIL;
+        for (int level = top; level >= 0; level--) {
+            next = next(node, level);
+            while (next != NIL && compareKey(next, key) < 0) {
+                node = next;
+                next = next(node, level);
+            }
+            preds[level] = node;
+        }
+        return next;
+    }
+
+    private static int randomHeight() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int height = 1;
+        while (height < MAX_HEIGHT && random.nextInt(BRANCHING) == 0) {
+            height++;
+        }
+        return height;
+    }
+
+    private Entry<MemorySegment> entry(long node) {
+        return new BaseEntry<>(nodeKey(node), nodeValue(node));
+    }
+
+    private MemorySegment nodeKey(long node) {
+        MemorySegment chunk = chunk(node);
+        long offset = offset(node);
+        int height = chunk.get(ValueLayout.JAVA_INT, offset + HEIGHT_OFFSET);
+        int keySize = chunk.get(ValueLayout.JAVA_INT, offset + KEY_SIZE_OFFSET);
+        return chunk.asSlice(offset + NEXT_OFFSET + (long) height * Long.BYTES, keySize);
+    }
+
+    private MemorySegment nodeValue(long node) {
+        long valueRef = valueRef(node);
+        if (valueRef == TOMBSTONE) {
+            return null;
+        }
+        MemorySegment valueChunk = chunk(valueRef);
+        long valueOffset = offset(valueRef);
+        long valueSize = valueChunk.get(ValueLayout.JAVA_LONG, valueOffset);
+        return valueChunk.asSlice(valueOffset + VALUE_HEADER_SIZE, valueSize);
+    }
+
+    /**
+     * Compares the key of the node with the key in the same order as {@link PaschenkoDao#compare}.
+     */
+    private int compareKey(long node, MemorySegment key) {
+        MemorySegment chunk = chunk(node);
+        long offset = offset(node);
+        int height = chunk.get(ValueLayout.JAVA_INT, offset + HEIGHT_OFFSET);
+        long start = offset + NEXT_OFFSET + (long) height * Long.BYTES;
+        long end = start + chunk.get(ValueLayout.JAVA_INT, offset + KEY_SIZE_OFFSET);
+        return MemorySegmentComparator.compare(chunk, start, end, key, 0, key.byteSize());
+    }
+
+    private long next(long node, int level) {
+        return (long) LONGS.getVolatile(chunk(node), nextIndex(node, level));
+    }
+
+    private void setNext(long node, int level, long next) {
+        LONGS.set(chunk(node), nextIndex(node, level), next);
+    }
+
+    private static long nextIndex(long node, int level) {
+        return (offset(node) + NEXT_OFFSET) / Long.BYTES + level;
+    }
+
+    private long valueRef(long node) {
+        return (long) LONGS.getVolatile(chunk(node), (offset(node) + VALUE_REF_OFFSET) / Long.BYTES);
+    }
+
+    private void setValueRef(long node, long valueRef) {
+        LONGS.setVolatile(chunk(node), (offset(node) + VALUE_REF_OFFSET) / Long.BYTES, valueRef);
+    }
+
+    private long allocateNode(MemorySegment key, MemorySegment value, int height) {
+        long valueSize = value == null ? 0 : VALUE_HEADER_SIZE + value.byteSize();
+        long node = allocate(nodeSize(key.byteSize(), height) + align(valueSize));
+        MemorySegment chunk = chunk(node);
+        long offset = offset(node);
+        chunk.set(ValueLayout.JAVA_INT, offset + KEY_SIZE_OFFSET, Math.toIntExact(key.byteSize()));
+        chunk.set(ValueLayout.JAVA_INT, offset + HEIGHT_OFFSET, height);
+        long keyOffset = offset + NEXT_OFFSET + (long) height * Long.BYTES;
+        MemorySegment.copy(key, 0, chunk, keyOffset, key.byteSize());
+
+        long valueRef = TOMBSTONE;
+        if (value != null) {
+            valueRef = node + nodeSize(key.byteSize(), height);
+            writeValue(valueRef, value);
+        }
+        setValueRef(node, valueRef);
+        return node;
+    }
+
+    private long allocateValue(MemorySegment value) {
+        if (value == null) {
+            return TOMBSTONE;
+        }
+        long valueRef = allocate(align(VALUE_HEADER_SIZE + value.byteSize()));
+        writeValue(valueRef, value);
+        return valueRef;
+    }
+
+    private void writeValue(long valueRef, MemorySegment value) {
+        MemorySegment chunk = chunk(valueRef);
+        long offset = offset(valueRef);
+        chunk.set(ValueLayout.JAVA_LONG, offset, value.byteSize());
+        MemorySegment.copy(value, 0, chunk, offset + VALUE_HEADER_SIZE, value.byteSize());
+    }
+
+    private static long nodeSize(long keySize, int height) {
+        return align(NEXT_OFFSET + (long) height * Long.BYTES + keySize);
+    }
+
+    private static long align(long size) {
+        return (size + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    /**
+     * Bump allocates aligned record. Records larger than a quarter of the max chunk get their own chunk.
+     */
+    private synchronized long allocate(long size) {
+        byteSize += size;
+        if (size > maxChunkSize / 4) {
+            return (long) addChunk(size) << 32;
+        }
+        if (currentOffset + size > chunkSize) {
+            chunkSize = Math.min(Math.max(chunkSize * 2, size), maxChunkSize);
+            currentChunk = addChunk(chunkSize);
+            currentOffset = 0;
+        }
+        long ref = (long) currentChunk << 32 | currentOffset;
+        currentOffset += size;
+        return ref;
+    }
+
+    private int addChunk(long size) {
+        MemorySegment[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+        grown[chunks.length] = arena.allocate(size, Long.BYTES);
+        chunks = grown;
+        return grown.length - 1;
+    }
+
+    private MemorySegment chunk(long ref) {
+        return chunks[(int) (ref >>> 32)];
+    }
+
+    private static long offset(long ref) {
+        return ref & 0xFFFFFFFFL;
+    }
+}
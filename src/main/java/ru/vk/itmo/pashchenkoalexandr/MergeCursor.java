@@ -0,0 +1,138 @@
+package ru.vk.itmo.pashchenkoalexandr;
+
+import ru.vk.itmo.Entry;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Collection;
+
+/**
+ * K-way merge of sorted cursors on a loser tree.
+ * Cursors go from the oldest to the newest one, the newest entry wins among equal keys.
+ *
+ * <p>Leaves {@code k..2k-1} of the implicit tree are the sources, internal node keeps the loser of its subtree
+ * and node 0 keeps the overall winner. Advancing the winner replays only its path to the root,
+ * which is {@code log k} comparisons of the keys instead of sift down and sift up of a binary heap.
+ * The current entry is the current entry of the winner, so the merge doesn't allocate per entry either.
+ */
+final class MergeCursor implements Cursor {
+
+    private final Cursor[] sources;
+    private final boolean[] exhausted;
+    private final int[] tree;
+    private final boolean skipTombstones;
+    // key of the current entry, the winner moves before older entries with this key are skipped
+    private final KeyBuffer currentKey = new KeyBuffer();
+    // source of the current entry, -1 if there is no current entry
+    private int current = -1;
+
+    MergeCursor(Collection<Cursor> cursors, boolean skipTombstones) {
+        this.sources = cursors.toArray(new Cursor[0]);
+        this.exhausted = new boolean[sources.length];
+        this.tree = new int[Math.max(1, sources.length)];
+        this.skipTombstones = skipTombstones;
+        start();
+    }
+
+    private void start() {
+        for (int i = 0; i < sources.length; i++) {
+            exhausted[i] = !sources[i].next();
+        }
+        current = -1;
+        if (sources.length > 0) {
+            tree[0] = build(1);
+        }
+    }
+
+    /**
+     * Plays the matches of the subtree and returns its winner.
+     */
+    private int build(int node) {
+        if (node >= sources.length) {
+            return node - sources.length;
+        }
+        int left = build(2 * node);
+        int right = build(2 * node + 1);
+        if (beats(left, right)) {
+            tree[node] = right;
+            return left;
+        }
+        tree[node] = left;
+        return right;
+    }
+
+    /**
+     * Exhausted source loses, then smaller key wins, then newer source wins.
+     */
+    private boolean beats(int source, int other) {
+        if (exhausted[source] || exhausted[other]) {
+            return exhausted[other];
+        }
+        int compare = PaschenkoDao.compare(sources[source].key(), sources[other].key());
+        return compare < 0 || (compare == 0 && source > other);
+    }
+
+    /**
+     * Advances the winner source and replays its path to the root.
+     */
+    private void advanceWinner() {
+        int winner = tree[0];
+        exhausted[winner] = !sources[winner].next();
+
+        for (int node = (winner + sources.length) >>> 1; node > 0; node >>>= 1) {
+            if (beats(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    @Override
+    public void seek(MemorySegment from) {
+        for (Cursor source : sources) {
+            source.seek(from);
+        }
+        start();
+    }
+
+    @Override
+    public boolean next() {
+        while (true) {
+            if (current != -1 && sources.length == 1) {
+                // keys of a single source are unique, there is nothing to skip
+                exhausted[0] = !sources[0].next();
+            } else if (current != -1) {
+                currentKey.set(sources[current].key());
+                advanceWinner();
+                // older entries with the same key come right after the newest one
+                while (!exhausted[tree[0]] && currentKey.compareTo(sources[tree[0]].key()) == 0) {
+                    advanceWinner();
+                }
+            }
+            if (sources.length == 0 || exhausted[tree[0]]) {
+                current = -1;
+                return false;
+            }
+            current = tree[0];
+            if (!skipTombstones || sources[current].value() != null) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public MemorySegment key() {
+        return sources[current].key();
+    }
+
+    @Override
+    public MemorySegment value() {
+        return sources[current].value();
+    }
+
+    @Override
+    public Entry<MemorySegment> entry() {
+        return sources[current].entry();
+    }
+}
@@ -1,116 +1,487 @@
 package ru.vk.itmo.pashchenkoalexandr;
 
+import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Config;
 import ru.vk.itmo.Dao;
+import ru.vk.itmo.Durability;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.MemorySegmentComparator;
+import ru.vk.itmo.RefCounted;
+import ru.vk.itmo.WriteAheadLog;
 
 import java.io.IOException;
-import java.lang.foreign.Arena;
+import java.io.UncheckedIOException;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Iterator;
-import java.util.NavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 public class PaschenkoDao implements Dao<MemorySegment, Entry<MemorySegment>> {
 
-    private final Comparator<MemorySegment> comparator = PaschenkoDao::compare;
-    private final NavigableMap<MemorySegment, Entry<MemorySegment>> storage = new ConcurrentSkipListMap<>(comparator);
-    private final Arena arena;
-    private final DiskStorage diskStorage;
     private final Path path;
+    private final long flushThresholdBytes;
+
+    // upserts hold read lock, memtable swaps hold write lock
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService bgExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor();
+    private final Object flushMonitor = new Object();
+    // guards index file together with disk storage publication
+    private final Object indexLock = new Object();
+    private final AtomicLong nextFileNumber;
+    private final WriteAheadLog wal;
+    // at most one threshold flush is queued, writers don't submit a task each
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    // failure of a background task nobody waits for, thrown by the next flush, compact or close
+    private final AtomicReference<Exception> backgroundFailure = new AtomicReference<>();
+
+    private volatile State state;
+    private boolean closed;
 
     public PaschenkoDao(Config config) throws IOException {
+        this(config, Durability.ASYNC);
+    }
+
+    /**
+     * Creates dao which logs memtable updates with the given durability, see {@link WriteAheadLog}.
+     */
+    public PaschenkoDao(Config config, Durability durability) throws IOException {
         this.path = config.basePath().resolve("data");
+        this.flushThresholdBytes = config.flushThresholdBytes();
         Files.createDirectories(path);
 
-        arena = Arena.ofShared();
-
-        this.diskStorage = new DiskStorage(DiskStorage.loadOrRecover(path, arena));
+        DiskStorage diskStorage = DiskStorage.loadOrRecover(path);
+        this.nextFileNumber = new AtomicLong(diskStorage.maxFileNumber() + 1);
+        MemTable memTable = createMemTable();
+        this.wal = WriteAheadLog.open(path, durability, memTable::upsertAll);
+        this.state = new State(memTable, null, diskStorage);
+        if (memTable.byteSize() >= flushThresholdBytes) {
+            scheduleFlush();
+        }
     }
 
+    /**
+     * Keys are ordered by {@link MemorySegmentComparator}, memtable and sstables compare ranges in the same order.
+     */
     static int compare(MemorySegment memorySegment1, MemorySegment memorySegment2) {
-        long mismatch = memorySegment1.mismatch(memorySegment2);
-        if (mismatch == -1) {
-            return 0;
-        }
+        return MemorySegmentComparator.INSTANCE.compare(memorySegment1, memorySegment2);
+    }
 
-        if (mismatch == memorySegment1.byteSize()) {
-            return -1;
-        }
+    private MemTable createMemTable() {
+        return new MemTable(flushThresholdBytes);
+    }
+
+    /**
+     * Entries are copied on heap: the cursor releases the sstables once it is exhausted or collected,
+     * and compaction may unmap them while the caller still holds the entries.
+     */
+    @Override
+    public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
+        return new CursorIterator(cursor(from, to), true);
+    }
 
-        if (mismatch == memorySegment2.byteSize()) {
-            return 1;
+    /**
+     * Cursor over the live entries in [from; to), null bounds mean the first and the last entry.
+     * Unlike {@link #get(MemorySegment, MemorySegment)} it neither copies entries nor allocates one per step.
+     * The sstables it reads stay mapped until the cursor is closed, even if compaction replaces them.
+     */
+    public Cursor cursor(MemorySegment from, MemorySegment to) {
+        State currentState = acquireState();
+        List<Cursor> inMemoryCursors = new ArrayList<>(2);
+        if (currentState.flushingTable() != null) {
+            inMemoryCursors.add(currentState.flushingTable().cursor(from, to));
         }
-        byte b1 = memorySegment1.get(ValueLayout.JAVA_BYTE, mismatch);
-        byte b2 = memorySegment2.get(ValueLayout.JAVA_BYTE, mismatch);
-        return Byte.compare(b1, b2);
+        inMemoryCursors.add(currentState.memTable().cursor(from, to));
+        DiskStorage diskStorage = currentState.diskStorage();
+        return new SnapshotCursor(diskStorage.range(inMemoryCursors, from, to), diskStorage);
+    }
+
+    /**
+     * Returns the current state with the sstables acquired.
+     * Failed acquisition means that compaction has replaced some of them, so the newer state is published.
+     */
+    private State acquireState() {
+        return RefCounted.acquireCurrent(() -> this.state, currentState -> currentState.diskStorage().acquire());
     }
 
     @Override
-    public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
-        return diskStorage.range(getInMemory(from, to), from, to);
+    public void upsert(Entry<MemorySegment> entry) {
+        write(List.of(entry), memTable -> memTable.upsert(entry));
     }
 
-    private Iterator<Entry<MemorySegment>> getInMemory(MemorySegment from, MemorySegment to) {
-        if (from == null && to == null) {
-            return storage.values().iterator();
+    /**
+     * Applies the batch under a single read lock acquisition, so it goes to one memtable.
+     * Batches sorted by key are cheaper, the memtable search of each key continues from the previous one.
+     */
+    @Override
+    public void upsertAll(Collection<Entry<MemorySegment>> entries) {
+        write(entries, memTable -> memTable.upsertAll(entries));
+    }
+
+    /**
+     * Logs the entries and applies them to the memtable under the read lock, so they go to the same generation.
+     * The log applies them in the same critical section as the append, so the memtable sees updates of a key
+     * in the log order. Waiting for the log to be forced is done without the lock to not delay memtable swaps.
+     */
+    private void write(Collection<Entry<MemorySegment>> entries, Consumer<MemTable> update) {
+        if (state.memTable().byteSize() >= flushThresholdBytes) {
+            awaitFlushedTable();
         }
-        if (from == null) {
-            return storage.headMap(to).values().iterator();
+
+        boolean thresholdReached;
+        long sequence;
+        lock.readLock().lock();
+        try {
+            MemTable memTable = state.memTable();
+            sequence = wal.append(entries, () -> update.accept(memTable));
+            thresholdReached = memTable.byteSize() >= flushThresholdBytes;
+        } finally {
+            lock.readLock().unlock();
         }
-        if (to == null) {
-            return storage.tailMap(from).values().iterator();
+        wal.await(sequence);
+
+        if (thresholdReached) {
+            scheduleFlush();
         }
-        return storage.subMap(from, to).values().iterator();
     }
 
-    @Override
-    public void upsert(Entry<MemorySegment> entry) {
-        storage.put(entry.key(), entry);
+    private void scheduleFlush() {
+        if (!flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        runInBackground(bgExecutor, () -> {
+            // writes coming during the flush schedule the next one
+            flushScheduled.set(false);
+            flushInBackground(false);
+        });
     }
 
+    /**
+     * Runs a task nobody waits for, its failure is kept for {@link #checkBackgroundFailure()}.
+     */
+    private void runInBackground(ExecutorService executor, Runnable task) {
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Exception failure = e instanceof UncheckedIOException uncheckedIOException
+                        ? uncheckedIOException.getCause()
+                        : e;
+                if (!backgroundFailure.compareAndSet(null, failure)) {
+                    backgroundFailure.get().addSuppressed(failure);
+                }
+            }
+        });
+    }
+
+    /**
+     * Throws the failure of background flush or compaction since the previous check.
+     * A failed flush returns the frozen entries back to the memtable, so the next flush writes them.
+     */
+    private void checkBackgroundFailure() throws IOException {
+        Exception failure = backgroundFailure.getAndSet(null);
+        if (failure instanceof IOException ioException) {
+            throw ioException;
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Background task failed", failure);
+        }
+    }
+
+    /**
+     * Blocks writer while memtable is full and the previous one is still being written,
+     * so at most two memtables are kept in memory.
+     */
+    private void awaitFlushedTable() {
+        synchronized (flushMonitor) {
+            while (state.flushingTable() != null && state.memTable().byteSize() >= flushThresholdBytes) {
+                try {
+                    flushMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for flush", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Value found in sstables is copied, so it stays valid after compaction unmaps the sstable.
+     */
     @Override
     public Entry<MemorySegment> get(MemorySegment key) {
-        Entry<MemorySegment> entry = storage.get(key);
-        if (entry != null) {
-            if (entry.value() == null) {
+        while (true) {
+            State currentState = this.state;
+            Entry<MemorySegment> entry = currentState.memTable().get(key);
+            if (entry == null && currentState.flushingTable() != null) {
+                entry = currentState.flushingTable().get(key);
+            }
+            if (entry != null) {
+                if (entry.value() == null) {
+                    return null;
+                }
+                return entry;
+            }
+
+            DiskStorage diskStorage = currentState.diskStorage();
+            if (!diskStorage.acquire()) {
+                // replaced by compaction, the newer state is published already
+                continue;
+            }
+            try {
+                Cursor cursor = diskStorage.range(Collections.emptyList(), key, null);
+                if (cursor.next() && compare(cursor.key(), key) == 0) {
+                    return new BaseEntry<>(key, MemorySegment.ofArray(cursor.value().toArray(ValueLayout.JAVA_BYTE)));
+                }
                 return null;
+            } finally {
+                diskStorage.release();
             }
-            return entry;
         }
+    }
 
-        Iterator<Entry<MemorySegment>> iterator = diskStorage.range(Collections.emptyIterator(), key, null);
+    @Override
+    public void flush() throws IOException {
+        checkBackgroundFailure();
+        awaitBackgroundTask(bgExecutor.submit(() -> flushInBackground(true)));
+    }
 
-        if (!iterator.hasNext()) {
-            return null;
+    private void flushInBackground(boolean force) {
+        try {
+            if (flushMemTable(force)) {
+                runInBackground(compactionExecutor, this::compactInBackground);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Freezes current memtable and writes it to the next sstable.
+     * Frozen memtable stays readable until the sstable is published.
+     * Called from the single background thread (or on close), so at most one flush is in progress.
+     */
+    private boolean flushMemTable(boolean force) throws IOException {
+        State flushingState;
+        long walSegment;
+        lock.writeLock().lock();
+        try {
+            State currentState = this.state;
+            MemTable memTable = currentState.memTable();
+            if (memTable.isEmpty() || (!force && memTable.byteSize() < flushThresholdBytes)) {
+                return false;
+            }
+            flushingState = new State(createMemTable(), memTable, currentState.diskStorage());
+            walSegment = wal.rollover();
+            this.state = flushingState;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            String fileName = DiskStorage.sstableName(nextFileNumber.getAndIncrement());
+            Path sstablePath = path.resolve(fileName);
+            DiskStorage.writeSSTable(sstablePath, flushingState.flushingTable().cursor(null, null));
+            SSTable sstable = DiskStorage.openSSTable(sstablePath);
+            synchronized (indexLock) {
+                DiskStorage diskStorage = state.diskStorage().withSSTable(path, fileName, sstable);
+                publish(currentState -> new State(currentState.memTable(), null, diskStorage));
+            }
+            // after a failed flush the memtable was logged to the older segments too
+            wal.release(walSegment);
+            return true;
+        } catch (IOException e) {
+            // return frozen entries back to memtable, newer entries win
+            publish(currentState -> {
+                MemTable memTable = currentState.flushingTable();
+                for (Entry<MemorySegment> entry : currentState.memTable()) {
+                    memTable.upsert(entry);
+                }
+                return new State(memTable, null, currentState.diskStorage());
+            });
+            throw e;
+        }
+    }
+
+    /**
+     * Loads entries sorted by key without duplicates straight into a new sstable, bypassing the memtable.
+     * Entries upserted before the call are flushed first, so the loaded ones win over them.
+     * A single sstable is written, size-tiered compaction leaves it alone until there are similar-sized ones.
+     *
+     * @throws IllegalArgumentException if the entries are not sorted, nothing is loaded then
+     */
+    public void ingest(Iterator<Entry<MemorySegment>> entries) throws IOException {
+        String fileName = DiskStorage.sstableName(nextFileNumber.getAndIncrement());
+        Path sstablePath = path.resolve(fileName);
+        DiskStorage.writeSSTable(sstablePath, entries);
+        if (Files.size(sstablePath) == 0) {
+            Files.delete(sstablePath);
+            return;
+        }
+
+        // registered by the flush thread, so no flush of the newer entries gets under the loaded sstable
+        Future<?> registration = bgExecutor.submit(() -> {
+            flushInBackground(true);
+            try {
+                SSTable sstable = DiskStorage.openSSTable(sstablePath);
+                synchronized (indexLock) {
+                    DiskStorage diskStorage = state.diskStorage().withSSTable(path, fileName, sstable);
+                    publish(currentState ->
+                            new State(currentState.memTable(), currentState.flushingTable(), diskStorage));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        try {
+            awaitBackgroundTask(registration);
+        } catch (IOException | RuntimeException e) {
+            // sstable is not listed in index file
+            Files.deleteIfExists(sstablePath);
+            throw e;
+        }
+        runInBackground(compactionExecutor, this::compactInBackground);
+    }
+
+    /**
+     * Merges runs of similar-sized sstables while there are any.
+     * Runs on the single compaction thread, so sstables can only be appended concurrently by flushes and loads,
+     * which doesn't shift the positions of the picked ones.
+     */
+    private void compactInBackground() {
+        try {
+            int[] run = SizeTieredCompaction.pickRun(state.diskStorage());
+            while (run != null) {
+                compactRange(run[0], run[1]);
+                run = SizeTieredCompaction.pickRun(state.diskStorage());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void compactRange(int from, int to) throws IOException {
+        String fileName = DiskStorage.sstableName(nextFileNumber.getAndIncrement());
+        Path sstablePath = path.resolve(fileName);
+        DiskStorage.writeSSTable(sstablePath, state.diskStorage().merge(from, to));
+        // everything could be deleted, empty sstable is not kept then
+        boolean empty = Files.size(sstablePath) == 0;
+        if (empty) {
+            Files.delete(sstablePath);
         }
-        Entry<MemorySegment> next = iterator.next();
-        if (compare(next.key(), key) == 0) {
-            return next;
+        String compactedName = empty ? null : fileName;
+        SSTable sstable = empty ? null : DiskStorage.openSSTable(sstablePath);
+        DiskStorage replaced;
+        synchronized (indexLock) {
+            replaced = state.diskStorage();
+            DiskStorage diskStorage = replaced.replace(path, from, to, compactedName, sstable);
+            publish(currentState -> new State(currentState.memTable(), currentState.flushingTable(), diskStorage));
         }
-        return null;
+        // unmapped now unless some reader still holds them
+        replaced.release(from, to);
     }
 
+    private void publish(UnaryOperator<State> update) {
+        lock.writeLock().lock();
+        try {
+            this.state = update.apply(this.state);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        synchronized (flushMonitor) {
+            flushMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Flushes the memtable and merges all sstables into one, waiting for both like {@link #flush()} does.
+     * Runs on the background threads, so it is ordered with the threshold flushes and size-tiered merges.
+     */
     @Override
     public void compact() throws IOException {
-        DiskStorage.compact(path, this::all);
+        checkBackgroundFailure();
+        awaitBackgroundTask(bgExecutor.submit(() -> flushInBackground(true)));
+        awaitBackgroundTask(compactionExecutor.submit(() -> {
+            int count = state.diskStorage().size();
+            if (count > 0) {
+                compactRange(0, count);
+            }
+            return null;
+        }));
+    }
+
+    private static void awaitBackgroundTask(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for background task", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            throw new IllegalStateException("Background task failed", e.getCause());
+        }
     }
 
     @Override
     public void close() throws IOException {
-        if (!arena.scope().isAlive()) {
+        if (closed) {
             return;
         }
+        closed = true;
+
+        // flushes may schedule compactions, so flush executor is stopped first
+        awaitTermination(bgExecutor);
+        awaitTermination(compactionExecutor);
 
-        arena.close();
+        try {
+            flushMemTable(true);
+            // everything is in sstables now, the current segment is not needed either
+            wal.release(Long.MAX_VALUE);
+        } finally {
+            wal.close();
+        }
+        // sstables still used by open cursors are unmapped when those are closed
+        state.diskStorage().release();
+        checkBackgroundFailure();
+    }
 
-        if (!storage.isEmpty()) {
-            DiskStorage.saveNextSSTable(path, storage.values());
+    private static void awaitTermination(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.HOURS)) {
+                // waiting for background flush and compaction
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for background tasks", e);
         }
     }
+
+    record State(
+            MemTable memTable,
+            MemTable flushingTable,
+            DiskStorage diskStorage) {
+    }
 }
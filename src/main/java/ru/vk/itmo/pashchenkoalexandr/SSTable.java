@@ -0,0 +1,283 @@
+package ru.vk.itmo.pashchenkoalexandr;
+
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Entry;
+import ru.vk.itmo.MemorySegmentComparator;
+import ru.vk.itmo.RefCounted;
+import ru.vk.itmo.RefCountedArena;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Sstable of data blocks with sparse index of the first key of each block.
+ *
+ * <pre>
+ * sstable: |block0|block1|...|index|first keys|footer|
+ * block:   |entry0|entry1|...|restart0|restart1|...|restarts count|
+ * entry:   |shared|unshared|value size + 1|key suffix|value|
+ * index:   |block0 start|block0 first key start|block1 start|block1 first key start|...
+ * footer:  |index start|blocks count|format|
+ * </pre>
+ * Keys are delta encoded: the entry stores only the suffix of the key after the prefix shared with the previous key.
+ * Entry lengths are unsigned varints, value size + 1 is 0 for tombstones.
+ * Restarts are offsets of every {@value RESTART_INTERVAL}th entry from the block start, keys are stored in full there,
+ * so only the index and a single block are touched to find a key.
+ *
+ * <p>Sstable is mapped in its own arena which is closed when the last reference is released.
+ * The storage holds one reference while the sstable is listed, readers acquire their own ones,
+ * so the sstable replaced by compaction is unmapped right after the last reader which still uses it.
+ */
+final class SSTable implements RefCounted {
+
+    static final int BLOCK_SIZE = 4 * 1024;
+    static final int RESTART_INTERVAL = 16;
+    static final int TOMBSTONE_SIZE = -1;
+    static final long INDEX_RECORD_SIZE = 2L * Long.BYTES;
+    static final long FOOTER_SIZE = 3L * Long.BYTES;
+    /*
+    Magic in the high bytes and the format version in the low ones:
+    1 - the footer without the format, keys in signed byte order
+    2 - the current one, keys in unsigned byte order of MemorySegmentComparator
+    */
+    static final long FORMAT = 0x9A5C_4E4C_0000_0002L;
+    static final ValueLayout.OfInt INT_LAYOUT = ValueLayout.JAVA_INT_UNALIGNED;
+    static final ValueLayout.OfLong LONG_LAYOUT = ValueLayout.JAVA_LONG_UNALIGNED;
+
+    private final MemorySegment segment;
+    private final RefCountedArena arena;
+    private final long indexStart;
+    private final long firstKeysEnd;
+    private final int blocksCount;
+
+    SSTable(MemorySegment segment, RefCountedArena arena) {
+        this.segment = segment;
+        this.arena = arena;
+        this.firstKeysEnd = segment.byteSize() - FOOTER_SIZE;
+        this.indexStart = segment.get(LONG_LAYOUT, firstKeysEnd);
+        this.blocksCount = (int) segment.get(LONG_LAYOUT, firstKeysEnd + Long.BYTES);
+    }
+
+    long byteSize() {
+        return segment.byteSize();
+    }
+
+    /**
+     * Fails on sstables written in another format, their keys may be ordered differently and are not converted.
+     */
+    static void checkFormat(MemorySegment segment, Path file) throws IOException {
+        long size = segment.byteSize();
+        if (size < FOOTER_SIZE || segment.get(LONG_LAYOUT, size - Long.BYTES) != FORMAT) {
+            throw new IOException("Unsupported format of sstable " + file + ", expected version " + (FORMAT & 0xFFFF));
+        }
+    }
+
+    @Override
+    public boolean acquire() {
+        return arena.acquire();
+    }
+
+    @Override
+    public void release() {
+        arena.release();
+    }
+
+    Cursor cursor(MemorySegment from, MemorySegment to) {
+        Cursor cursor = new SSTableCursor(to);
+        cursor.seek(from);
+        return cursor;
+    }
+
+    Iterator<Entry<MemorySegment>> iterator(MemorySegment from, MemorySegment to) {
+        return new CursorIterator(cursor(from, to));
+    }
+
+    private long blockStart(int block) {
+        return segment.get(LONG_LAYOUT, indexStart + block * INDEX_RECORD_SIZE);
+    }
+
+    private long blockEnd(int block) {
+        return block + 1 < blocksCount ? blockStart(block + 1) : indexStart;
+    }
+
+    private long firstKeyStart(int block) {
+        return segment.get(LONG_LAYOUT, indexStart + block * INDEX_RECORD_SIZE + Long.BYTES);
+    }
+
+    private long firstKeyEnd(int block) {
+        return block + 1 < blocksCount ? firstKeyStart(block + 1) : firstKeysEnd;
+    }
+
+    /**
+     * Returns the last block which first key is not greater than the key, or the first block.
+     */
+    private int findBlock(MemorySegment key) {
+        int left = 0;
+        int right = blocksCount - 1;
+        while (left <= right) {
+            int mid = (left + right) >>> 1;
+            if (compare(firstKeyStart(mid), firstKeyEnd(mid), key) <= 0) {
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return Math.max(0, right);
+    }
+
+    /**
+     * Compares [start; end) of sstable with the key in the same order as {@link PaschenkoDao#compare}.
+     */
+    private int compare(long start, long end, MemorySegment key) {
+        return MemorySegmentComparator.compare(segment, start, end, key, 0, key.byteSize());
+    }
+
+    /**
+     * Iterates over the entries decoding keys into a reusable buffer.
+     * Keys stored in full are viewed as slices of sstable, others are viewed in the buffer
+     * and copied out of it only for {@link #entry()}.
+     */
+    private final class SSTableCursor implements Cursor {
+
+        private final MemorySegment to;
+        private final KeyBuffer keyBuffer = new KeyBuffer();
+        private int block;
+        private long blockStart;
+        // restarts go right after the entries of the block
+        private long restartsStart;
+        private long nextEntry;
+        private long position;
+
+        // the decoded entry, which is not reached by next() yet right after seek
+        private boolean hasCurrent;
+        private boolean seeked;
+        private int shared;
+        private long keySuffixStart;
+        private long valueStart;
+        private int valueSize;
+        private MemorySegment key;
+
+        SSTableCursor(MemorySegment to) {
+            this.to = to;
+        }
+
+        @Override
+        public void seek(MemorySegment from) {
+            seeked = true;
+            hasCurrent = false;
+            if (blocksCount == 0) {
+                return;
+            }
+            if (from == null) {
+                enterBlock(0);
+                advance();
+                return;
+            }
+            enterBlock(findBlock(from));
+
+            int left = 0;
+            int right = (int) ((blockEnd(block) - Integer.BYTES - restartsStart) / Integer.BYTES) - 1;
+            while (left <= right) {
+                int mid = (left + right) >>> 1;
+                if (compareRestartKey(restart(mid), from) <= 0) {
+                    left = mid + 1;
+                } else {
+                    right = mid - 1;
+                }
+            }
+            if (right > 0) {
+                nextEntry = restart(right);
+            }
+
+            do {
+                advance();
+            } while (hasCurrent && keyBuffer.compareTo(from) < 0);
+        }
+
+        private void enterBlock(int block) {
+            this.block = block;
+            this.blockStart = blockStart(block);
+            long blockEnd = blockEnd(block);
+            int restartsCount = segment.get(INT_LAYOUT, blockEnd - Integer.BYTES);
+            this.restartsStart = blockEnd - Integer.BYTES - (long) restartsCount * Integer.BYTES;
+            this.nextEntry = blockStart;
+        }
+
+        private long restart(int index) {
+            return blockStart + segment.get(INT_LAYOUT, restartsStart + (long) index * Integer.BYTES);
+        }
+
+        private int compareRestartKey(long restart, MemorySegment key) {
+            position = restart;
+            readVarInt();
+            int keySize = readVarInt();
+            readVarInt();
+            return compare(position, position + keySize, key);
+        }
+
+        private void advance() {
+            if (nextEntry == restartsStart) {
+                if (block + 1 == blocksCount) {
+                    hasCurrent = false;
+                    return;
+                }
+                enterBlock(block + 1);
+            }
+
+            position = nextEntry;
+            shared = readVarInt();
+            int unshared = readVarInt();
+            valueSize = readVarInt() - 1;
+            keySuffixStart = position;
+            valueStart = keySuffixStart + unshared;
+            keyBuffer.update(shared, segment, keySuffixStart, unshared);
+            key = null;
+            nextEntry = valueStart + Math.max(0, valueSize);
+
+            hasCurrent = to == null || keyBuffer.compareTo(to) < 0;
+        }
+
+        private int readVarInt() {
+            int result = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = segment.get(ValueLayout.JAVA_BYTE, position++);
+                result |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return result;
+        }
+
+        @Override
+        public boolean next() {
+            if (seeked) {
+                seeked = false;
+            } else if (hasCurrent) {
+                advance();
+            }
+            return hasCurrent;
+        }
+
+        @Override
+        public MemorySegment key() {
+            if (key == null) {
+                key = shared == 0 ? segment.asSlice(keySuffixStart, valueStart - keySuffixStart) : keyBuffer.view();
+            }
+            return key;
+        }
+
+        @Override
+        public MemorySegment value() {
+            return valueSize == TOMBSTONE_SIZE ? null : segment.asSlice(valueStart, valueSize);
+        }
+
+        @Override
+        public Entry<MemorySegment> entry() {
+            return new BaseEntry<>(shared == 0 ? key() : keyBuffer.copy(), value());
+        }
+    }
+}
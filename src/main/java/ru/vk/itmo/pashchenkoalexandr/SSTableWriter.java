@@ -0,0 +1,173 @@
+package ru.vk.itmo.pashchenkoalexandr;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends sorted entries to the channel in {@link SSTable} format.
+ * Blocks are assembled in memory and written as soon as they reach {@link SSTable#BLOCK_SIZE},
+ * the index of the first keys is written when the writer is finished.
+ */
+final class SSTableWriter {
+
+    private final FileChannel channel;
+    private final Buffer block = new Buffer(2 * SSTable.BLOCK_SIZE);
+    private final Buffer restarts = new Buffer(SSTable.BLOCK_SIZE / 8);
+    private final Buffer index = new Buffer(SSTable.BLOCK_SIZE);
+    private final Buffer firstKeys = new Buffer(SSTable.BLOCK_SIZE);
+    private final Buffer previousKey = new Buffer(64);
+    private long position;
+    private int entriesInBlock;
+    private long blocksCount;
+
+    SSTableWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Appends the entry, null value is a tombstone. Segments are copied, so they may be views of a cursor.
+     */
+    void add(MemorySegment key, MemorySegment value) throws IOException {
+        if (entriesInBlock == 0) {
+            index.putLong(position);
+            index.putLong(firstKeys.size());
+            firstKeys.put(key);
+        }
+        int shared = 0;
+        if (entriesInBlock % SSTable.RESTART_INTERVAL == 0) {
+            restarts.putInt(Math.toIntExact(block.size()));
+        } else {
+            long mismatch = MemorySegment.mismatch(previousKey.segment, 0, previousKey.size(), key, 0, key.byteSize());
+            shared = Math.toIntExact(mismatch == -1 ? key.byteSize() : mismatch);
+        }
+        MemorySegment keySuffix = key.asSlice(shared);
+
+        block.putVarInt(shared);
+        block.putVarInt(Math.toIntExact(keySuffix.byteSize()));
+        block.putVarInt(value == null ? SSTable.TOMBSTONE_SIZE + 1 : Math.toIntExact(value.byteSize() + 1));
+        block.put(keySuffix);
+        if (value != null) {
+            block.put(value);
+        }
+        entriesInBlock++;
+
+        previousKey.truncate(shared);
+        previousKey.put(keySuffix);
+
+        if (block.size() >= SSTable.BLOCK_SIZE) {
+            finishBlock();
+        }
+    }
+
+    /**
+     * Writes the last block, the index and the footer. Nothing is written if there were no entries.
+     */
+    void finish() throws IOException {
+        if (entriesInBlock > 0) {
+            finishBlock();
+        }
+        if (blocksCount == 0) {
+            return;
+        }
+
+        long indexStart = position;
+        long firstKeysStart = indexStart + blocksCount * SSTable.INDEX_RECORD_SIZE;
+        // first key offsets were relative to the first keys start
+        for (long i = 0; i < blocksCount; i++) {
+            long recordOffset = i * SSTable.INDEX_RECORD_SIZE + Long.BYTES;
+            index.segment.set(SSTable.LONG_LAYOUT, recordOffset,
+                    firstKeysStart + index.segment.get(SSTable.LONG_LAYOUT, recordOffset));
+        }
+        write(index);
+        write(firstKeys);
+
+        Buffer footer = new Buffer((int) SSTable.FOOTER_SIZE);
+        footer.putLong(indexStart);
+        footer.putLong(blocksCount);
+        footer.putLong(SSTable.FORMAT);
+        write(footer);
+    }
+
+    private void finishBlock() throws IOException {
+        block.put(restarts.segment.asSlice(0, restarts.size()));
+        block.putInt(Math.toIntExact(restarts.size() / Integer.BYTES));
+        write(block);
+        restarts.clear();
+        entriesInBlock = 0;
+        blocksCount++;
+    }
+
+    private void write(Buffer buffer) throws IOException {
+        ByteBuffer byteBuffer = buffer.segment.asSlice(0, buffer.size()).asByteBuffer();
+        while (byteBuffer.hasRemaining()) {
+            position += channel.write(byteBuffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Growable heap buffer.
+     */
+    private static final class Buffer {
+
+        private MemorySegment segment;
+        private long size;
+
+        Buffer(int capacity) {
+            this.segment = MemorySegment.ofArray(new byte[capacity]);
+        }
+
+        long size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void truncate(long newSize) {
+            size = newSize;
+        }
+
+        void putVarInt(int value) {
+            ensureCapacity(5);
+            int remaining = value;
+            while ((remaining & ~0x7F) != 0) {
+                segment.set(ValueLayout.JAVA_BYTE, size++, (byte) ((remaining & 0x7F) | 0x80));
+                remaining >>>= 7;
+            }
+            segment.set(ValueLayout.JAVA_BYTE, size++, (byte) remaining);
+        }
+
+        void putInt(int value) {
+            ensureCapacity(Integer.BYTES);
+            segment.set(SSTable.INT_LAYOUT, size, value);
+            size += Integer.BYTES;
+        }
+
+        void putLong(long value) {
+            ensureCapacity(Long.BYTES);
+            segment.set(SSTable.LONG_LAYOUT, size, value);
+            size += Long.BYTES;
+        }
+
+        void put(MemorySegment data) {
+            ensureCapacity(data.byteSize());
+            MemorySegment.copy(data, 0, segment, size, data.byteSize());
+            size += data.byteSize();
+        }
+
+        private void ensureCapacity(long bytes) {
+            if (size + bytes <= segment.byteSize()) {
+                return;
+            }
+            long capacity = Math.max(segment.byteSize() * 2, size + bytes);
+            MemorySegment grown = MemorySegment.ofArray(new byte[Math.toIntExact(capacity)]);
+            MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, 0, grown, ValueLayout.JAVA_BYTE, 0, size);
+            segment = grown;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ru.vk.itmo.pashchenkoalexandr;
+
+/**
+ * Picks sstables of similar size to be merged together.
+ * Only adjacent sstables are merged, so the newest entry for each key stays in the newest sstable.
+ */
+final class SizeTieredCompaction {
+
+    static final int MIN_THRESHOLD = 4;
+    static final int MAX_THRESHOLD = 32;
+    // all sstables smaller than that are considered to be of the same size
+    static final long MIN_SSTABLE_SIZE = 1 << 20;
+    static final double BUCKET_LOW = 0.5;
+    static final double BUCKET_HIGH = 1.5;
+
+    private SizeTieredCompaction() {
+    }
+
+    /**
+     * Returns range [from; to) of sstables to be compacted or null if there is nothing to compact.
+     * The longest run is chosen, the newest one wins on ties.
+     */
+    static int[] pickRun(DiskStorage diskStorage) {
+        int count = diskStorage.size();
+        int bestFrom = 0;
+        int bestTo = 0;
+        for (int from = count - 1; from >= 0; from--) {
+            long totalSize = 0;
+            int to = from;
+            while (to < count && to - from < MAX_THRESHOLD) {
+                long size = diskStorage.sizeInBytes(to);
+                if (to > from && !isSimilar(size, totalSize / (to - from))) {
+                    break;
+                }
+                totalSize += size;
+                to++;
+            }
+            if (to - from > bestTo - bestFrom) {
+                bestFrom = from;
+                bestTo = to;
+            }
+        }
+        return bestTo - bestFrom >= MIN_THRESHOLD ? new int[]{bestFrom, bestTo} : null;
+    }
+
+    private static boolean isSimilar(long size, long averageSize) {
+        if (size < MIN_SSTABLE_SIZE && averageSize < MIN_SSTABLE_SIZE) {
+            return true;
+        }
+        return size >= averageSize * BUCKET_LOW && size <= averageSize * BUCKET_HIGH;
+    }
+}
@@ -0,0 +1,52 @@
+package ru.vk.itmo.pashchenkoalexandr;
+
+import ru.vk.itmo.Entry;
+import ru.vk.itmo.SnapshotIterator;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.ref.Cleaner;
+
+/**
+ * Cursor over the acquired disk storage which releases its sstables on close.
+ * The cursor abandoned without close releases them when it is garbage collected.
+ */
+final class SnapshotCursor implements Cursor {
+
+    private final Cursor delegate;
+    private final Cleaner.Cleanable release;
+
+    SnapshotCursor(Cursor delegate, DiskStorage diskStorage) {
+        this.delegate = delegate;
+        this.release = SnapshotIterator.releaseOnCollect(this, diskStorage::release);
+    }
+
+    @Override
+    public void seek(MemorySegment from) {
+        delegate.seek(from);
+    }
+
+    @Override
+    public boolean next() {
+        return delegate.next();
+    }
+
+    @Override
+    public MemorySegment key() {
+        return delegate.key();
+    }
+
+    @Override
+    public MemorySegment value() {
+        return delegate.value();
+    }
+
+    @Override
+    public Entry<MemorySegment> entry() {
+        return delegate.entry();
+    }
+
+    @Override
+    public void close() {
+        release.clean();
+    }
+}
@@ -6,22 +6,34 @@ import ru.vk.itmo.Entry;
 
 import java.io.IOException;
 import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class DaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
 
     private final Config config;
+    // write lock is held only to swap map, flushing map and storage
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // serializes flush, compact and close, which rewrite index file
+    private final Lock flushLock = new ReentrantLock();
 
     private Storage storage;
 
     private NavigableMap<MemorySegment, Entry<MemorySegment>> map =
             new ConcurrentSkipListMap<>(MemorySegmentComparator::compare);
 
+    // map which is being written to disk, stays readable until the new sstable is loaded
+    private NavigableMap<MemorySegment, Entry<MemorySegment>> flushingMap =
+            new ConcurrentSkipListMap<>(MemorySegmentComparator::compare);
+
     public DaoImpl(Config config) throws IOException {
         this.config = config;
         storage = Storage.load(config);
@@ -31,14 +43,11 @@ public class DaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
     public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
         lock.readLock().lock();
         try {
-            if (from == null) {
-                return storage.getIterator(
-                        MemorySegment.NULL, to,
-                        getMemoryIterator(MemorySegment.NULL, to)
-                );
-            }
-
-            return storage.getIterator(from, to, getMemoryIterator(from, to));
+            MemorySegment start = from == null ? MemorySegment.NULL : from;
+            return storage.getIterator(
+                    start, to,
+                    List.of(getMemoryIterator(map, start, to), getMemoryIterator(flushingMap, start, to))
+            );
         } finally {
             lock.readLock().unlock();
         }
@@ -72,30 +81,81 @@ public class DaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
         }
     }
 
-    private Iterator<Entry<MemorySegment>> getMemoryIterator(MemorySegment from, MemorySegment to) {
+    // the whole batch goes to the same map, flush can't swap it in the middle
+    @Override
+    public void upsertAll(Collection<Entry<MemorySegment>> entries) {
         lock.readLock().lock();
         try {
-            if (from == null && to == null) {
-                return map.values().iterator();
-            } else if (to == null) {
-                return map.tailMap(from).values().iterator();
-            } else if (from == null) {
-                return map.headMap(to).values().iterator();
+            for (Entry<MemorySegment> entry : entries) {
+                map.put(entry.key(), entry);
             }
-            return map.subMap(from, to).values().iterator();
         } finally {
             lock.readLock().unlock();
         }
     }
 
+    private static Iterator<Entry<MemorySegment>> getMemoryIterator(
+            NavigableMap<MemorySegment, Entry<MemorySegment>> memory,
+            MemorySegment from,
+            MemorySegment to
+    ) {
+        if (from == null && to == null) {
+            return memory.values().iterator();
+        } else if (to == null) {
+            return memory.tailMap(from).values().iterator();
+        } else if (from == null) {
+            return memory.headMap(to).values().iterator();
+        }
+        return memory.subMap(from, to).values().iterator();
+    }
+
     @Override
     public void flush() throws IOException {
+        flushLock.lock();
+        try {
+            NavigableMap<MemorySegment, Entry<MemorySegment>> flushing;
+            lock.writeLock().lock();
+            try {
+                if (map.isEmpty()) {
+                    return;
+                }
+                flushing = map;
+                flushingMap = flushing;
+                map = new ConcurrentSkipListMap<>(MemorySegmentComparator::compare);
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            // reads and upserts go on while the frozen map is being written
+            Storage flushed;
+            try {
+                Path ssTable = Storage.saveNext(config, flushing.values());
+                flushed = storage.withSSTable(ssTable);
+            } catch (IOException | RuntimeException e) {
+                restore(flushing);
+                throw e;
+            }
+
+            lock.writeLock().lock();
+            try {
+                storage = flushed;
+                flushingMap = new ConcurrentSkipListMap<>(MemorySegmentComparator::compare);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // the frozen map goes back to the memory so the next flush or close saves it, newer upserts win
+    private void restore(NavigableMap<MemorySegment, Entry<MemorySegment>> flushing) {
         lock.writeLock().lock();
         try {
-            storage.close();
-            Storage.save(config, map.values(), storage);
-            map = new ConcurrentSkipListMap<>(MemorySegmentComparator::compare);
-            storage = Storage.load(config);
+            for (Entry<MemorySegment> entry : flushing.values()) {
+                map.putIfAbsent(entry.key(), entry);
+            }
+            flushingMap = new ConcurrentSkipListMap<>(MemorySegmentComparator::compare);
         } finally {
             lock.writeLock().unlock();
         }
@@ -103,17 +163,20 @@ public class DaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
 
     @Override
     public void close() throws IOException {
+        flushLock.lock();
         lock.writeLock().lock();
         try {
             storage.close();
             Storage.save(config, map.values(), storage);
         } finally {
             lock.writeLock().unlock();
+            flushLock.unlock();
         }
     }
 
     @Override
     public void compact() throws IOException {
+        flushLock.lock();
         lock.writeLock().lock();
         try {
             if (map.isEmpty() && storage.isCompacted()) {
@@ -124,6 +187,7 @@ public class DaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
             map = new ConcurrentSkipListMap<>(MemorySegmentComparator::compare);
         } finally {
             lock.writeLock().unlock();
+            flushLock.unlock();
         }
     }
 }
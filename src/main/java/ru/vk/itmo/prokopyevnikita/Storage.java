@@ -83,8 +83,18 @@ public final class Storage implements Closeable {
             throw new IllegalStateException("Previous arena is alive");
         }
 
+        saveNext(config, entries);
+    }
+
+    /**
+     * Writes entries to the next sstable and registers it in index file.
+     * Unlike {@link #save} may be called while current storage is still in use.
+     *
+     * @return path of the new sstable or null if there is nothing to save
+     */
+    public static Path saveNext(Config config, Collection<Entry<MemorySegment>> entries) throws IOException {
         if (entries.isEmpty()) {
-            return;
+            return null;
         }
 
         Path path = config.basePath();
@@ -117,6 +127,24 @@ public final class Storage implements Closeable {
         Files.deleteIfExists(indexFile);
 
         Files.move(indexTmp, indexFile, StandardCopyOption.ATOMIC_MOVE);
+        return tmpPath;
+    }
+
+    /**
+     * Maps new sstable into the arena of this storage.
+     * Current storage stays valid, so readers don't have to wait for the new one.
+     */
+    public Storage withSSTable(Path file) throws IOException {
+        List<MemorySegment> newSSTables = new ArrayList<>(ssTables.size() + 1);
+        try (FileChannel fileChannel = FileChannel.open(
+                file,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        )) {
+            newSSTables.add(fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, Files.size(file), arena));
+        }
+        newSSTables.addAll(ssTables);
+        return new Storage(arena, newSSTables, false);
     }
 
     private static void saveByPath(Path path, IterableData entries) throws IOException {
@@ -224,14 +252,20 @@ public final class Storage implements Closeable {
         };
     }
 
+    /**
+     * Merges in-memory iterators (from the newest to the oldest) with sstables.
+     */
     public Iterator<Entry<MemorySegment>> getIterator(
             MemorySegment from,
             MemorySegment to,
-            Iterator<Entry<MemorySegment>> memoryIterator
+            List<Iterator<Entry<MemorySegment>>> memoryIterators
     ) {
         List<OrderedPeekIterator<Entry<MemorySegment>>> peekIterators = new ArrayList<>();
-        peekIterators.add(new OrderedPeekIteratorImpl(0, memoryIterator));
-        int order = 1;
+        int order = 0;
+        for (Iterator<Entry<MemorySegment>> memoryIterator : memoryIterators) {
+            peekIterators.add(new OrderedPeekIteratorImpl(order, memoryIterator));
+            order++;
+        }
         for (MemorySegment sstable : ssTables) {
             Iterator<Entry<MemorySegment>> iterator = iterateThroughSSTable(sstable, from, to);
             peekIterators.add(new OrderedPeekIteratorImpl(order, iterator));
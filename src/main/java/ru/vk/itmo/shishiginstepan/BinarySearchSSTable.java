@@ -2,6 +2,8 @@ package ru.vk.itmo.shishiginstepan;
 
 import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.RefCounted;
+import ru.vk.itmo.RefCountedArena;
 
 import java.io.IOException;
 import java.lang.foreign.Arena;
@@ -15,7 +17,7 @@ import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 import java.util.Iterator;
 
-public class BinarySearchSSTable implements SSTable<MemorySegment, Entry<MemorySegment>> {
+public class BinarySearchSSTable implements SSTable<MemorySegment, Entry<MemorySegment>>, RefCounted {
     private long tableSize;
     private long indexSize;
     private final MemorySegment tableSegment;
@@ -24,7 +26,8 @@ public class BinarySearchSSTable implements SSTable<MemorySegment, Entry<MemoryS
     public boolean closed;
     public final Path tablePath;
     public final Path indexPath;
-    private final Arena arena;
+    // одну ссылку держит хранилище, пока таблица не заменена компакцией, остальные - открытые чтения
+    private final RefCountedArena arena;
 
     private static class SSTableCreationException extends RuntimeException {
         public SSTableCreationException(Throwable cause) {
@@ -44,7 +47,7 @@ public class BinarySearchSSTable implements SSTable<MemorySegment, Entry<MemoryS
         }
     }
 
-    BinarySearchSSTable(Path path, Arena arena) {
+    BinarySearchSSTable(Path path, RefCountedArena arena) {
         this.closed = false;
         this.arena = arena;
         this.id = Integer.parseInt(path.getFileName().toString().substring(8));
@@ -62,12 +65,12 @@ public class BinarySearchSSTable implements SSTable<MemorySegment, Entry<MemoryS
             throw new SSTableCreationException(e);
         }
         try (FileChannel fileChannel = FileChannel.open(tablePath, StandardOpenOption.READ)) {
-            this.tableSegment = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, tableSize, arena);
+            this.tableSegment = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, tableSize, arena.arena());
         } catch (IOException e) {
             throw new SSTableRWException(e);
         }
         try (FileChannel fileChannel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
-            this.indexSegment = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexSize, arena);
+            this.indexSegment = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexSize, arena.arena());
         } catch (IOException e) {
             throw new SSTableRWException(e);
         }
@@ -262,9 +265,20 @@ public class BinarySearchSSTable implements SSTable<MemorySegment, Entry<MemoryS
         };
     }
 
+    @Override
+    public boolean acquire() {
+        return arena.acquire();
+    }
+
+    @Override
+    public void release() {
+        arena.release();
+    }
+
+    // отпускает ссылку хранилища, сама таблица закроется после последнего читателя
     public void close() {
         if (closed) throw new ClosedSSTableAccess();
-        arena.close();
         closed = true;
+        release();
     }
 }
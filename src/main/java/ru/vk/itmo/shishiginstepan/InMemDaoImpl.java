@@ -1,17 +1,27 @@
 package ru.vk.itmo.shishiginstepan;
 
+import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Dao;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.RefCounted;
+import ru.vk.itmo.SnapshotIterator;
 
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class InMemDaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
     private static final Comparator<MemorySegment> keyComparator = (o1, o2) -> {
@@ -31,9 +41,12 @@ public class InMemDaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
         byte b2 = o2.get(ValueLayout.JAVA_BYTE, mismatch);
         return Byte.compare(b1, b2);
     };
-    private final ConcurrentNavigableMap<MemorySegment, Entry<MemorySegment>> memStorage = new ConcurrentSkipListMap<>(
-            keyComparator
-    );
+    // мемтаблицы и таблицы на диске публикуются вместе, чтение берет текущее состояние без блокировок
+    private final AtomicReference<State> state;
+    // вставки не попадают в мемтаблицу, которую уже пишут на диск
+    private final ReadWriteLock upsertLock = new ReentrantReadWriteLock();
+    // флаш, компакция и закрытие меняют состояние по очереди
+    private final Lock storageLock = new ReentrantLock();
 
     private final PersistentStorage persistentStorage;
     private final Path basePath;
@@ -41,64 +54,152 @@ public class InMemDaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
     public InMemDaoImpl(Path basePath) {
         this.basePath = basePath;
         this.persistentStorage = new PersistentStorage(this.basePath);
+        this.state = new AtomicReference<>(new State(newMemStorage(), newMemStorage(), persistentStorage.open()));
     }
 
     public InMemDaoImpl() {
-        this.basePath = Paths.get("./");
-        this.persistentStorage = new PersistentStorage(this.basePath);
+        this(Paths.get("./"));
     }
 
-    @Override
-    public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
-        Iterator<Entry<MemorySegment>> memIterator;
+    private static ConcurrentNavigableMap<MemorySegment, Entry<MemorySegment>> newMemStorage() {
+        return new ConcurrentSkipListMap<>(keyComparator);
+    }
+
+    private static Iterator<Entry<MemorySegment>> memIterator(
+            NavigableMap<MemorySegment, Entry<MemorySegment>> memStorage,
+            MemorySegment from,
+            MemorySegment to
+    ) {
         if (to == null && from == null) {
-            memIterator = this.memStorage.values().iterator();
+            return memStorage.values().iterator();
         } else if (to == null) {
-            memIterator = this.memStorage.tailMap(from).sequencedValues().iterator();
+            return memStorage.tailMap(from).sequencedValues().iterator();
         } else if (from == null) {
-            memIterator = this.memStorage.headMap(to).sequencedValues().iterator();
+            return memStorage.headMap(to).sequencedValues().iterator();
         } else {
-            memIterator = this.memStorage.subMap(from, to).sequencedValues().iterator();
+            return memStorage.subMap(from, to).sequencedValues().iterator();
         }
-        List<Iterator<Entry<MemorySegment>>> persistentIterators = this.persistentStorage.get(from, to, memIterator);
-        return new SkipDeletedIterator(
-                new MergeIterator(persistentIterators)
+    }
+
+    // таблицы текущего состояния не закроются, пока их не отпустят
+    private State acquireState() {
+        return RefCounted.acquireCurrent(state::get, State::acquire);
+    }
+
+    @Override
+    public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
+        State current = acquireState();
+        List<Iterator<Entry<MemorySegment>>> persistentIterators = PersistentStorage.get(
+                current.sstables(),
+                from,
+                to,
+                List.of(memIterator(current.memStorage(), from, to), memIterator(current.flushing(), from, to))
+        );
+        return new SnapshotIterator<>(
+                new SkipDeletedIterator(
+                        new MergeIterator(persistentIterators)
+                ),
+                current::release
         );
     }
 
     @Override
     public Entry<MemorySegment> get(MemorySegment key) {
-        Entry<MemorySegment> entry = this.memStorage.get(key);
-        if (entry == null) {
-            entry = persistentStorage.get(key);
-        }
-        if (entry != null && entry.value() == null) {
-            return null;
+        State current = acquireState();
+        try {
+            Entry<MemorySegment> entry = current.memStorage().get(key);
+            if (entry == null) {
+                entry = current.flushing().get(key);
+            }
+            if (entry == null) {
+                entry = PersistentStorage.get(current.sstables(), key);
+                // the table may be unmapped by compaction right after the release
+                if (entry != null && entry.value() != null) {
+                    return new BaseEntry<>(key, MemorySegment.ofArray(entry.value().toArray(ValueLayout.JAVA_BYTE)));
+                }
+            }
+            if (entry != null && entry.value() == null) {
+                return null;
+            }
+            return entry;
+        } finally {
+            current.release();
         }
-        return entry;
     }
 
     @Override
     public void upsert(Entry<MemorySegment> entry) {
-        this.memStorage.put(entry.key(), entry);
+        upsertLock.readLock().lock();
+        try {
+            this.state.get().memStorage().put(entry.key(), entry);
+        } finally {
+            upsertLock.readLock().unlock();
+        }
     }
 
     @Override
     public void close() {
-        this.flush();
-        this.persistentStorage.close();
+        storageLock.lock();
+        try {
+            this.flush();
+            List<BinarySearchSSTable> sstables = state.get().sstables();
+            state.set(new State(newMemStorage(), newMemStorage(), List.of()));
+            this.persistentStorage.close(sstables);
+        } finally {
+            storageLock.unlock();
+        }
     }
 
     @Override
     public void flush() {
-        if (!this.memStorage.isEmpty()) {
-            this.persistentStorage.store(this.memStorage.values());
+        storageLock.lock();
+        try {
+            State current = state.get();
+            if (current.memStorage().isEmpty()) {
+                return;
+            }
+            upsertLock.writeLock().lock();
+            try {
+                current = new State(newMemStorage(), current.memStorage(), current.sstables());
+                state.set(current);
+            } finally {
+                upsertLock.writeLock().unlock();
+            }
+
+            BinarySearchSSTable sstable = persistentStorage.store(current.flushing().values(), current.sstables());
+            List<BinarySearchSSTable> sstables = new ArrayList<>(current.sstables());
+            sstables.add(sstable);
+            state.set(new State(state.get().memStorage(), newMemStorage(), List.copyOf(sstables)));
+        } finally {
+            storageLock.unlock();
         }
-        this.memStorage.clear();
     }
 
     @Override
     public void compact() {
-        persistentStorage.compact(this.get(null, null));
+        storageLock.lock();
+        try {
+            State current = state.get();
+            BinarySearchSSTable compacted = persistentStorage.compact(this.get(null, null), current.sstables());
+            // мемтаблица остается как есть, ее записи не старше сжатых
+            state.set(new State(state.get().memStorage(), current.flushing(), List.of(compacted)));
+            persistentStorage.compactionClean(current.sstables());
+        } finally {
+            storageLock.unlock();
+        }
+    }
+
+    record State(
+            NavigableMap<MemorySegment, Entry<MemorySegment>> memStorage,
+            NavigableMap<MemorySegment, Entry<MemorySegment>> flushing,
+            List<BinarySearchSSTable> sstables
+    ) {
+        boolean acquire() {
+            return RefCounted.acquireAll(sstables);
+        }
+
+        void release() {
+            RefCounted.releaseAll(sstables);
+        }
     }
 }
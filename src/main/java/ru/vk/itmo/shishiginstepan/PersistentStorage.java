@@ -1,9 +1,9 @@
 package ru.vk.itmo.shishiginstepan;
 
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.RefCountedArena;
 
 import java.io.IOException;
-import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -17,7 +17,6 @@ import java.util.logging.Logger;
 
 public class PersistentStorage {
     private final Path basePath;
-    private final List<BinarySearchSSTable> sstables = new ArrayList<>();
 
     private static final class CompactionError extends RuntimeException {
         public CompactionError(Exception e) {
@@ -27,36 +26,39 @@ public class PersistentStorage {
 
     PersistentStorage(Path basePath) {
         this.basePath = basePath;
+    }
+
+    public List<BinarySearchSSTable> open() {
+        List<BinarySearchSSTable> sstables = new ArrayList<>();
         try (var sstablesFiles = Files.list(basePath)) {
             sstablesFiles.filter(
                     x -> !x.getFileName().toString().contains("_index")
             ).map(
-                    path -> new BinarySearchSSTable(path, Arena.ofShared())).forEach(this.sstables::add);
+                    path -> new BinarySearchSSTable(path, new RefCountedArena())).forEach(sstables::add);
         } catch (IOException e) {
             Logger.getAnonymousLogger().log(Level.WARNING, "Failed reading SSTABLE (probably deleted)");
         }
-        this.sstables.sort(
+        sstables.sort(
                 Comparator.comparingInt(o -> o.id)
         );
+        return List.copyOf(sstables);
     }
 
-    public void close() {
+    public void close(List<BinarySearchSSTable> sstables) {
         for (var sstable : sstables) {
             sstable.close();
         }
     }
 
-    public BinarySearchSSTable store(Collection<Entry<MemorySegment>> data) {
-        int nextSStableID = this.sstables.isEmpty() ? 0 : this.sstables.getLast().id + 1;
+    // таблица не добавляется в список, его публикует дао вместе с мемтаблицами
+    public BinarySearchSSTable store(Collection<Entry<MemorySegment>> data, List<BinarySearchSSTable> sstables) {
+        int nextSStableID = sstables.isEmpty() ? 0 : sstables.getLast().id + 1;
         Path newSSTPath = BinarySearchSSTable.writeSSTable(data, basePath, nextSStableID);
-        BinarySearchSSTable sstable = new BinarySearchSSTable(newSSTPath, Arena.ofShared());
-        this.sstables.add(sstable);
-        return sstable;
+        return new BinarySearchSSTable(newSSTPath, new RefCountedArena());
     }
 
-    public Entry<MemorySegment> get(MemorySegment key) {
-        for (BinarySearchSSTable sstable : this.sstables.reversed()) {
-            if (sstable.closed) continue;
+    public static Entry<MemorySegment> get(List<BinarySearchSSTable> sstables, MemorySegment key) {
+        for (BinarySearchSSTable sstable : sstables.reversed()) {
             Entry<MemorySegment> ssTableResult = sstable.get(key);
             if (ssTableResult != null) {
                 return ssTableResult;
@@ -65,47 +67,40 @@ public class PersistentStorage {
         return null;
     }
 
-    public List<Iterator<Entry<MemorySegment>>> get(
+    public static List<Iterator<Entry<MemorySegment>>> get(
+            List<BinarySearchSSTable> sstables,
             MemorySegment from,
             MemorySegment to,
-            Iterator<Entry<MemorySegment>> memIterator
+            List<Iterator<Entry<MemorySegment>>> memIterators
     ) {
-        List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>(sstables.size() + 1);
-        iterators.add(memIterator);
+        List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>(sstables.size() + memIterators.size());
+        iterators.addAll(memIterators);
         for (var sstable : sstables.reversed()) {
-            if (sstable.closed) continue;
             iterators.add(sstable.scan(from, to));
         }
         return iterators;
     }
 
-    public void compact(Iterator<Entry<MemorySegment>> data) {
+    public BinarySearchSSTable compact(Iterator<Entry<MemorySegment>> data, List<BinarySearchSSTable> sstables) {
         List<Entry<MemorySegment>> entries = new ArrayList<>();
 
         while (data.hasNext()) {
             Entry<MemorySegment> entry = data.next();
             entries.add(entry);
         }
-        BinarySearchSSTable compactedTable = store(entries);
-
-        for (var table : sstables) {
-            if (table.id == compactedTable.id) {
-                continue;
-            }
-            compactionClean(table);
-        }
-
-        sstables.clear();
-        sstables.add(compactedTable);
+        return store(entries, sstables);
     }
 
-    private void compactionClean(BinarySearchSSTable sstable) {
-        sstable.close();
-        try {
-            Files.delete(sstable.indexPath);
-            Files.delete(sstable.tablePath);
-        } catch (IOException e) {
-            throw new CompactionError(e);
+    // вызывается после того как дао опубликовало сжатую таблицу вместо старых
+    public void compactionClean(List<BinarySearchSSTable> sstables) {
+        for (var sstable : sstables) {
+            try {
+                Files.delete(sstable.indexPath);
+                Files.delete(sstable.tablePath);
+            } catch (IOException e) {
+                throw new CompactionError(e);
+            }
+            sstable.close();
         }
     }
 }
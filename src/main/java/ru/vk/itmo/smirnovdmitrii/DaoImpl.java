@@ -29,6 +29,19 @@ public class DaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
         outMemoryDao = new FileDao(this, config.basePath());
     }
 
+    public DaoImpl(final Config config, final double bloomFilterFalsePositiveRate) {
+        inMemoryDao = new InMemoryDaoImpl();
+        outMemoryDao = new FileDao(this, config.basePath(), bloomFilterFalsePositiveRate);
+    }
+
+    /**
+     * Returns share of sstable lookups by key that were skipped by bloom filters.
+     * @return skip rate from 0 to 1.
+     */
+    public double bloomFilterSkipRate() {
+        return outMemoryDao.bloomFilterSkipRate();
+    }
+
     @Override
     public Iterator<Entry<MemorySegment>> get(final MemorySegment from, final MemorySegment to) {
         int id = 0;
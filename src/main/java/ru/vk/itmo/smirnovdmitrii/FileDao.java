@@ -1,5 +1,6 @@
 package ru.vk.itmo.smirnovdmitrii;
 
+import ru.vk.itmo.BloomFilter;
 import ru.vk.itmo.Dao;
 import ru.vk.itmo.Entry;
 import ru.vk.itmo.smirnovdmitrii.util.MemorySegmentComparator;
@@ -21,23 +22,43 @@ import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
 
 public class FileDao implements OutMemoryDao<MemorySegment, Entry<MemorySegment>> {
     private static final Path DEFAULT_BASE_PATH = Path.of("");
     private static final String INDEX_FILE_NAME = "index";
+    private static final String BLOOM_FILTER_SUFFIX = ".bloom";
+    private static final double DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE = 0.01;
     private final Dao<MemorySegment, Entry<MemorySegment>> dao;
     private final MemorySegmentComparator comparator = new MemorySegmentComparator();
     private List<MemorySegment> mappedSsTables = new ArrayList<>();
+    // bloom filter for every sstable, null if sstable was saved without it.
+    private List<BloomFilter> bloomFilters = new ArrayList<>();
     private final Arena arena = Arena.ofShared();
     private final Path basePath;
+    private final double bloomFilterFalsePositiveRate;
+    private final LongAdder bloomFilterChecks = new LongAdder();
+    private final LongAdder bloomFilterSkips = new LongAdder();
 
     public FileDao(final Dao<MemorySegment, Entry<MemorySegment>> dao) {
         this(dao, DEFAULT_BASE_PATH);
     }
 
     public FileDao(final Dao<MemorySegment, Entry<MemorySegment>> dao, final Path basePath) {
+        this(dao, basePath, DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE);
+    }
+
+    public FileDao(
+            final Dao<MemorySegment, Entry<MemorySegment>> dao,
+            final Path basePath,
+            final double bloomFilterFalsePositiveRate
+    ) {
+        if (!(bloomFilterFalsePositiveRate > 0 && bloomFilterFalsePositiveRate < 1)) {
+            throw new IllegalArgumentException("false positive rate must be in (0, 1).");
+        }
         this.dao = dao;
         this.basePath = basePath;
+        this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
         try {
             Files.createDirectories(basePath);
         } catch (final IOException e) {
@@ -58,14 +79,28 @@ public class FileDao implements OutMemoryDao<MemorySegment, Entry<MemorySegment>
             throw new UncheckedIOException("exception while reading index file.", e);
         }
         for (final String path: paths) {
-            try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
-                mappedSsTables.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena));
+            try {
+                final MemorySegment ssTable = map(Path.of(path));
+                SSTableUtil.checkFormat(ssTable, Path.of(path));
+                mappedSsTables.add(ssTable);
+                final Path bloomFilterPath = bloomFilterPath(path);
+                bloomFilters.add(Files.exists(bloomFilterPath) ? BloomFilter.wrap(map(bloomFilterPath)) : null);
             } catch (final IOException e) {
                 throw new UncheckedIOException("exception while mapping sstables", e);
             }
         }
     }
 
+    private MemorySegment map(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+        }
+    }
+
+    private static Path bloomFilterPath(final String ssTablePath) {
+        return Path.of(ssTablePath + BLOOM_FILTER_SUFFIX);
+    }
+
     /**
      * Iterator for SSTable.
      */
@@ -103,7 +138,11 @@ public class FileDao implements OutMemoryDao<MemorySegment, Entry<MemorySegment>
     @Override
     public Entry<MemorySegment> get(final MemorySegment key) {
         Objects.requireNonNull(key);
+        final long keyHash = BloomFilter.hash(key);
         for (int i = mappedSsTables.size() - 1; i >= 0; i--) {
+            if (!mightContain(bloomFilters.get(i), keyHash)) {
+                continue;
+            }
             final MemorySegment storage = mappedSsTables.get(i);
             final long offset = binarySearch(key, storage);
             if (offset >= 0) {
@@ -113,8 +152,27 @@ public class FileDao implements OutMemoryDao<MemorySegment, Entry<MemorySegment>
         return null;
     }
 
+    private boolean mightContain(final BloomFilter bloomFilter, final long keyHash) {
+        if (bloomFilter == null) {
+            return true;
+        }
+        bloomFilterChecks.increment();
+        if (bloomFilter.mightContain(keyHash)) {
+            return true;
+        }
+        bloomFilterSkips.increment();
+        return false;
+    }
+
+    @Override
+    public double bloomFilterSkipRate() {
+        final long checks = bloomFilterChecks.sum();
+        return checks == 0 ? 0 : (double) bloomFilterSkips.sum() / checks;
+    }
+
     /**
      * Searching order number in storage for block with {@code key} using helping file with storage offsets.
+     * Key prefixes from meta blocks are compared first, keys are read only if prefixes are equal.
      * If there is no block with such key, returns -(insert position + 1).
      * {@code offsets}.
      * @param key searching key.
@@ -125,12 +183,15 @@ public class FileDao implements OutMemoryDao<MemorySegment, Entry<MemorySegment>
             final MemorySegment key,
             final MemorySegment storage
     ) {
+        final long keyPrefix = SSTableUtil.keyPrefix(key);
         long left = -1;
         long right = SSTableUtil.blockCount(storage);
         while (left < right - 1) {
             long midst = (left + right) >>> 1;
-            final MemorySegment currentKey = SSTableUtil.readBlockKey(storage, midst);
-            final int compareResult = comparator.compare(key, currentKey);
+            int compareResult = Long.compareUnsigned(keyPrefix, SSTableUtil.readBlockKeyPrefix(storage, midst));
+            if (compareResult == 0) {
+                compareResult = comparator.compare(key, SSTableUtil.readBlockKey(storage, midst));
+            }
             if (compareResult == 0) {
                 return midst;
             } else if (compareResult > 0) {
@@ -155,7 +216,8 @@ public class FileDao implements OutMemoryDao<MemorySegment, Entry<MemorySegment>
         One block is:
         [bytes] key [bytes] value.
         One meta block is :
-        [JAVA_LONG_UNALIGNED] key_offset [JAVA_LONG_UNALIGNED] value_offset
+        [JAVA_LONG_UNALIGNED] key_offset [JAVA_LONG_UNALIGNED] value_offset [JAVA_LONG_UNALIGNED] key_prefix
+        where key_prefix is {@link SSTableUtil#keyPrefix}.
         SSTable structure:
         meta block 1
         meta block 2
@@ -165,6 +227,9 @@ public class FileDao implements OutMemoryDao<MemorySegment, Entry<MemorySegment>
         block 2
      ...
         block n
+        format
+        where format is {@link SSTableUtil#FORMAT}.
+        Bloom filter of sstable keys is saved next to sstable in file with {@code .bloom} suffix.
      */
     @Override
     public synchronized void save(final Iterable<Entry<MemorySegment>> entries) throws IOException {
@@ -182,9 +247,10 @@ public class FileDao implements OutMemoryDao<MemorySegment, Entry<MemorySegment>
         if (count == 0) {
             return;
         }
-        final long offsetsPartSize = count * Long.BYTES * 2;
-        appendSize += offsetsPartSize;
+        final long offsetsPartSize = count * SSTableUtil.META_BLOCK_SIZE;
+        appendSize += offsetsPartSize + Long.BYTES;
         final Path newSsTablePath = newSsTablePath();
+        final Path newBloomFilterPath = bloomFilterPath(newSsTablePath.toString());
         try (Arena savingArena = Arena.ofConfined()) {
             final MemorySegment mappedSsTable;
             try (FileChannel channel = FileChannel.open(
@@ -195,12 +261,27 @@ public class FileDao implements OutMemoryDao<MemorySegment, Entry<MemorySegment>
             ) {
                 mappedSsTable = channel.map(FileChannel.MapMode.READ_WRITE, 0, appendSize, savingArena);
             }
+            final BloomFilter bloomFilter;
+            try (FileChannel channel = FileChannel.open(
+                    newBloomFilterPath,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)
+            ) {
+                final long bloomFilterSize = BloomFilter.byteSize(count, bloomFilterFalsePositiveRate);
+                bloomFilter = BloomFilter.create(
+                        channel.map(FileChannel.MapMode.READ_WRITE, 0, bloomFilterSize, savingArena),
+                        count,
+                        bloomFilterFalsePositiveRate
+                );
+            }
             long indexOffset = 0;
             long blockOffset = offsetsPartSize;
             for (final Entry<MemorySegment> entry : entries) {
                 mappedSsTable.set(ValueLayout.JAVA_LONG_UNALIGNED, indexOffset, blockOffset);
                 indexOffset += Long.BYTES;
                 final MemorySegment key = entry.key();
+                bloomFilter.add(BloomFilter.hash(key));
                 final long keySize = key.byteSize();
                 MemorySegment.copy(key, 0, mappedSsTable, blockOffset, keySize);
                 final MemorySegment value = entry.value();
@@ -214,15 +295,17 @@ public class FileDao implements OutMemoryDao<MemorySegment, Entry<MemorySegment>
                     blockOffset += valueSize;
                 }
                 indexOffset += Long.BYTES;
+                mappedSsTable.set(ValueLayout.JAVA_LONG_UNALIGNED, indexOffset, SSTableUtil.keyPrefix(key));
+                indexOffset += Long.BYTES;
             }
+            mappedSsTable.set(ValueLayout.JAVA_LONG_UNALIGNED, blockOffset, SSTableUtil.FORMAT);
         }
         final Path indexFilePath = basePath.resolve(INDEX_FILE_NAME);
         final List<String> sstables = new ArrayList<>(Files.readAllLines(indexFilePath));
         sstables.add(newSsTablePath.toString());
         changeIndex(sstables);
-        try (FileChannel channel = FileChannel.open(newSsTablePath, StandardOpenOption.READ)) {
-            mappedSsTables.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena));
-        }
+        mappedSsTables.add(map(newSsTablePath));
+        bloomFilters.add(BloomFilter.wrap(map(newBloomFilterPath)));
     }
 
     private Path newSsTablePath() {
@@ -251,11 +334,15 @@ public class FileDao implements OutMemoryDao<MemorySegment, Entry<MemorySegment>
             final List<MemorySegment> newMappedSsTables = new ArrayList<>();
             newMappedSsTables.add(mappedSsTables.getLast());
             mappedSsTables = newMappedSsTables;
+            final List<BloomFilter> newBloomFilters = new ArrayList<>();
+            newBloomFilters.add(bloomFilters.getLast());
+            bloomFilters = newBloomFilters;
             final Path indexFilePath = basePath.resolve(INDEX_FILE_NAME);
             final List<String> sstableNames = Files.readAllLines(indexFilePath);
             changeIndex(List.of(sstableNames.getLast()));
             for (int i = 0; i < sstableNames.size() - 1; i++) {
                 Files.delete(basePath.resolve(sstableNames.get(i)));
+                Files.deleteIfExists(basePath.resolve(sstableNames.get(i) + BLOOM_FILTER_SUFFIX));
             }
         }
     }
@@ -33,6 +33,12 @@ public interface OutMemoryDao<D, E extends Entry<D>> extends AutoCloseable {
      */
     void compact() throws IOException;
 
+    /**
+     * Returns share of sstable lookups by key that were skipped by bloom filters.
+     * @return skip rate from 0 to 1.
+     */
+    double bloomFilterSkipRate();
+
     @Override
     void close() throws IOException;
 
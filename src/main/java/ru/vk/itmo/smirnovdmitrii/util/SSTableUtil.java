@@ -3,10 +3,24 @@ package ru.vk.itmo.smirnovdmitrii.util;
 import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Entry;
 
+import java.io.IOException;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
 
 public final class SSTableUtil {
+    /**
+     * Meta block is key offset, value offset and key prefix.
+     */
+    public static final long META_BLOCK_SIZE = Long.BYTES * 3L;
+    /**
+     * Last long of sstable, magic in the high bytes and format version in the low ones.
+     * Version 1 had meta blocks without key prefixes, version 2 is the current one.
+     */
+    public static final long FORMAT = 0x5D17_7AB1_0000_0002L;
+    private static final ValueLayout.OfLong BIG_ENDIAN_LONG =
+            ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
 
     private SSTableUtil() {
     }
@@ -23,6 +37,31 @@ public final class SSTableUtil {
         return sstable.asSlice(startOfKey, endOfKey(sstable, index) - startOfKey);
     }
 
+    public static long readBlockKeyPrefix(final MemorySegment sstable, final long index) {
+        return sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, index * META_BLOCK_SIZE + Long.BYTES * 2);
+    }
+
+    /**
+     * First 8 bytes of key as big-endian number, shorter keys are padded with zeros.
+     * Compared as unsigned numbers, different prefixes give the order of keys, equal prefixes give nothing.
+     * @param key key.
+     * @return key prefix.
+     */
+    public static long keyPrefix(final MemorySegment key) {
+        final long keySize = key.byteSize();
+        if (keySize >= Long.BYTES) {
+            return key.get(BIG_ENDIAN_LONG, 0);
+        }
+        long prefix = 0;
+        for (long i = 0; i < Long.BYTES; i++) {
+            prefix <<= Byte.SIZE;
+            if (i < keySize) {
+                prefix |= Byte.toUnsignedLong(key.get(ValueLayout.JAVA_BYTE, i));
+            }
+        }
+        return prefix;
+    }
+
     private static MemorySegment readBlockValue(final MemorySegment sstable, final long index) {
         final long startOfValue = startOfValue(sstable, index);
         if (startOfValue < 0) {
@@ -32,11 +71,11 @@ public final class SSTableUtil {
     }
 
     private static long startOfKey(final MemorySegment sstable, final long index) {
-        return sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, index * Long.BYTES * 2);
+        return sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, index * META_BLOCK_SIZE);
     }
 
     private static long startOfValue(final MemorySegment sstable, final long index) {
-        return sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, index * Long.BYTES * 2 + Long.BYTES);
+        return sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, index * META_BLOCK_SIZE + Long.BYTES);
     }
 
     private static long normalizedStartOfValue(final MemorySegment sstable, final long index) {
@@ -49,13 +88,26 @@ public final class SSTableUtil {
 
     private static long endOfValue(final MemorySegment sstable, final long index) {
         if (index == blockCount(sstable) - 1) {
-            return sstable.byteSize();
+            return sstable.byteSize() - Long.BYTES;
         }
         return startOfKey(sstable, index + 1);
     }
 
     public static long blockCount(final MemorySegment sstable) {
-        return sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, 0) / Long.BYTES / 2;
+        return sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, 0) / META_BLOCK_SIZE;
+    }
+
+    /**
+     * Fails on sstables written in another format, they are not converted.
+     * @param sstable mapped sstable.
+     * @param path sstable path for the message.
+     * @throws IOException if sstable has no or other format version.
+     */
+    public static void checkFormat(final MemorySegment sstable, final Path path) throws IOException {
+        final long size = sstable.byteSize();
+        if (size < Long.BYTES || sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, size - Long.BYTES) != FORMAT) {
+            throw new IOException("Unsupported format of sstable " + path + ", expected version " + (FORMAT & 0xFFFF));
+        }
     }
 
     public static long tombstone(final long value) {
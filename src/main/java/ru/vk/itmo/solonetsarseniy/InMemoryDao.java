@@ -24,6 +24,10 @@ public class InMemoryDao implements Dao<MemorySegment, Entry<MemorySegment>> {
 
     @Override
     public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
+        return dataStorageManager.get(getFromMemory(from, to), from, to);
+    }
+
+    private Iterator<Entry<MemorySegment>> getFromMemory(MemorySegment from, MemorySegment to) {
         if (from == null && to == null) {
             return database.values()
                 .iterator();
@@ -74,5 +78,6 @@ public class InMemoryDao implements Dao<MemorySegment, Entry<MemorySegment>> {
     @Override
     public void close() throws IOException {
         flush();
+        dataStorageManager.close();
     }
 }
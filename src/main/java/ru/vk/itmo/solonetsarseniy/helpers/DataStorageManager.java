@@ -3,15 +3,26 @@ package ru.vk.itmo.solonetsarseniy.helpers;
 import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Config;
 import ru.vk.itmo.Entry;
+import ru.vk.itmo.RefCounted;
+import ru.vk.itmo.RefCountedArena;
+import ru.vk.itmo.SnapshotIterator;
 import ru.vk.itmo.solonetsarseniy.exception.DaoException;
 
 import java.io.IOException;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 import static java.lang.foreign.ValueLayout.JAVA_LONG_UNALIGNED;
@@ -19,9 +30,21 @@ import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
 import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
 import static ru.vk.itmo.solonetsarseniy.exception.DaoExceptions.ERROR_READING_DATA;
 
+/**
+ * Storage file is [marker][entries count][entry offsets][entries], entry is [keySize][key][valueSize][value].
+ * Files written before the offsets were added have only the entries, their offsets are collected on open
+ * and the file is rewritten in the indexed format on the next flush.
+ *
+ * <p>Each mapping has its own reference counted arena. Flush replaces the mapping, the replaced one is unmapped
+ * after the last read which still uses it.
+ */
 public class DataStorageManager {
     private static final String DATA_FILE_NAME = "storage";
+    private static final String TMP_FILE_NAME = "storage.tmp";
     private static final long LONG_SIZE = 8L;
+    // old files start with the size of the first key, which is never negative
+    private static final long INDEXED_FORMAT_MARKER = -1L;
+    private static final long HEADER_SIZE = 2L * LONG_SIZE;
     private static final StandardOpenOption[] WRITE_OPTIONS_KIT = new StandardOpenOption[] {
         StandardOpenOption.CREATE,
         StandardOpenOption.WRITE,
@@ -32,83 +55,172 @@ public class DataStorageManager {
         StandardOpenOption.READ
     };
 
-    private MemorySegment data;
+    private volatile Storage storage;
     private final Config config;
-    private final Arena arena = Arena.ofConfined();
     private final MemorySegmentComparator comparator = new MemorySegmentComparator();
     private final Path path;
 
     public DataStorageManager(Config config) {
         this.config = config;
-        this.path = getPath();
+        this.path = getPath(DATA_FILE_NAME);
 
         if (Files.exists(path)) {
-            try (FileChannel dataChannel = FileChannel.open(path, READ_OPTIONS_KIT)) {
-                data = readMemorySegment(dataChannel, path);
+            try {
+                storage = openStorage();
             } catch (IOException e) {
                 throw new DaoException(ERROR_READING_DATA.getErrorString(), e);
             }
         } else {
-            data = null;
+            storage = null;
         }
 
     }
 
+    /**
+     * The value is copied, so it stays valid after the mapping is replaced.
+     */
     public Entry<MemorySegment> get(MemorySegment key) {
-        if (data == null) {
+        Storage current = acquireStorage();
+        if (current == null) {
             return null;
         }
 
-        long offset = 0L;
-        long fileSize = data.byteSize();
-        if (fileSize < JAVA_LONG_UNALIGNED.byteSize()) {
-            return null;
-        }
-        while (offset < fileSize) {
-            long keySize = data.get(JAVA_LONG_UNALIGNED, offset);
-            offset += LONG_SIZE;
-            if (fileSize < offset) {
+        try {
+            long index = current.lowerBound(key);
+            if (index == current.size()) {
                 return null;
             }
-            final MemorySegment storedKey = data.asSlice(offset, keySize);
-            offset += keySize;
-            if (fileSize < offset) {
-                return null;
-            }
-            long valueSize = data.get(JAVA_LONG_UNALIGNED, offset);
-            offset += LONG_SIZE;
-
-            if (fileSize < offset) {
-                return null;
-            }
-            if (comparator.compare(key, storedKey) == 0) {
-                MemorySegment value = data.asSlice(offset, valueSize);
-                return new BaseEntry<>(storedKey, value);
+            Entry<MemorySegment> entry = current.entry(index);
+            if (comparator.compare(key, entry.key()) == 0) {
+                return new BaseEntry<>(key, MemorySegment.ofArray(entry.value().toArray(ValueLayout.JAVA_BYTE)));
             }
+            return null;
+        } finally {
+            current.arena().release();
+        }
+    }
 
-            offset += valueSize;
+    /**
+     * Merges the memory entries with the stored ones, the memory entries win on equal keys.
+     * The mapping stays valid until the merged iterator is exhausted, even if flush replaces it meanwhile.
+     */
+    public Iterator<Entry<MemorySegment>> get(
+        Iterator<Entry<MemorySegment>> memoryIterator,
+        MemorySegment from,
+        MemorySegment to
+    ) {
+        Storage current = acquireStorage();
+        if (current == null) {
+            return memoryIterator;
         }
+        return new SnapshotIterator<>(
+            new MergeIterator(memoryIterator, current.iterator(from, to)),
+            current.arena()::release
+        );
+    }
 
-        return null;
+    private Storage acquireStorage() {
+        return RefCounted.acquireCurrent(() -> storage, current -> current == null || current.arena().acquire());
     }
 
-    public void flush(
+    /**
+     * Replaces the stored entries with the written ones. Without writes the stored entries are kept,
+     * a file in the old format is rewritten with the offsets then.
+     */
+    public synchronized void flush(
         ConcurrentSkipListMap<MemorySegment, Entry<MemorySegment>> database
     ) throws IOException {
+        Storage current = storage;
+        // snapshot, so the count and the offsets match the entries written
+        List<Entry<MemorySegment>> entries = new ArrayList<>(database.values());
+        if (entries.isEmpty()) {
+            if (current == null || current.indexed()) {
+                return;
+            }
+            current.iterator(null, null).forEachRemaining(entries::add);
+        }
+
+        Path tmpPath = getPath(TMP_FILE_NAME);
         try (
-            FileChannel dataChannel = FileChannel.open(path, WRITE_OPTIONS_KIT)
+            FileChannel dataChannel = FileChannel.open(tmpPath, WRITE_OPTIONS_KIT);
+            Arena writeArena = Arena.ofConfined()
         ) {
-            data = createMemorySegment(dataChannel, countDataSize(database));
-            long dataPointer = 0L;
-            for (var entry : database.values()) {
+            long offsetsSize = entries.size() * LONG_SIZE;
+            MemorySegment data = createMemorySegment(
+                dataChannel,
+                HEADER_SIZE + offsetsSize + countDataSize(entries),
+                writeArena
+            );
+            data.set(JAVA_LONG_UNALIGNED, 0, INDEXED_FORMAT_MARKER);
+            data.set(JAVA_LONG_UNALIGNED, LONG_SIZE, entries.size());
+            long offsetPointer = HEADER_SIZE;
+            long dataPointer = HEADER_SIZE + offsetsSize;
+            for (var entry : entries) {
+                data.set(JAVA_LONG_UNALIGNED, offsetPointer, dataPointer);
+                offsetPointer += LONG_SIZE;
                 dataPointer += writeEntry(data, dataPointer, entry);
             }
         }
+        Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        storage = openStorage();
+        if (current != null) {
+            current.arena().release();
+        }
+    }
+
+    public synchronized void close() {
+        Storage current = storage;
+        storage = null;
+        if (current != null) {
+            current.arena().release();
+        }
+    }
+
+    private Storage openStorage() throws IOException {
+        RefCountedArena arena = new RefCountedArena();
+        try (FileChannel dataChannel = FileChannel.open(path, READ_OPTIONS_KIT)) {
+            MemorySegment data = readMemorySegment(dataChannel, path, arena.arena());
+            if (data.byteSize() >= HEADER_SIZE && data.get(JAVA_LONG_UNALIGNED, 0) == INDEXED_FORMAT_MARKER) {
+                long size = data.get(JAVA_LONG_UNALIGNED, LONG_SIZE);
+                MemorySegment offsets = data.asSlice(HEADER_SIZE, size * LONG_SIZE);
+                return new Storage(arena, data, offsets, true);
+            }
+            return new Storage(arena, data, collectOffsets(data), false);
+        } catch (IOException e) {
+            arena.release();
+            throw e;
+        }
     }
 
-    private long countDataSize(ConcurrentSkipListMap<MemorySegment, Entry<MemorySegment>> database) {
-        return database.values()
-            .stream()
+    private static MemorySegment collectOffsets(MemorySegment data) {
+        long[] offsets = new long[16];
+        int size = 0;
+        long offset = 0L;
+        long fileSize = data.byteSize();
+        while (offset + LONG_SIZE <= fileSize) {
+            long keySize = data.get(JAVA_LONG_UNALIGNED, offset);
+            long valueSizeOffset = offset + LONG_SIZE + keySize;
+            if (valueSizeOffset + LONG_SIZE > fileSize) {
+                break;
+            }
+            long valueSize = data.get(JAVA_LONG_UNALIGNED, valueSizeOffset);
+            long nextOffset = valueSizeOffset + LONG_SIZE + valueSize;
+            if (nextOffset > fileSize) {
+                break;
+            }
+
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+            offset = nextOffset;
+        }
+        return MemorySegment.ofArray(Arrays.copyOf(offsets, size));
+    }
+
+    private long countDataSize(List<Entry<MemorySegment>> entries) {
+        return entries.stream()
             .mapToLong(this::getEntrySize)
             .sum();
     }
@@ -121,14 +233,15 @@ public class DataStorageManager {
             + (2L * LONG_SIZE);
     }
 
-    private Path getPath() {
-        Path pathToDataFile = Path.of(DATA_FILE_NAME);
+    private Path getPath(String fileName) {
+        Path pathToDataFile = Path.of(fileName);
         return config.basePath().resolve(pathToDataFile);
     }
 
     private MemorySegment createMemorySegment(
         FileChannel channel,
-        long dataSize
+        long dataSize,
+        Arena arena
     ) throws IOException {
         return channel.map(
             READ_WRITE,
@@ -140,7 +253,8 @@ public class DataStorageManager {
 
     private MemorySegment readMemorySegment(
         FileChannel channel,
-        Path path
+        Path path,
+        Arena arena
     ) throws IOException {
         return channel.map(
             READ_ONLY,
@@ -176,4 +290,70 @@ public class DataStorageManager {
             .copyFrom(segment);
         return (keySize + LONG_SIZE);
     }
+
+    /**
+     * Mapped storage file, offsets are either a slice of it or collected on open for the old format.
+     */
+    record Storage(RefCountedArena arena, MemorySegment data, MemorySegment offsets, boolean indexed) {
+        private static final MemorySegmentComparator COMPARATOR = new MemorySegmentComparator();
+
+        long size() {
+            return offsets.byteSize() / LONG_SIZE;
+        }
+
+        long lowerBound(MemorySegment key) {
+            long low = 0;
+            long high = size();
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if (COMPARATOR.compare(key(mid), key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        Iterator<Entry<MemorySegment>> iterator(MemorySegment from, MemorySegment to) {
+            long fromIndex = from == null ? 0 : lowerBound(from);
+            long toIndex = to == null ? size() : lowerBound(to);
+            return new Iterator<>() {
+                private long index = fromIndex;
+
+                @Override
+                public boolean hasNext() {
+                    return index < toIndex;
+                }
+
+                @Override
+                public Entry<MemorySegment> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return entry(index++);
+                }
+            };
+        }
+
+        MemorySegment key(long index) {
+            long offset = offset(index);
+            long keySize = data.get(JAVA_LONG_UNALIGNED, offset);
+            return data.asSlice(offset + LONG_SIZE, keySize);
+        }
+
+        Entry<MemorySegment> entry(long index) {
+            long offset = offset(index);
+            long keySize = data.get(JAVA_LONG_UNALIGNED, offset);
+            MemorySegment key = data.asSlice(offset + LONG_SIZE, keySize);
+            long valueSizeOffset = offset + LONG_SIZE + keySize;
+            long valueSize = data.get(JAVA_LONG_UNALIGNED, valueSizeOffset);
+            MemorySegment value = data.asSlice(valueSizeOffset + LONG_SIZE, valueSize);
+            return new BaseEntry<>(key, value);
+        }
+
+        private long offset(long index) {
+            return offsets.get(JAVA_LONG_UNALIGNED, index * LONG_SIZE);
+        }
+    }
 }
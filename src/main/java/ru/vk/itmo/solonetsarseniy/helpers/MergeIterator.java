@@ -0,0 +1,65 @@
+package ru.vk.itmo.solonetsarseniy.helpers;
+
+import ru.vk.itmo.Entry;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class MergeIterator implements Iterator<Entry<MemorySegment>> {
+    private final MemorySegmentComparator comparator = new MemorySegmentComparator();
+    private final Iterator<Entry<MemorySegment>> memoryIterator;
+    private final Iterator<Entry<MemorySegment>> storageIterator;
+    private Entry<MemorySegment> memoryEntry;
+    private Entry<MemorySegment> storageEntry;
+
+    public MergeIterator(
+        Iterator<Entry<MemorySegment>> memoryIterator,
+        Iterator<Entry<MemorySegment>> storageIterator
+    ) {
+        this.memoryIterator = memoryIterator;
+        this.storageIterator = storageIterator;
+        this.memoryEntry = nextOrNull(memoryIterator);
+        this.storageEntry = nextOrNull(storageIterator);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return memoryEntry != null || storageEntry != null;
+    }
+
+    @Override
+    public Entry<MemorySegment> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        int compareResult;
+        if (memoryEntry == null) {
+            compareResult = 1;
+        } else if (storageEntry == null) {
+            compareResult = -1;
+        } else {
+            compareResult = comparator.compare(memoryEntry.key(), storageEntry.key());
+        }
+
+        Entry<MemorySegment> result;
+        if (compareResult > 0) {
+            result = storageEntry;
+            storageEntry = nextOrNull(storageIterator);
+            return result;
+        }
+
+        // memory entry is newer, so the stored one with the same key is skipped
+        result = memoryEntry;
+        memoryEntry = nextOrNull(memoryIterator);
+        if (compareResult == 0) {
+            storageEntry = nextOrNull(storageIterator);
+        }
+        return result;
+    }
+
+    private static Entry<MemorySegment> nextOrNull(Iterator<Entry<MemorySegment>> iterator) {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+}
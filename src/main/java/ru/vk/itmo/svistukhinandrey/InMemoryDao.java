@@ -4,6 +4,7 @@ import ru.vk.itmo.Dao;
 import ru.vk.itmo.Entry;
 
 import java.lang.foreign.MemorySegment;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.NavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -43,4 +44,11 @@ public class InMemoryDao implements Dao<MemorySegment, Entry<MemorySegment>> {
     public synchronized void upsert(Entry<MemorySegment> entry) {
         inMemoryStorage.put(entry.key(), entry);
     }
+
+    @Override
+    public synchronized void upsertAll(Collection<Entry<MemorySegment>> entries) {
+        for (Entry<MemorySegment> entry : entries) {
+            inMemoryStorage.put(entry.key(), entry);
+        }
+    }
 }
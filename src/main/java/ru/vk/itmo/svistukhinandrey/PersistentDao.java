@@ -6,6 +6,7 @@ import ru.vk.itmo.Entry;
 
 import java.io.IOException;
 import java.lang.foreign.MemorySegment;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.NavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -53,6 +54,13 @@ public class PersistentDao implements Dao<MemorySegment, Entry<MemorySegment>> {
         storage.put(entry.key(), entry);
     }
 
+    @Override
+    public synchronized void upsertAll(Collection<Entry<MemorySegment>> entries) {
+        for (Entry<MemorySegment> entry : entries) {
+            storage.put(entry.key(), entry);
+        }
+    }
+
     @Override
     public void flush() {
         throw new UnsupportedOperationException();
@@ -6,7 +6,10 @@ import ru.vk.itmo.Dao;
 import ru.vk.itmo.Entry;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 class TestDao<Data, E extends Entry<Data>> implements Dao<String, Entry<String>> {
 
@@ -75,6 +78,18 @@ class TestDao<Data, E extends Entry<Data>> implements Dao<String, Entry<String>>
         delegate.upsert(factory.fromBaseEntry(e));
     }
 
+    @Override
+    public void upsertAll(Collection<Entry<String>> entries) {
+        List<E> converted = new ArrayList<>(entries.size());
+        for (Entry<String> entry : entries) {
+            converted.add(factory.fromBaseEntry(new BaseEntry<>(
+                    factory.fromString(entry.key()),
+                    factory.fromString(entry.value())
+            )));
+        }
+        delegate.upsertAll(converted);
+    }
+
     @Override
     public void flush() throws IOException {
         delegate.flush();
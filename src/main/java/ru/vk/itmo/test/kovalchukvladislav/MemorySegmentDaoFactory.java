@@ -16,10 +16,25 @@ import java.nio.charset.StandardCharsets;
 public class MemorySegmentDaoFactory implements DaoFactory.Factory<MemorySegment, Entry<MemorySegment>> {
     private static final Charset CHARSET = StandardCharsets.UTF_8;
     private static final ValueLayout.OfByte VALUE_LAYOUT = ValueLayout.JAVA_BYTE;
+    private static final int ROW_CACHE_CAPACITY = 1 << 16;
+
+    private final int rowCacheCapacity;
+
+    public MemorySegmentDaoFactory() {
+        this(ROW_CACHE_CAPACITY);
+    }
+
+    /**
+     * Factory of daos with the row cache of {@code rowCacheCapacity} entries, 0 disables it.
+     */
+    public MemorySegmentDaoFactory(int rowCacheCapacity) {
+        this.rowCacheCapacity = rowCacheCapacity;
+    }
 
     @Override
     public Dao<MemorySegment, Entry<MemorySegment>> createDao(Config config) throws IOException {
-        return new MemorySegmentDao(config);
+        return new MemorySegmentDao(config, MemorySegmentDao.DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE,
+                rowCacheCapacity);
     }
 
     @Override
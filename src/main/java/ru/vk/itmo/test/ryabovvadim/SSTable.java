@@ -15,10 +15,9 @@ import java.lang.foreign.ValueLayout;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.stream.IntStream;
 
 import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.READ;
@@ -27,8 +26,8 @@ import static java.nio.file.StandardOpenOption.WRITE;
 public class SSTable {
     private final String name;
     private final MemorySegment data;
+    private final MemorySegment offsets;
     private final int countRecords;
-    private final List<Long> offsets;
 
     public SSTable(Path prefix, String name, Arena arena) throws IOException {
         this.name = name;
@@ -39,15 +38,10 @@ public class SSTable {
         try (FileChannel dataFileChannel = FileChannel.open(dataFile, READ)) {
             try (FileChannel offsetsFileChannel = FileChannel.open(offsetsFile, READ)) {
                 this.data = dataFileChannel.map(MapMode.READ_ONLY, 0, dataFileChannel.size(), arena);
-                this.countRecords = (int) (offsetsFileChannel.size() / Long.BYTES);
-                this.offsets = new ArrayList<>();
-
-                MemorySegment offsetsSegment = offsetsFileChannel.map(
+                this.offsets = offsetsFileChannel.map(
                         MapMode.READ_ONLY, 0, offsetsFileChannel.size(), arena
                 );
-                for (int i = 0; i < countRecords; ++i) {
-                    offsets.add(offsetsSegment.get(ValueLayout.JAVA_LONG, i * Long.BYTES));
-                }
+                this.countRecords = (int) (offsets.byteSize() / Long.BYTES);
             }
         }
     }
@@ -57,7 +51,7 @@ public class SSTable {
         if (offsetIndex < 0) {
             return null;
         }
-        return new BaseEntry<>(key, readValue(getRecordInfo(offsets.get(offsetIndex))));
+        return new BaseEntry<>(key, readValue(getRecordInfo(getOffset(offsetIndex))));
     }
 
     public FutureIterator<Entry<MemorySegment>> findEntries(MemorySegment from, MemorySegment to) {
@@ -72,13 +66,13 @@ public class SSTable {
             toIndex = toOffsetIndex < 0 ? -toOffsetIndex : toOffsetIndex;
         }
 
-        Iterator<Long> offsetsIterator = offsets.subList(fromIndex, toIndex).iterator();
+        PrimitiveIterator.OfInt indexIterator = IntStream.range(fromIndex, toIndex).iterator();
         return new LazyIterator<>(
                 () -> {
-                    RecordInfo recordInfo = getRecordInfo(offsetsIterator.next());
+                    RecordInfo recordInfo = getRecordInfo(getOffset(indexIterator.nextInt()));
                     return new BaseEntry<>(readKey(recordInfo), readValue(recordInfo));
                 },
-                offsetsIterator::hasNext
+                indexIterator::hasNext
         );
     }
 
@@ -92,7 +86,7 @@ public class SSTable {
 
         while (l + 1 < r) {
             int mid = (l + r) / 2;
-            RecordInfo recordInfo = getRecordInfo(offsets.get(mid));
+            RecordInfo recordInfo = getRecordInfo(getOffset(mid));
             int compareResult = MemorySegmentUtils.compareMemorySegments(
                     data, recordInfo.getKeyOffset(), recordInfo.getValueOffset(),
                     key, 0, key.byteSize()
@@ -110,6 +104,10 @@ public class SSTable {
         return lowerBound ? -r - 1 : -l - 1;
     }
 
+    private long getOffset(int index) {
+        return offsets.get(ValueLayout.JAVA_LONG, (long) index * Long.BYTES);
+    }
+
     private RecordInfo getRecordInfo(long recordOffset) {
         long curOffset = recordOffset;
         ++curOffset;
@@ -2,6 +2,10 @@ package ru.vk.itmo.timofeevkirill;
 
 import ru.vk.itmo.Entry;
 import java.lang.foreign.MemorySegment;
+import java.util.Iterator;
 
-record FileEntry(Entry<MemorySegment> entry, long number) {
+/**
+ * Current entry of the source with the given number, the rest of the source is read from the iterator.
+ */
+record FileEntry(Entry<MemorySegment> entry, long number, Iterator<Entry<MemorySegment>> source) {
 }
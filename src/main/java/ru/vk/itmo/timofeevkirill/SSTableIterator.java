@@ -0,0 +1,72 @@
+package ru.vk.itmo.timofeevkirill;
+
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Entry;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads entries of a single mapped SSTable one by one, tombstones included.
+ * Entries are returned as slices of the file, nothing is buffered.
+ */
+class SSTableIterator implements Iterator<Entry<MemorySegment>> {
+    private final Comparator<MemorySegment> comparator;
+    private final MemorySegment sstable;
+    private final MemorySegment to;
+    private long offset;
+    private Entry<MemorySegment> next;
+
+    public SSTableIterator(Comparator<MemorySegment> comparator, MemorySegment sstable,
+                           MemorySegment from, MemorySegment to) {
+        this.comparator = comparator;
+        this.sstable = sstable;
+        this.to = to;
+        // there is no index, so the entries before the range are skipped one by one
+        next = readEntry();
+        while (from != null && next != null && comparator.compare(next.key(), from) < 0) {
+            next = readEntry();
+        }
+    }
+
+    private Entry<MemorySegment> readEntry() {
+        if (offset >= sstable.byteSize()) {
+            return null;
+        }
+        long keySize = sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, offset);
+        offset += Long.BYTES;
+        MemorySegment key = sstable.asSlice(offset, keySize);
+        offset += keySize;
+        if (to != null && comparator.compare(key, to) >= 0) {
+            offset = sstable.byteSize();
+            return null;
+        }
+
+        long valueSize = sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, offset);
+        offset += Long.BYTES;
+        if (valueSize == -1L) {
+            return new BaseEntry<>(key, null);
+        }
+        MemorySegment value = sstable.asSlice(offset, valueSize);
+        offset += valueSize;
+        return new BaseEntry<>(key, value);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Entry<MemorySegment> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Entry<MemorySegment> result = next;
+        next = readEntry();
+        return result;
+    }
+}
@@ -0,0 +1,224 @@
+package ru.vk.itmo.viktorkorotkikh;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded off-heap cache of fixed size sstable blocks read by positional {@link FileChannel#read}.
+ * Blocks are spread over independently locked stripes, each stripe evicts its blocks by CLOCK.
+ * Bytes are copied out under the stripe lock, so an evicted block is never seen by a reader.
+ */
+final class BlockCache implements AutoCloseable {
+
+    static final int BLOCK_SIZE = 4096;
+
+    private static final int STRIPE_BITS = 4;
+
+    private static final int STRIPES = 1 << STRIPE_BITS;
+
+    private static final int FILE_ID_SHIFT = 40;
+
+    private static final long EMPTY = -1;
+
+    private final Arena arena = Arena.ofShared();
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final AtomicInteger fileIds = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    BlockCache(long capacityBytes) {
+        int blocksPerStripe = Math.toIntExact(Math.max(1, capacityBytes / BLOCK_SIZE / STRIPES));
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(arena.allocate((long) blocksPerStripe * BLOCK_SIZE, Long.BYTES), blocksPerStripe);
+        }
+    }
+
+    int newFileId() {
+        return fileIds.getAndIncrement();
+    }
+
+    long readLong(int fileId, FileChannel channel, long position) {
+        long offsetInBlock = position % BLOCK_SIZE;
+        if (offsetInBlock + Long.BYTES <= BLOCK_SIZE) {
+            long blockKey = blockKey(fileId, position / BLOCK_SIZE);
+            return stripe(blockKey).readLong(blockKey, channel, offsetInBlock);
+        }
+        MemorySegment value = MemorySegment.ofArray(new long[1]);
+        read(fileId, channel, position, value, 0, Long.BYTES);
+        return value.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
+    }
+
+    void read(int fileId, FileChannel channel, long position, MemorySegment dst, long dstOffset, long length) {
+        long copied = 0;
+        while (copied < length) {
+            long offsetInBlock = (position + copied) % BLOCK_SIZE;
+            long chunk = Math.min(length - copied, BLOCK_SIZE - offsetInBlock);
+            long blockKey = blockKey(fileId, (position + copied) / BLOCK_SIZE);
+            stripe(blockKey).copy(blockKey, channel, offsetInBlock, dst, dstOffset + copied, chunk);
+            copied += chunk;
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private static long blockKey(int fileId, long blockIndex) {
+        return ((long) fileId << FILE_ID_SHIFT) | blockIndex;
+    }
+
+    private Stripe stripe(long blockKey) {
+        // fibonacci hashing, neighbouring blocks of a file go to different stripes
+        return stripes[(int) ((blockKey * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - STRIPE_BITS))];
+    }
+
+    /**
+     * Blocks of a stripe with CLOCK reference bits and an open addressing table from block key to slot.
+     */
+    private final class Stripe {
+        private final MemorySegment blocks;
+
+        private final long[] blockKeys;
+
+        private final boolean[] referenced;
+
+        // linear probing, EMPTY key is a free cell
+        private final long[] tableKeys;
+
+        private final int[] tableSlots;
+
+        private final int tableMask;
+
+        private int used;
+
+        private int hand;
+
+        private Stripe(MemorySegment blocks, int capacity) {
+            this.blocks = blocks;
+            this.blockKeys = new long[capacity];
+            this.referenced = new boolean[capacity];
+            int tableSize = Integer.highestOneBit(capacity) << 2;
+            this.tableKeys = new long[tableSize];
+            this.tableSlots = new int[tableSize];
+            this.tableMask = tableSize - 1;
+            Arrays.fill(blockKeys, EMPTY);
+            Arrays.fill(tableKeys, EMPTY);
+        }
+
+        synchronized long readLong(long blockKey, FileChannel channel, long offsetInBlock) {
+            return blocks.get(ValueLayout.JAVA_LONG_UNALIGNED, blockOffset(blockKey, channel) + offsetInBlock);
+        }
+
+        synchronized void copy(
+                long blockKey,
+                FileChannel channel,
+                long offsetInBlock,
+                MemorySegment dst,
+                long dstOffset,
+                long length
+        ) {
+            MemorySegment.copy(blocks, blockOffset(blockKey, channel) + offsetInBlock, dst, dstOffset, length);
+        }
+
+        private long blockOffset(long blockKey, FileChannel channel) {
+            int cell = find(blockKey);
+            if (tableKeys[cell] == blockKey) {
+                hits.increment();
+                int slot = tableSlots[cell];
+                referenced[slot] = true;
+                return (long) slot * BLOCK_SIZE;
+            }
+            misses.increment();
+            int slot = evict();
+            long offset = (long) slot * BLOCK_SIZE;
+            load(channel, (blockKey & ((1L << FILE_ID_SHIFT) - 1)) * BLOCK_SIZE, blocks.asSlice(offset, BLOCK_SIZE));
+            blockKeys[slot] = blockKey;
+            referenced[slot] = true;
+            // eviction could have moved the cells, so the free one is looked up again
+            cell = find(blockKey);
+            tableKeys[cell] = blockKey;
+            tableSlots[cell] = slot;
+            return offset;
+        }
+
+        private int evict() {
+            if (used < blockKeys.length) {
+                return used++;
+            }
+            while (referenced[hand]) {
+                referenced[hand] = false;
+                hand = (hand + 1) % blockKeys.length;
+            }
+            int victim = hand;
+            hand = (hand + 1) % blockKeys.length;
+            if (blockKeys[victim] != EMPTY) {
+                remove(find(blockKeys[victim]));
+                blockKeys[victim] = EMPTY;
+            }
+            return victim;
+        }
+
+        // cell of the key or the free cell where it would be
+        private int find(long blockKey) {
+            int cell = hash(blockKey) & tableMask;
+            while (tableKeys[cell] != EMPTY && tableKeys[cell] != blockKey) {
+                cell = (cell + 1) & tableMask;
+            }
+            return cell;
+        }
+
+        // backward shift keeps the probe sequences unbroken without tombstones
+        private void remove(int cell) {
+            int hole = cell;
+            int next = (hole + 1) & tableMask;
+            while (tableKeys[next] != EMPTY) {
+                int home = hash(tableKeys[next]) & tableMask;
+                if (((next - home) & tableMask) >= ((next - hole) & tableMask)) {
+                    tableKeys[hole] = tableKeys[next];
+                    tableSlots[hole] = tableSlots[next];
+                    hole = next;
+                }
+                next = (next + 1) & tableMask;
+            }
+            tableKeys[hole] = EMPTY;
+        }
+
+        private static int hash(long blockKey) {
+            return (int) ((blockKey * 0xC2B2AE3D27D4EB4FL) >>> Integer.SIZE);
+        }
+
+        private static void load(FileChannel channel, long position, MemorySegment block) {
+            ByteBuffer buffer = block.asByteBuffer();
+            try {
+                // the last block of a file is shorter, the rest of it is never read
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                throw new SSTableReadException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package ru.vk.itmo.viktorkorotkikh;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+
+final class CachedSSTableReader implements SSTableReader {
+
+    private final FileChannel channel;
+
+    private final BlockCache blockCache;
+
+    private final int fileId;
+
+    CachedSSTableReader(FileChannel channel, BlockCache blockCache) {
+        this.channel = channel;
+        this.blockCache = blockCache;
+        this.fileId = blockCache.newFileId();
+    }
+
+    @Override
+    public long readLong(long offset) {
+        return blockCache.readLong(fileId, channel, offset);
+    }
+
+    @Override
+    public MemorySegment read(long offset, long size) {
+        MemorySegment result = MemorySegment.ofArray(new byte[Math.toIntExact(size)]);
+        blockCache.read(fileId, channel, offset, result, 0, size);
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -20,6 +20,8 @@ public class LSMDaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
     private final List<SSTable> ssTables;
     private Arena ssTablesArena;
 
+    private final BlockCache blockCache;
+
     private final Path storagePath;
 
     public LSMDaoImpl(Path storagePath) {
@@ -31,9 +33,36 @@ public class LSMDaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
             ssTablesArena.close();
             throw new LSMDaoCreationException(e);
         }
+        this.blockCache = null;
+        this.storagePath = storagePath;
+    }
+
+    /**
+     * SSTables are not mapped, they are read by blocks into the off-heap cache of {@code blockCacheBytes}.
+     * Memory used for reading doesn't grow with the data size.
+     */
+    public LSMDaoImpl(Path storagePath, long blockCacheBytes) {
+        this.storage = new ConcurrentSkipListMap<>(MemorySegmentComparator.INSTANCE);
+        this.ssTablesArena = Arena.ofShared();
+        this.blockCache = new BlockCache(blockCacheBytes);
+        try {
+            this.ssTables = SSTable.load(blockCache, storagePath);
+        } catch (IOException e) {
+            ssTablesArena.close();
+            blockCache.close();
+            throw new LSMDaoCreationException(e);
+        }
         this.storagePath = storagePath;
     }
 
+    public long blockCacheHits() {
+        return blockCache == null ? 0 : blockCache.hits();
+    }
+
+    public long blockCacheMisses() {
+        return blockCache == null ? 0 : blockCache.misses();
+    }
+
     @Override
     public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
         List<SSTable.SSTableIterator> ssTableIterators =
@@ -88,6 +117,12 @@ public class LSMDaoImpl implements Dao<MemorySegment, Entry<MemorySegment>> {
             return;
         }
         ssTablesArena.close();
+        for (SSTable ssTable : ssTables) {
+            ssTable.close();
+        }
+        if (blockCache != null) {
+            blockCache.close();
+        }
         SSTable.save(storage.values(), ssTables.size(), storagePath);
     }
 
@@ -0,0 +1,23 @@
+package ru.vk.itmo.viktorkorotkikh;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+// the file is unmapped with the arena of dao
+record MappedSSTableReader(MemorySegment mappedSSTableFile) implements SSTableReader {
+
+    @Override
+    public long readLong(long offset) {
+        return mappedSSTableFile.get(ValueLayout.JAVA_LONG_UNALIGNED, offset);
+    }
+
+    @Override
+    public MemorySegment read(long offset, long size) {
+        return mappedSSTableFile.asSlice(offset, size);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+}
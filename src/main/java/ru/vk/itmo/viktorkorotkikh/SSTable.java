@@ -3,6 +3,7 @@ package ru.vk.itmo.viktorkorotkikh;
 import ru.vk.itmo.BaseEntry;
 import ru.vk.itmo.Entry;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
@@ -21,9 +22,9 @@ import java.util.NoSuchElementException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-public final class SSTable {
+public final class SSTable implements Closeable {
 
-    private final MemorySegment mappedSSTableFile;
+    private final SSTableReader reader;
 
     private static final String FILE_NAME = "sstable";
 
@@ -36,8 +37,8 @@ public final class SSTable {
     private static final long ENTRY_METADATA_SIZE = Long.BYTES;
     private final int index;
 
-    private SSTable(MemorySegment mappedSSTableFile, int index) {
-        this.mappedSSTableFile = mappedSSTableFile;
+    private SSTable(SSTableReader reader, int index) {
+        this.reader = reader;
         this.index = index;
     }
 
@@ -56,27 +57,48 @@ public final class SSTable {
     }
 
     public static List<SSTable> load(Arena arena, Path basePath) throws IOException {
-        List<Path> ssTablePaths;
-        try (Stream<Path> paths = Files.walk(basePath, 1)) {
-            ssTablePaths = paths.filter(Files::isRegularFile)
-                    .filter(filePath -> filePath.getFileName().toString().endsWith(FILE_EXTENSION))
-                    .sorted(ssTablePathComparator())
-                    .collect(Collectors.toList());
-        } catch (NoSuchFileException e) {
-            return new ArrayList<>();
-        }
+        List<Path> ssTablePaths = ssTablePaths(basePath);
         List<SSTable> ssTables = new ArrayList<>(ssTablePaths.size());
         for (int i = 0; i < ssTablePaths.size(); i++) {
             Path ssTablePath = ssTablePaths.get(i);
             MemorySegment mappedSSTableFile;
             try (FileChannel fileChannel = FileChannel.open(ssTablePath, StandardOpenOption.READ)) {
                 mappedSSTableFile = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0L, fileChannel.size(), arena);
-                ssTables.add(new SSTable(mappedSSTableFile, i));
+                ssTables.add(new SSTable(new MappedSSTableReader(mappedSSTableFile), i));
             }
         }
         return ssTables;
     }
 
+    // files stay open until close, their blocks are read on demand through the cache
+    static List<SSTable> load(BlockCache blockCache, Path basePath) throws IOException {
+        List<Path> ssTablePaths = ssTablePaths(basePath);
+        List<SSTable> ssTables = new ArrayList<>(ssTablePaths.size());
+        try {
+            for (int i = 0; i < ssTablePaths.size(); i++) {
+                FileChannel fileChannel = FileChannel.open(ssTablePaths.get(i), StandardOpenOption.READ);
+                ssTables.add(new SSTable(new CachedSSTableReader(fileChannel, blockCache), i));
+            }
+        } catch (IOException e) {
+            for (SSTable ssTable : ssTables) {
+                ssTable.close();
+            }
+            throw e;
+        }
+        return ssTables;
+    }
+
+    private static List<Path> ssTablePaths(Path basePath) throws IOException {
+        try (Stream<Path> paths = Files.walk(basePath, 1)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(filePath -> filePath.getFileName().toString().endsWith(FILE_EXTENSION))
+                    .sorted(ssTablePathComparator())
+                    .collect(Collectors.toList());
+        } catch (NoSuchFileException e) {
+            return new ArrayList<>();
+        }
+    }
+
     public SSTableIterator iterator(MemorySegment from, MemorySegment to) {
         long fromPosition = getMinKeySizeOffset();
         long toPosition = getMaxKeySizeOffset();
@@ -194,45 +216,37 @@ public final class SSTable {
     }
 
     private Entry<MemorySegment> getByIndex(long index) {
-        long keySize = mappedSSTableFile.get(ValueLayout.JAVA_LONG_UNALIGNED, index);
-        MemorySegment savedKey = mappedSSTableFile.asSlice(index + Long.BYTES, keySize);
+        long keySize = reader.readLong(index);
+        MemorySegment savedKey = reader.read(index + Long.BYTES, keySize);
 
         long valueOffset = index + Long.BYTES + keySize;
-        long valueSize = mappedSSTableFile.get(ValueLayout.JAVA_LONG_UNALIGNED, valueOffset);
+        long valueSize = reader.readLong(valueOffset);
         if (valueSize == -1) {
             return new BaseEntry<>(savedKey, null);
         }
-        return new BaseEntry<>(savedKey, mappedSSTableFile.asSlice(valueOffset + Long.BYTES, valueSize));
+        return new BaseEntry<>(savedKey, reader.read(valueOffset + Long.BYTES, valueSize));
     }
 
     private long getMinKeySizeOffset() {
-        return mappedSSTableFile.get(ValueLayout.JAVA_LONG_UNALIGNED, METADATA_SIZE);
+        return reader.readLong(METADATA_SIZE);
     }
 
     private long getMaxKeySizeOffset() {
-        long entriesSize = mappedSSTableFile.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
-        return mappedSSTableFile.get(
-                ValueLayout.JAVA_LONG_UNALIGNED,
-                METADATA_SIZE + (entriesSize - 1) * ENTRY_METADATA_SIZE
-        );
+        long entriesSize = reader.readLong(0);
+        return reader.readLong(METADATA_SIZE + (entriesSize - 1) * ENTRY_METADATA_SIZE);
     }
 
     private long getEntryOffset(MemorySegment key, SearchOption searchOption) {
         // binary search
-        long entriesSize = mappedSSTableFile.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
+        long entriesSize = reader.readLong(0);
         long left = 0;
         long right = entriesSize - 1;
         while (left <= right) {
             long mid = (right + left) / 2;
-            long keySizeOffset = mappedSSTableFile.get(
-                    ValueLayout.JAVA_LONG_UNALIGNED,
-                    METADATA_SIZE + mid * ENTRY_METADATA_SIZE
-            );
-            long keySize = mappedSSTableFile.get(ValueLayout.JAVA_LONG_UNALIGNED, keySizeOffset);
-            long keyOffset = keySizeOffset + Long.BYTES;
+            long keySizeOffset = reader.readLong(METADATA_SIZE + mid * ENTRY_METADATA_SIZE);
+            long keySize = reader.readLong(keySizeOffset);
             int keyComparison = MemorySegmentComparator.INSTANCE.compare(
-                    mappedSSTableFile, keyOffset,
-                    keyOffset + keySize,
+                    reader.read(keySizeOffset + Long.BYTES, keySize),
                     key
             );
             if (keyComparison < 0) {
@@ -253,19 +267,18 @@ public final class SSTable {
                 if (left == entriesSize) {
                     yield -1;
                 } else {
-                    yield mappedSSTableFile.get(
-                            ValueLayout.JAVA_LONG_UNALIGNED,
-                            METADATA_SIZE + left * ENTRY_METADATA_SIZE
-                    );
+                    yield reader.readLong(METADATA_SIZE + left * ENTRY_METADATA_SIZE);
                 }
             }
-            case LT -> mappedSSTableFile.get(
-                    ValueLayout.JAVA_LONG_UNALIGNED,
-                    METADATA_SIZE + right * ENTRY_METADATA_SIZE
-            );
+            case LT -> reader.readLong(METADATA_SIZE + right * ENTRY_METADATA_SIZE);
         };
     }
 
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
     private enum SearchOption {
         EQ, GTE, LT
     }
@@ -273,6 +286,7 @@ public final class SSTable {
     public final class SSTableIterator extends LSMPointerIterator {
         private long fromPosition;
         private final long toPosition;
+        private MemorySegment currentKey;
 
         private SSTableIterator(long fromPosition, long toPosition) {
             this.fromPosition = fromPosition;
@@ -286,25 +300,29 @@ public final class SSTable {
 
         @Override
         public MemorySegment getPointerSrc() {
-            return mappedSSTableFile;
+            // the key is compared many times by merge, so the cached reader copies it once
+            if (currentKey == null) {
+                currentKey = reader.read(fromPosition + Long.BYTES, reader.readLong(fromPosition));
+            }
+            return currentKey;
         }
 
         @Override
         public long getPointerSrcOffset() {
-            return fromPosition + Long.BYTES;
+            return 0;
         }
 
         @Override
         boolean isPointerOnTombstone() {
-            long keySize = mappedSSTableFile.get(ValueLayout.JAVA_LONG_UNALIGNED, fromPosition);
+            long keySize = reader.readLong(fromPosition);
             long valueOffset = fromPosition + Long.BYTES + keySize;
-            long valueSize = mappedSSTableFile.get(ValueLayout.JAVA_LONG_UNALIGNED, valueOffset);
+            long valueSize = reader.readLong(valueOffset);
             return valueSize == -1;
         }
 
         @Override
         public long getPointerSrcSize() {
-            return mappedSSTableFile.get(ValueLayout.JAVA_LONG_UNALIGNED, fromPosition);
+            return getPointerSrc().byteSize();
         }
 
         @Override
@@ -319,6 +337,7 @@ public final class SSTable {
             }
             Entry<MemorySegment> entry = getByIndex(fromPosition);
             fromPosition += getEntrySize(entry);
+            currentKey = null;
             return entry;
         }
     }
@@ -0,0 +1,17 @@
+package ru.vk.itmo.viktorkorotkikh;
+
+import java.io.Closeable;
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Access to sstable file bytes, either mapped or read through {@link BlockCache}.
+ */
+interface SSTableReader extends Closeable {
+
+    long readLong(long offset);
+
+    /**
+     * Mapped reader returns a slice of the file, cached reader a heap copy of the bytes.
+     */
+    MemorySegment read(long offset, long size);
+}
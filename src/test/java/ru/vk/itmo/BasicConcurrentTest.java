@@ -1,5 +1,7 @@
 package ru.vk.itmo;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import org.junit.jupiter.api.Timeout;
 
@@ -41,4 +43,17 @@ public class BasicConcurrentTest extends BaseTest {
         assertSame(dao.all(), entries);
     }
 
+    @DaoTest(stage = 1)
+    void testConcurrentUpsertAll_10_000(Dao<String, Entry<String>> dao) throws Exception {
+        int count = 10_000;
+        int batchSize = 100;
+        List<Entry<String>> entries = entries("k", "v", count);
+        runInParallel(10, count / batchSize, batch -> {
+            List<Entry<String>> part = new ArrayList<>(entries.subList(batch * batchSize, (batch + 1) * batchSize));
+            Collections.reverse(part);
+            dao.upsertAll(part);
+        }).close();
+        assertSame(dao.all(), entries);
+    }
+
 }
@@ -154,4 +154,22 @@ public class BasicTest extends BaseTest {
             assertSame(dao.get(keyAt(entry)), entryAt(entry));
         }
     }
+
+    @DaoTest(stage = 1)
+    void testUpsertAll(Dao<String, Entry<String>> dao) {
+        dao.upsert(entry("b", "old"));
+        dao.upsertAll(List.of(
+                entry("c", "1"),
+                entry("a", "2"),
+                entry("b", "3"),
+                entry("a", "4")
+        ));
+
+        assertSame(
+                dao.all(),
+                entry("a", "4"),
+                entry("b", "3"),
+                entry("c", "1")
+        );
+    }
 }
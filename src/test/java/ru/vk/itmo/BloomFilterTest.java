@@ -0,0 +1,128 @@
+package ru.vk.itmo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTest {
+
+    private static final int ENTRIES = 10_000;
+    private static final int PROBES = 200_000;
+
+    @TempDir
+    Path basePath;
+
+    @Test
+    void noFalseNegatives() {
+        for (double falsePositiveRate : new double[] {0.5, 0.1, 0.01, 0.001}) {
+            BloomFilter filter = filled(Arena.ofAuto(), ENTRIES, falsePositiveRate);
+            for (int i = 0; i < ENTRIES; i++) {
+                assertTrue(filter.mightContain(hash("key" + i)), "rate " + falsePositiveRate + ", key" + i);
+            }
+        }
+    }
+
+    @Test
+    void falsePositiveRateIsCloseToConfigured() {
+        for (double falsePositiveRate : new double[] {0.1, 0.01, 0.001}) {
+            BloomFilter filter = filled(Arena.ofAuto(), ENTRIES, falsePositiveRate);
+            int falsePositives = 0;
+            for (int i = 0; i < PROBES; i++) {
+                if (filter.mightContain(hash("absent" + i))) {
+                    falsePositives++;
+                }
+            }
+            double measured = (double) falsePositives / PROBES;
+            assertTrue(measured > falsePositiveRate / 2 && measured < falsePositiveRate * 2,
+                    "configured " + falsePositiveRate + ", measured " + measured);
+        }
+    }
+
+    @Test
+    void tinyFilters() {
+        for (int entries = 0; entries < 3; entries++) {
+            BloomFilter filter = filled(Arena.ofAuto(), entries, 0.01);
+            for (int i = 0; i < entries; i++) {
+                assertTrue(filter.mightContain(hash("key" + i)));
+            }
+        }
+    }
+
+    @Test
+    void persistedFilterRoundTrip() throws IOException {
+        double falsePositiveRate = 0.01;
+        long byteSize = BloomFilter.byteSize(ENTRIES, falsePositiveRate);
+        Path path = basePath.resolve("filter.bloom");
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(path,
+                     StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            BloomFilter filter = BloomFilter.create(
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, byteSize, arena), ENTRIES, falsePositiveRate);
+            for (int i = 0; i < ENTRIES; i++) {
+                filter.add(hash("key" + i));
+            }
+        }
+
+        byte[] bytes = Files.readAllBytes(path);
+        assertEquals(byteSize, bytes.length);
+        assertEquals(0, (bytes.length - Long.BYTES) % Long.BYTES, "bits are whole longs");
+        // header is the hash functions count, optimal one is ln(2) * bits / entries
+        long hashFunctionsCount = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getLong(0);
+        long bitsCount = (bytes.length - Long.BYTES) * (long) Byte.SIZE;
+        assertEquals(Math.round(Math.log(2) * bitsCount / ENTRIES), hashFunctionsCount);
+        assertEquals(hashFunctionsCount, bytes[0]);
+        for (int i = 1; i < Long.BYTES; i++) {
+            assertEquals(0, bytes[i], "little-endian header byte " + i);
+        }
+
+        BloomFilter heapCopy = BloomFilter.wrap(MemorySegment.ofArray(bytes));
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            BloomFilter mapped = BloomFilter.wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, byteSize, arena));
+            for (int i = 0; i < ENTRIES; i++) {
+                assertTrue(mapped.mightContain(hash("key" + i)), "key" + i);
+                assertTrue(heapCopy.mightContain(hash("key" + i)), "key" + i);
+            }
+            for (int i = 0; i < PROBES; i++) {
+                long hash = hash("absent" + i);
+                assertEquals(mapped.mightContain(hash), heapCopy.mightContain(hash), "absent" + i);
+            }
+        }
+    }
+
+    @Test
+    void hashDependsOnKeyBytesOnly() {
+        byte[] bytes = "some key longer than a word".getBytes(StandardCharsets.UTF_8);
+        MemorySegment offHeap = Arena.ofAuto().allocate(bytes.length + 3L).asSlice(3);
+        MemorySegment.copy(MemorySegment.ofArray(bytes), 0, offHeap, 0, bytes.length);
+        assertEquals(BloomFilter.hash(MemorySegment.ofArray(bytes)), BloomFilter.hash(offHeap));
+        assertTrue(BloomFilter.hash(MemorySegment.ofArray(bytes))
+                != BloomFilter.hash(MemorySegment.ofArray(bytes).asSlice(0, bytes.length - 1)));
+    }
+
+    private static BloomFilter filled(Arena arena, int entries, double falsePositiveRate) {
+        BloomFilter filter = BloomFilter.create(
+                arena.allocate(BloomFilter.byteSize(entries, falsePositiveRate)), entries, falsePositiveRate);
+        for (int i = 0; i < entries; i++) {
+            filter.add(hash("key" + i));
+        }
+        return filter;
+    }
+
+    private static long hash(String key) {
+        return BloomFilter.hash(MemorySegment.ofArray(key.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,140 @@
+package ru.vk.itmo;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemorySegmentComparatorTest {
+
+    private static final MemorySegmentComparator COMPARATOR = MemorySegmentComparator.INSTANCE;
+
+    @Test
+    void emptyAndEqual() {
+        assertEquals(0, COMPARATOR.compare(segment(), segment()));
+        assertTrue(COMPARATOR.compare(segment(), segment(0)) < 0);
+        assertTrue(COMPARATOR.compare(segment(0), segment()) > 0);
+        for (int size = 0; size < 200; size++) {
+            byte[] bytes = new byte[size];
+            Arrays.fill(bytes, (byte) 0xAB);
+            assertEquals(0, COMPARATOR.compare(MemorySegment.ofArray(bytes), MemorySegment.ofArray(bytes.clone())));
+        }
+    }
+
+    @Test
+    void prefixGoesFirst() {
+        for (int size = 1; size < 200; size++) {
+            byte[] bytes = new byte[size];
+            Arrays.fill(bytes, (byte) 0xFF);
+            MemorySegment longer = MemorySegment.ofArray(bytes);
+            MemorySegment prefix = longer.asSlice(0, size - 1);
+            assertTrue(COMPARATOR.compare(prefix, longer) < 0, "size " + size);
+            assertTrue(COMPARATOR.compare(longer, prefix) > 0, "size " + size);
+        }
+    }
+
+    @Test
+    void bytesAreUnsigned() {
+        assertTrue(COMPARATOR.compare(segment(0x7F), segment(0x80)) < 0);
+        assertTrue(COMPARATOR.compare(segment(0xFF), segment(0x00)) > 0);
+        // the difference is in every position of a word and in the overlapping tail
+        for (int size = 1; size < 200; size++) {
+            for (int position = 0; position < size; position++) {
+                byte[] low = new byte[size];
+                byte[] high = new byte[size];
+                low[position] = 0x01;
+                high[position] = (byte) 0x80;
+                assertTrue(COMPARATOR.compare(MemorySegment.ofArray(low), MemorySegment.ofArray(high)) < 0,
+                        "size " + size + ", position " + position);
+                assertTrue(COMPARATOR.compare(MemorySegment.ofArray(high), MemorySegment.ofArray(low)) > 0,
+                        "size " + size + ", position " + position);
+            }
+        }
+    }
+
+    @Test
+    void firstDifferenceDecides() {
+        byte[] first = "key10000000000000000000".getBytes(StandardCharsets.UTF_8);
+        byte[] second = "key09999999999999999999".getBytes(StandardCharsets.UTF_8);
+        assertTrue(COMPARATOR.compare(MemorySegment.ofArray(first), MemorySegment.ofArray(second)) > 0);
+    }
+
+    @Test
+    void utf8StringOrder() {
+        String[] strings = {"", "a", "ab", "b", "z", "~", "ё", "я", "€", "語", "😀"};
+        for (String first : strings) {
+            for (String second : strings) {
+                MemorySegment segment1 = MemorySegment.ofArray(first.getBytes(StandardCharsets.UTF_8));
+                MemorySegment segment2 = MemorySegment.ofArray(second.getBytes(StandardCharsets.UTF_8));
+                assertEquals(Integer.signum(first.compareTo(second)),
+                        Integer.signum(COMPARATOR.compare(segment1, segment2)), first + " vs " + second);
+            }
+        }
+    }
+
+    @Test
+    void randomAgainstArrays() {
+        Random random = new Random(42);
+        try (Arena arena = Arena.ofConfined()) {
+            for (int i = 0; i < 100_000; i++) {
+                byte[] first = randomBytes(random);
+                byte[] second = random.nextBoolean() ? randomBytes(random) : mutate(first, random);
+                int expected = Integer.signum(Arrays.compareUnsigned(first, second));
+
+                assertEquals(expected, Integer.signum(
+                        COMPARATOR.compare(MemorySegment.ofArray(first), MemorySegment.ofArray(second))));
+                MemorySegment nativeFirst = arena.allocate(first.length + 3).asSlice(3);
+                nativeFirst.copyFrom(MemorySegment.ofArray(first));
+                assertEquals(expected, Integer.signum(
+                        COMPARATOR.compare(nativeFirst, MemorySegment.ofArray(second))));
+            }
+        }
+    }
+
+    @Test
+    void ranges() {
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            byte[] first = randomBytes(random);
+            byte[] second = random.nextBoolean() ? randomBytes(random) : mutate(first, random);
+            int from1 = random.nextInt(first.length + 1);
+            int to1 = from1 + random.nextInt(first.length - from1 + 1);
+            int from2 = random.nextInt(second.length + 1);
+            int to2 = from2 + random.nextInt(second.length - from2 + 1);
+            int expected = Integer.signum(Arrays.compareUnsigned(first, from1, to1, second, from2, to2));
+
+            assertEquals(expected, Integer.signum(MemorySegmentComparator.compare(
+                    MemorySegment.ofArray(first), from1, to1, MemorySegment.ofArray(second), from2, to2)));
+        }
+    }
+
+    private static MemorySegment segment(int... bytes) {
+        byte[] result = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            result[i] = (byte) bytes[i];
+        }
+        return MemorySegment.ofArray(result);
+    }
+
+    private static byte[] randomBytes(Random random) {
+        // mostly short keys, sometimes longer than the mismatch threshold
+        int size = random.nextInt(10) == 0 ? random.nextInt(300) : random.nextInt(24);
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] mutate(byte[] bytes, Random random) {
+        byte[] result = Arrays.copyOf(bytes, Math.max(0, bytes.length + random.nextInt(3) - 1));
+        if (result.length > 0 && random.nextBoolean()) {
+            result[random.nextInt(result.length)] = (byte) random.nextInt();
+        }
+        return result;
+    }
+}
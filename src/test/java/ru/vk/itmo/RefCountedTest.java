@@ -0,0 +1,79 @@
+package ru.vk.itmo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RefCountedTest {
+
+    @Test
+    void arenaIsClosedByLastRelease() {
+        RefCountedArena arena = new RefCountedArena();
+        assertTrue(arena.acquire());
+
+        arena.release();
+        assertTrue(arena.arena().scope().isAlive());
+
+        arena.release();
+        assertFalse(arena.arena().scope().isAlive());
+        assertFalse(arena.acquire());
+    }
+
+    @Test
+    void acquireAllTakesAllOrNone() {
+        RefCountedArena first = new RefCountedArena();
+        RefCountedArena closed = new RefCountedArena();
+        closed.release();
+
+        assertFalse(RefCounted.acquireAll(List.of(first, closed)));
+
+        // the reference taken before the failure is given back
+        first.release();
+        assertFalse(first.arena().scope().isAlive());
+    }
+
+    @Test
+    void acquireCurrentTakesNewerValue() {
+        List<RefCountedArena> replaced = List.of(new RefCountedArena());
+        List<RefCountedArena> current = List.of(new RefCountedArena());
+        replaced.getFirst().release();
+        AtomicReference<List<RefCountedArena>> published = new AtomicReference<>(replaced);
+        List<List<RefCountedArena>> seen = new ArrayList<>();
+
+        List<RefCountedArena> acquired = RefCounted.acquireCurrent(published::get, value -> {
+            seen.add(value);
+            // the reader loses the race, compaction publishes the newer value meanwhile
+            published.set(current);
+            return RefCounted.acquireAll(value);
+        });
+
+        assertSame(current, acquired);
+        assertEquals(List.of(replaced, current), seen);
+        RefCounted.releaseAll(acquired);
+        assertTrue(current.getFirst().arena().scope().isAlive());
+        RefCounted.releaseAll(current);
+        assertFalse(current.getFirst().arena().scope().isAlive());
+    }
+
+    @Test
+    void exhaustedSnapshotIteratorReleases() {
+        RefCountedArena arena = new RefCountedArena();
+        SnapshotIterator<String> iterator = new SnapshotIterator<>(List.of("a").iterator(), arena::release);
+
+        assertTrue(iterator.hasNext());
+        assertEquals("a", iterator.next());
+        assertTrue(arena.arena().scope().isAlive());
+
+        assertFalse(iterator.hasNext());
+        assertFalse(arena.arena().scope().isAlive());
+        // released only once
+        assertFalse(iterator.hasNext());
+    }
+}
@@ -0,0 +1,179 @@
+package ru.vk.itmo;
+
+import org.junit.jupiter.api.Named;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import ru.vk.itmo.test.DaoFactory;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Readers of the daos which publish immutable states with reference-counted sstables
+ * run while the tables they read are flushed, compacted and retired.
+ */
+class SnapshotReadTest {
+
+    private static final int KEYS = 1_000;
+    private static final int ROUNDS = 30;
+    private static final int READERS = 4;
+
+    @TempDir
+    Path basePath;
+
+    static Stream<Named<DaoFactory.Factory<?, ?>>> factories() {
+        return Stream.of(
+                Named.of("abramovilya", new ru.vk.itmo.test.abramovilya.DaoFactoryImpl()),
+                Named.of("mozzhevilovdanil", new ru.vk.itmo.test.mozzhevilovdanil.DaoFactoryImpl()),
+                Named.of("shishiginstepan", new ru.vk.itmo.test.shishiginstepan.InMemDaoFactoryImpl())
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("factories")
+    @Timeout(60)
+    void readersSeeEveryKeyWhileTablesAreReplaced(DaoFactory.Factory<?, ?> factory) throws Exception {
+        Dao<String, Entry<String>> dao = factory.createStringDao(new Config(basePath, 1 << 20));
+        upsertRound(dao, 0);
+        dao.flush();
+
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(READERS + 1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> {
+                try {
+                    for (int round = 1; round <= ROUNDS; round++) {
+                        upsertRound(dao, round);
+                        dao.flush();
+                        if (round % 3 == 0) {
+                            dao.compact();
+                        }
+                    }
+                } finally {
+                    done.set(true);
+                }
+                return null;
+            }));
+            for (int i = 0; i < READERS; i++) {
+                futures.add(executor.submit(() -> {
+                    while (!done.get()) {
+                        assertScan(dao);
+                        String key = key(ThreadLocalRandom.current().nextInt(KEYS));
+                        Entry<String> entry = dao.get(key);
+                        assertNotNull(entry, key);
+                        assertValue(entry);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        dao.close();
+        Dao<String, Entry<String>> reopened = DaoFactory.Factory.reopen(dao);
+        Iterator<Entry<String>> iterator = reopened.all();
+        for (int i = 0; i < KEYS; i++) {
+            Entry<String> entry = iterator.next();
+            assertEquals(key(i), entry.key());
+            assertEquals(Integer.toString(ROUNDS), entry.value());
+        }
+        assertFalse(iterator.hasNext());
+        reopened.close();
+    }
+
+    @ParameterizedTest
+    @MethodSource("factories")
+    @Timeout(60)
+    void pointLookupOutlivesCompaction(DaoFactory.Factory<?, ?> factory) throws Exception {
+        Dao<MemorySegment, Entry<MemorySegment>> written = segmentDao(factory);
+        written.upsert(new BaseEntry<>(segment("a"), segment("1")));
+        // not every dao flushes explicitly, the reopened one reads the table written on close
+        written.close();
+
+        Dao<MemorySegment, Entry<MemorySegment>> dao = segmentDao(factory);
+        dao.upsert(new BaseEntry<>(segment("b"), segment("2")));
+        dao.flush();
+
+        // looked up from the sstable which compaction retires
+        Entry<MemorySegment> entry = dao.get(segment("a"));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {
+                dao.compact();
+                return null;
+            }).get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("a", string(entry.key()));
+        assertEquals("1", string(entry.value()));
+        dao.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Dao<MemorySegment, Entry<MemorySegment>> segmentDao(DaoFactory.Factory<?, ?> factory) throws IOException {
+        return ((DaoFactory.Factory<MemorySegment, Entry<MemorySegment>>) factory).createDao(new Config(basePath, 1 << 20));
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(MemorySegment segment) {
+        return new String(segment.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Rounds are not published atomically, so a scan may mix them, but it must see every key once and in order.
+     */
+    private static void assertScan(Dao<String, Entry<String>> dao) {
+        Iterator<Entry<String>> iterator = dao.all();
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(iterator.hasNext(), "key " + i + " is missing");
+            Entry<String> entry = iterator.next();
+            assertEquals(key(i), entry.key());
+            assertValue(entry);
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    private static void assertValue(Entry<String> entry) {
+        int round = Integer.parseInt(entry.value());
+        assertTrue(round >= 0 && round <= ROUNDS, entry.value());
+    }
+
+    private static void upsertRound(Dao<String, Entry<String>> dao, int round) {
+        for (int i = 0; i < KEYS; i++) {
+            dao.upsert(new BaseEntry<>(key(i), Integer.toString(round)));
+        }
+    }
+
+    private static String key(int index) {
+        return String.format("k%05d", index);
+    }
+}
@@ -0,0 +1,140 @@
+package ru.vk.itmo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path path;
+
+    @Test
+    void replaysUnreleasedBatchesInOrder() throws IOException {
+        try (WriteAheadLog wal = WriteAheadLog.open(path, Durability.SYNC, batch -> { })) {
+            wal.await(wal.append(List.of(entry("a", "1"), entry("b", null)), () -> { }));
+            wal.await(wal.append(List.of(entry("a", "2")), () -> { }));
+        }
+        // not released, as if the dao crashed before the flush
+
+        assertEquals(List.of("a=1", "b=null", "a=2"), replay());
+    }
+
+    @Test
+    void replayStopsAtCorruptedRecord() throws IOException {
+        try (WriteAheadLog wal = WriteAheadLog.open(path, Durability.SYNC, batch -> { })) {
+            wal.await(wal.append(List.of(entry("a", "1")), () -> { }));
+            wal.await(wal.append(List.of(entry("b", "2")), () -> { }));
+            wal.await(wal.append(List.of(entry("c", "3")), () -> { }));
+        }
+        Path segment = segments().getFirst();
+        long size = Files.size(segment);
+        // flips the last byte of the last record, so its checksum doesn't match
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            last.put(0, (byte) ~last.get(0)).rewind();
+            channel.write(last, size - 1);
+        }
+
+        assertEquals(List.of("a=1", "b=2"), replay());
+    }
+
+    @Test
+    void replayStopsAtTornRecord() throws IOException {
+        try (WriteAheadLog wal = WriteAheadLog.open(path, Durability.SYNC, batch -> { })) {
+            wal.await(wal.append(List.of(entry("a", "1")), () -> { }));
+            wal.await(wal.append(List.of(entry("b", "2")), () -> { }));
+        }
+        Path segment = segments().getFirst();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(segment) - 3);
+        }
+
+        assertEquals(List.of("a=1"), replay());
+    }
+
+    @Test
+    void releaseDeletesOlderSegments() throws IOException {
+        try (WriteAheadLog wal = WriteAheadLog.open(path, Durability.SYNC, batch -> { })) {
+            wal.await(wal.append(List.of(entry("a", "1")), () -> { }));
+            long next = wal.rollover();
+            wal.await(wal.append(List.of(entry("b", "2")), () -> { }));
+            wal.release(next);
+        }
+        assertEquals(1, segments().size());
+        assertEquals(List.of("b=2"), replay());
+
+        try (WriteAheadLog wal = WriteAheadLog.open(path, Durability.SYNC, batch -> { })) {
+            wal.release(Long.MAX_VALUE);
+        }
+        assertEquals(List.of(), segments());
+    }
+
+    @Test
+    void appliesUnderLogLock() throws IOException {
+        List<String> applied = new ArrayList<>();
+        try (WriteAheadLog wal = WriteAheadLog.open(path, Durability.ASYNC, batch -> { })) {
+            Thread[] writers = new Thread[4];
+            for (int i = 0; i < writers.length; i++) {
+                String value = Integer.toString(i);
+                writers[i] = Thread.ofPlatform().start(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        wal.append(List.of(entry("k", value)), () -> applied.add("k=" + value));
+                    }
+                });
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+
+        // the last applied update is the last logged one, so replay ends in the same state
+        assertEquals(applied, replay());
+    }
+
+    private List<String> replay() throws IOException {
+        List<String> replayed = new ArrayList<>();
+        WriteAheadLog.open(path, Durability.NONE, batch -> {
+            for (Entry<MemorySegment> entry : batch) {
+                replayed.add(string(entry.key()) + "=" + (entry.value() == null ? null : string(entry.value())));
+            }
+        }).close();
+        return replayed;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(path)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static Entry<MemorySegment> entry(String key, String value) {
+        return new BaseEntry<>(segment(key), value == null ? null : segment(value));
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(MemorySegment segment) {
+        return new String(segment.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+}
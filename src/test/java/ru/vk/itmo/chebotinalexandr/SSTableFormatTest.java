@@ -0,0 +1,71 @@
+package ru.vk.itmo.chebotinalexandr;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Config;
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SSTableFormatTest {
+
+    @TempDir
+    Path basePath;
+
+    @Test
+    void reopenAfterFlushAndCompaction() throws IOException {
+        NotOnlyInMemoryDao dao = new NotOnlyInMemoryDao(new Config(basePath, 0));
+        dao.upsert(entry(new byte[] {(byte) 0x80}, "high"));
+        dao.close();
+
+        dao = new NotOnlyInMemoryDao(new Config(basePath, 0));
+        dao.upsert(entry(new byte[] {0x7F}, "low"));
+        dao.close();
+
+        dao = new NotOnlyInMemoryDao(new Config(basePath, 0));
+        assertEquals("low", value(dao, new byte[] {0x7F}));
+        assertEquals("high", value(dao, new byte[] {(byte) 0x80}));
+        dao.compact();
+        dao.close();
+
+        dao = new NotOnlyInMemoryDao(new Config(basePath, 0));
+        assertEquals("low", value(dao, new byte[] {0x7F}));
+        assertEquals("high", value(dao, new byte[] {(byte) 0x80}));
+        dao.close();
+    }
+
+    @Test
+    void unversionedSSTableIsRejected() throws IOException {
+        // [entry_count][entry_offset]...{[key_size][key][value_size][value]}... written before the format
+        ByteBuffer sstable = ByteBuffer.allocate(4 * Long.BYTES + 2).order(ByteOrder.nativeOrder());
+        sstable.putLong(1).putLong(2L * Long.BYTES);
+        sstable.putLong(1).put((byte) 'a').putLong(1).put((byte) '1');
+        Files.write(basePath.resolve("sstable_1.dat"), sstable.array());
+
+        UncheckedIOException e = assertThrows(UncheckedIOException.class,
+                () -> new NotOnlyInMemoryDao(new Config(basePath, 0)));
+        assertTrue(e.getCause().getMessage().startsWith("Unsupported format"), e.getCause().getMessage());
+    }
+
+    private static String value(NotOnlyInMemoryDao dao, byte[] key) {
+        Entry<MemorySegment> entry = dao.get(MemorySegment.ofArray(key));
+        return entry == null ? null : new String(entry.value().toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    private static Entry<MemorySegment> entry(byte[] key, String value) {
+        return new BaseEntry<>(MemorySegment.ofArray(key), MemorySegment.ofArray(value.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,60 @@
+package ru.vk.itmo.emelyanovpavel;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SSTableFormatTest {
+
+    @TempDir
+    Path basePath;
+
+    @Test
+    void reopenWithUnsignedKeys() throws IOException {
+        InMemoryDaoImpl dao = new InMemoryDaoImpl(basePath);
+        dao.upsert(entry(new byte[] {(byte) 0x80}, "high"));
+        dao.upsert(entry(new byte[] {0x7F}, "low"));
+        dao.close();
+
+        dao = new InMemoryDaoImpl(basePath);
+        assertEquals("low", value(dao, new byte[] {0x7F}));
+        assertEquals("high", value(dao, new byte[] {(byte) 0x80}));
+        dao.close();
+    }
+
+    @Test
+    void unversionedSSTableIsRejected() throws IOException {
+        // data: {[key_size][key][value_size][value]}..., index: {[entry_offset]}... written before the format
+        Path ssTable = Files.createDirectories(basePath.resolve("ss_table0"));
+        ByteBuffer data = ByteBuffer.allocate(2 * Long.BYTES + 2).order(ByteOrder.nativeOrder());
+        data.putLong(1).put((byte) 'a').putLong(1).put((byte) '1');
+        Files.write(ssTable.resolve("data.txt"), data.array());
+        Files.write(ssTable.resolve("index.txt"), new byte[Long.BYTES]);
+
+        IOException e = assertThrows(IOException.class, () -> new InMemoryDaoImpl(basePath));
+        assertTrue(e.getMessage().startsWith("Unsupported format"), e.getMessage());
+    }
+
+    private static String value(InMemoryDaoImpl dao, byte[] key) {
+        Entry<MemorySegment> entry = dao.get(MemorySegment.ofArray(key));
+        return entry == null ? null : new String(entry.value().toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    private static Entry<MemorySegment> entry(byte[] key, String value) {
+        return new BaseEntry<>(MemorySegment.ofArray(key), MemorySegment.ofArray(value.getBytes(StandardCharsets.UTF_8)));
+    }
+}
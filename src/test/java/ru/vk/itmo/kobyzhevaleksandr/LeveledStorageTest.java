@@ -0,0 +1,78 @@
+package ru.vk.itmo.kobyzhevaleksandr;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Config;
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LeveledStorageTest {
+
+    @TempDir
+    Path basePath;
+
+    @Test
+    void upsertsAfterCompactionAreSaved() throws IOException {
+        PersistentDao dao = open();
+        dao.upsert(entry("a", "1"));
+        dao.compact();
+        dao.upsert(entry("b", "2"));
+        dao.upsert(entry("a", "3"));
+        dao.close();
+
+        dao = open();
+        assertEquals("3", value(dao, "a"));
+        assertEquals("2", value(dao, "b"));
+        dao.close();
+    }
+
+    @Test
+    void compactionRunsAgain() throws IOException {
+        PersistentDao dao = open();
+        dao.upsert(entry("a", "1"));
+        dao.upsert(entry("b", "2"));
+        dao.compact();
+        dao.upsert(entry("a", null));
+        dao.compact();
+        dao.close();
+
+        dao = open();
+        assertNull(dao.get(segment("a")));
+        assertEquals("2", value(dao, "b"));
+        dao.upsert(entry("c", "3"));
+        dao.compact();
+        dao.close();
+
+        dao = open();
+        assertNull(dao.get(segment("a")));
+        assertEquals("2", value(dao, "b"));
+        assertEquals("3", value(dao, "c"));
+        dao.close();
+    }
+
+    private PersistentDao open() {
+        return new PersistentDao(new Config(basePath, 0), true);
+    }
+
+    private static String value(PersistentDao dao, String key) {
+        Entry<MemorySegment> entry = dao.get(segment(key));
+        return entry == null ? null : new String(entry.value().toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    private static Entry<MemorySegment> entry(String key, String value) {
+        return new BaseEntry<>(segment(key), value == null ? null : segment(value));
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,66 @@
+package ru.vk.itmo.kobyzhevaleksandr;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Config;
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageFormatTest {
+
+    @TempDir
+    Path basePath;
+
+    @Test
+    void reopen() throws IOException {
+        PersistentDao dao = new PersistentDao(new Config(basePath, 0));
+        dao.upsert(entry("a", "1"));
+        dao.upsert(entry("b", "2"));
+        dao.close();
+
+        dao = new PersistentDao(new Config(basePath, 0));
+        assertEquals("1", value(dao, "a"));
+        assertEquals("2", value(dao, "b"));
+        dao.close();
+    }
+
+    @Test
+    void unversionedTableIsRejected() throws IOException {
+        // {[key_size][key][value_size][value]}...{[entry_pos]...}[entry_count] written before the format footer
+        ByteBuffer table = ByteBuffer.allocate(4 * Long.BYTES + 2).order(ByteOrder.nativeOrder());
+        table.putLong(1).put((byte) 'a').putLong(1).put((byte) '1');
+        table.putLong(0);
+        table.putLong(1);
+        Files.write(basePath.resolve("ssTable0000000000.dat"), table.array());
+
+        ApplicationException e = assertThrows(ApplicationException.class,
+            () -> new PersistentDao(new Config(basePath, 0)));
+        assertTrue(e.getCause().getMessage().startsWith("Unsupported format"), e.getCause().getMessage());
+    }
+
+    private static String value(PersistentDao dao, String key) {
+        Entry<MemorySegment> entry = dao.get(segment(key));
+        return entry == null ? null : new String(entry.value().toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    private static Entry<MemorySegment> entry(String key, String value) {
+        return new BaseEntry<>(segment(key), segment(value));
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
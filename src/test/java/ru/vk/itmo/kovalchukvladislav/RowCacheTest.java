@@ -0,0 +1,157 @@
+package ru.vk.itmo.kovalchukvladislav;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Config;
+import ru.vk.itmo.Entry;
+import ru.vk.itmo.kovalchukvladislav.model.RowCache;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RowCacheTest {
+
+    // the keys of these tests don't collide in so many rows
+    private static final int ROWS = 1 << 10;
+
+    private static final double FALSE_POSITIVE_RATE = MemorySegmentDao.DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE;
+
+    @TempDir
+    Path basePath;
+
+    @Test
+    void collidingKeysReplaceEachOther() {
+        // a single row, every key collides
+        RowCache<String, String> cache = new RowCache<>(1, Comparator.naturalOrder());
+        cache.put("a", 1, "1");
+        cache.put("b", 2, "2");
+
+        assertNull(cache.get("a", 1));
+        assertEquals("2", cache.get("b", 2).entry());
+        // same hash, another key
+        assertNull(cache.get("c", 2));
+    }
+
+    @Test
+    void invalidateRemovesOnlyTheKey() {
+        RowCache<String, String> cache = new RowCache<>(1, Comparator.naturalOrder());
+        cache.put("a", 1, "1");
+
+        // the row of a colliding key is kept
+        cache.invalidate("b", 1);
+        assertEquals("1", cache.get("a", 1).entry());
+
+        cache.invalidate("a", 1);
+        assertNull(cache.get("a", 1));
+    }
+
+    @Test
+    void negativeRowIsCached() {
+        RowCache<String, String> cache = new RowCache<>(4, Comparator.naturalOrder());
+        cache.put("a", 1, null);
+
+        RowCache.Row<String, String> row = cache.get("a", 1);
+        assertNotNull(row);
+        assertNull(row.entry());
+    }
+
+    @Test
+    void daoCachesFoundAndAbsentKeys() throws IOException {
+        write();
+        MemorySegmentDao dao = open(ROWS);
+
+        assertEquals("1", value(dao, "a"));
+        assertEquals("1", value(dao, "a"));
+        assertNull(value(dao, "absent"));
+        assertNull(value(dao, "absent"));
+        assertEquals(0.5, dao.getRowCacheHitRate());
+        dao.close();
+    }
+
+    @Test
+    void daoReadsCollidingKeys() throws IOException {
+        write();
+        MemorySegmentDao dao = open(1);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("1", value(dao, "a"));
+            assertEquals("2", value(dao, "b"));
+            assertNull(value(dao, "absent"));
+        }
+        dao.close();
+    }
+
+    @Test
+    void upsertInvalidatesCachedRow() throws IOException {
+        write();
+        MemorySegmentDao dao = open(ROWS);
+
+        assertEquals("1", value(dao, "a"));
+        assertNull(value(dao, "absent"));
+        assertEquals("2", value(dao, "b"));
+        assertTrue(dao.isRowCached(segment("a")));
+        assertTrue(dao.isRowCached(segment("absent")));
+        dao.upsert(entry("a", "new"));
+        dao.upsert(entry("absent", "added"));
+        dao.upsert(new BaseEntry<>(segment("b"), null));
+
+        assertFalse(dao.isRowCached(segment("a")));
+        assertFalse(dao.isRowCached(segment("absent")));
+        assertFalse(dao.isRowCached(segment("b")));
+        assertEquals("new", value(dao, "a"));
+        assertEquals("added", value(dao, "absent"));
+        assertNull(value(dao, "b"));
+        dao.close();
+    }
+
+    @Test
+    void flushStartsWithEmptyCache() throws IOException {
+        write();
+        MemorySegmentDao dao = open(ROWS);
+
+        assertEquals("1", value(dao, "a"));
+        assertEquals("1", value(dao, "a"));
+        dao.upsert(entry("c", "3"));
+        dao.flush();
+        assertFalse(dao.isRowCached(segment("a")));
+        // miss in the fresh cache
+        assertEquals("1", value(dao, "a"));
+        assertEquals(1.0 / 3, dao.getRowCacheHitRate(), 1e-9);
+        dao.close();
+    }
+
+    private void write() throws IOException {
+        MemorySegmentDao dao = new MemorySegmentDao(new Config(basePath, 0));
+        dao.upsert(entry("a", "1"));
+        dao.upsert(entry("b", "2"));
+        dao.close();
+    }
+
+    private MemorySegmentDao open(int rowCacheCapacity) throws IOException {
+        return new MemorySegmentDao(new Config(basePath, 0), FALSE_POSITIVE_RATE, rowCacheCapacity);
+    }
+
+    private static String value(MemorySegmentDao dao, String key) {
+        Entry<MemorySegment> entry = dao.get(segment(key));
+        return entry == null ? null : new String(entry.value().toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    private static Entry<MemorySegment> entry(String key, String value) {
+        return new BaseEntry<>(segment(key), segment(value));
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
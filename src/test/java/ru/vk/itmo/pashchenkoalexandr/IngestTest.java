@@ -0,0 +1,103 @@
+package ru.vk.itmo.pashchenkoalexandr;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Config;
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IngestTest {
+
+    private static final long FLUSH_THRESHOLD = 1 << 20;
+
+    @TempDir
+    Path basePath;
+
+    @Test
+    void ingestedShadowEarlierAndLaterShadowIngested() throws IOException {
+        try (PaschenkoDao dao = open()) {
+            dao.upsert(entry("a", "old"));
+            dao.upsert(entry("b", "old"));
+            dao.ingest(List.of(entry("a", "ingested"), entry("b", null), entry("c", "ingested")).iterator());
+            dao.upsert(entry("c", "new"));
+
+            assertEquals(List.of("a=ingested", "c=new"), all(dao));
+        }
+    }
+
+    @Test
+    void unsortedAreRejected() throws IOException {
+        try (PaschenkoDao dao = open()) {
+            dao.upsert(entry("a", "1"));
+            assertThrows(IllegalArgumentException.class,
+                () -> dao.ingest(List.of(entry("b", "2"), entry("a", "3")).iterator()));
+            assertThrows(IllegalArgumentException.class,
+                () -> dao.ingest(List.of(entry("b", "2"), entry("b", "3")).iterator()));
+
+            assertEquals(List.of("a=1"), all(dao));
+        }
+        try (Stream<Path> files = Files.walk(basePath)) {
+            assertTrue(files.noneMatch(file -> file.toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    void ingestedSurviveReopen() throws IOException {
+        List<Entry<MemorySegment>> entries = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            entries.add(entry(String.format("key%05d", i), "value" + i));
+        }
+        try (PaschenkoDao dao = open()) {
+            dao.ingest(entries.iterator());
+        }
+
+        try (PaschenkoDao dao = open()) {
+            Iterator<Entry<MemorySegment>> iterator = dao.all();
+            for (Entry<MemorySegment> expected : entries) {
+                Entry<MemorySegment> actual = iterator.next();
+                assertEquals(string(expected.key()), string(actual.key()));
+                assertEquals(string(expected.value()), string(actual.value()));
+            }
+            assertFalse(iterator.hasNext());
+            assertEquals("value1234", string(dao.get(segment("key01234")).value()));
+        }
+    }
+
+    private PaschenkoDao open() throws IOException {
+        return new PaschenkoDao(new Config(basePath, FLUSH_THRESHOLD));
+    }
+
+    private static List<String> all(PaschenkoDao dao) {
+        List<String> result = new ArrayList<>();
+        dao.all().forEachRemaining(entry -> result.add(string(entry.key()) + "=" + string(entry.value())));
+        return result;
+    }
+
+    private static Entry<MemorySegment> entry(String key, String value) {
+        return new BaseEntry<>(segment(key), value == null ? null : segment(value));
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(MemorySegment segment) {
+        return new String(segment.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+}
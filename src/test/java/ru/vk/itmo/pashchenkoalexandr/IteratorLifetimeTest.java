@@ -0,0 +1,59 @@
+package ru.vk.itmo.pashchenkoalexandr;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Config;
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IteratorLifetimeTest {
+
+    @TempDir
+    Path basePath;
+
+    @Test
+    void entriesOutliveCompaction() throws IOException {
+        try (PaschenkoDao dao = new PaschenkoDao(new Config(basePath, 1 << 20))) {
+            // keys of the second entry share a prefix, so the block stores only the suffix
+            dao.upsert(entry("key1", "1"));
+            dao.flush();
+            dao.upsert(entry("key2", "2"));
+            dao.flush();
+
+            List<Entry<MemorySegment>> entries = new ArrayList<>();
+            Iterator<Entry<MemorySegment>> iterator = dao.get(null, null);
+            // exhausted iterator releases the sstables
+            iterator.forEachRemaining(entries::add);
+            dao.compact();
+
+            List<String> strings = new ArrayList<>();
+            for (Entry<MemorySegment> entry : entries) {
+                strings.add(string(entry.key()) + "=" + string(entry.value()));
+            }
+            assertEquals(List.of("key1=1", "key2=2"), strings);
+        }
+    }
+
+    private static Entry<MemorySegment> entry(String key, String value) {
+        return new BaseEntry<>(segment(key), segment(value));
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(MemorySegment segment) {
+        return new String(segment.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+}
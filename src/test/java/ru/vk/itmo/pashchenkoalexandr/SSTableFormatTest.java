@@ -0,0 +1,80 @@
+package ru.vk.itmo.pashchenkoalexandr;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Config;
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SSTableFormatTest {
+
+    @TempDir
+    Path basePath;
+
+    @Test
+    void reopenWithUnsignedKeys() throws IOException {
+        try (PaschenkoDao dao = open()) {
+            dao.upsert(entry(new byte[] {(byte) 0x80}, "high"));
+            dao.upsert(entry(new byte[] {0x7F}, "low"));
+        }
+
+        try (PaschenkoDao dao = open()) {
+            assertEquals("low", value(dao, new byte[] {0x7F}));
+            assertEquals("high", value(dao, new byte[] {(byte) 0x80}));
+        }
+    }
+
+    @Test
+    void unversionedSSTableIsRejected() throws IOException {
+        try (PaschenkoDao dao = open()) {
+            dao.upsert(entry(new byte[] {'a'}, "1"));
+        }
+        // the footer was |index start|blocks count| before the format was added
+        for (Path sstable : sstables()) {
+            try (FileChannel channel = FileChannel.open(sstable, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - Long.BYTES);
+            }
+        }
+
+        IOException e = assertThrows(IOException.class, this::open);
+        assertTrue(e.getMessage().startsWith("Unsupported format"), e.getMessage());
+    }
+
+    private PaschenkoDao open() throws IOException {
+        return new PaschenkoDao(new Config(basePath, 1 << 20));
+    }
+
+    private List<Path> sstables() throws IOException {
+        try (Stream<Path> files = Files.walk(basePath)) {
+            List<Path> sstables = files
+                    .filter(file -> file.getFileName().toString().startsWith(DiskStorage.SSTABLE_PREFIX))
+                    .toList();
+            assertEquals(1, sstables.size());
+            return sstables;
+        }
+    }
+
+    private static String value(PaschenkoDao dao, byte[] key) {
+        Entry<MemorySegment> entry = dao.get(MemorySegment.ofArray(key));
+        return entry == null ? null : new String(entry.value().toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    private static Entry<MemorySegment> entry(byte[] key, String value) {
+        return new BaseEntry<>(MemorySegment.ofArray(key), MemorySegment.ofArray(value.getBytes(StandardCharsets.UTF_8)));
+    }
+}
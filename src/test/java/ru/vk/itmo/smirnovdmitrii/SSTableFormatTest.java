@@ -0,0 +1,72 @@
+package ru.vk.itmo.smirnovdmitrii;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Config;
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SSTableFormatTest {
+
+    @TempDir
+    Path basePath;
+
+    @Test
+    void reopen() throws IOException {
+        DaoImpl dao = new DaoImpl(new Config(basePath, 0));
+        dao.upsert(entry("a", "1"));
+        dao.upsert(new BaseEntry<>(segment("b"), null));
+        dao.upsert(entry("c", "3"));
+        dao.close();
+
+        dao = new DaoImpl(new Config(basePath, 0));
+        assertEquals("1", value(dao, "a"));
+        assertNull(dao.get(segment("b")));
+        assertEquals("3", value(dao, "c"));
+        dao.close();
+    }
+
+    @Test
+    void unversionedTableIsRejected() throws IOException {
+        // [key_offset][value_offset][key_prefix] a 1, written before the format footer
+        final ByteBuffer table = ByteBuffer.allocate(3 * Long.BYTES + 2).order(ByteOrder.nativeOrder());
+        table.putLong(3 * Long.BYTES).putLong(3 * Long.BYTES + 1).putLong((long) 'a' << 56);
+        table.put((byte) 'a').put((byte) '1');
+        final Path tablePath = basePath.resolve("old");
+        Files.write(tablePath, table.array());
+        Files.write(basePath.resolve("index"), List.of(tablePath.toString()));
+
+        final UncheckedIOException e = assertThrows(UncheckedIOException.class,
+                () -> new DaoImpl(new Config(basePath, 0)));
+        assertTrue(e.getCause().getMessage().startsWith("Unsupported format"), e.getCause().getMessage());
+    }
+
+    private static String value(final DaoImpl dao, final String key) {
+        final Entry<MemorySegment> entry = dao.get(segment(key));
+        return entry == null ? null : new String(entry.value().toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    private static Entry<MemorySegment> entry(final String key, final String value) {
+        return new BaseEntry<>(segment(key), segment(value));
+    }
+
+    private static MemorySegment segment(final String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,112 @@
+package ru.vk.itmo.solonetsarseniy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.Config;
+import ru.vk.itmo.Entry;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DataStorageTest {
+
+    @TempDir
+    Path basePath;
+
+    @Test
+    void oldFormatFileIsRewrittenWithOffsets() throws IOException {
+        // [keySize][key][valueSize][value]... written before the offsets were added
+        ByteBuffer file = ByteBuffer.allocate(3 * (2 * Long.BYTES + 2)).order(ByteOrder.nativeOrder());
+        for (String key : List.of("a", "b", "c")) {
+            file.putLong(1).put(key.getBytes(StandardCharsets.UTF_8)).putLong(1).put((byte) '0');
+        }
+        Files.write(basePath.resolve("storage"), file.array());
+
+        InMemoryDao dao = new InMemoryDao(new Config(basePath, 0));
+        assertEquals("0", value(dao, "b"));
+        dao.flush();
+        dao.close();
+
+        dao = new InMemoryDao(new Config(basePath, 0));
+        assertEquals(List.of("a=0", "b=0", "c=0"), all(dao));
+        assertEquals("0", value(dao, "c"));
+        dao.close();
+        try (var channel = Files.newByteChannel(basePath.resolve("storage"))) {
+            ByteBuffer marker = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.nativeOrder());
+            channel.read(marker);
+            assertEquals(-1L, marker.getLong(0));
+        }
+    }
+
+    @Test
+    void reopenWithoutWritesKeepsEntries() throws IOException {
+        InMemoryDao dao = new InMemoryDao(new Config(basePath, 0));
+        dao.upsert(entry("a", "1"));
+        dao.upsert(entry("b", "2"));
+        dao.close();
+
+        // close always flushes, the empty memtable must not truncate the file
+        new InMemoryDao(new Config(basePath, 0)).close();
+
+        dao = new InMemoryDao(new Config(basePath, 0));
+        assertEquals(List.of("a=1", "b=2"), all(dao));
+        dao.close();
+    }
+
+    @Test
+    void iteratorOutlivesFlush() throws IOException {
+        InMemoryDao dao = new InMemoryDao(new Config(basePath, 0));
+        dao.upsert(entry("a", "1"));
+        dao.upsert(entry("b", "2"));
+        dao.close();
+
+        dao = new InMemoryDao(new Config(basePath, 0));
+        Iterator<Entry<MemorySegment>> iterator = dao.get(null, null);
+        Entry<MemorySegment> first = iterator.next();
+        dao.upsert(entry("c", "3"));
+        dao.flush();
+
+        assertEquals("a=1", string(first));
+        assertEquals("b=2", string(iterator.next()));
+        dao.close();
+    }
+
+    private static List<String> all(InMemoryDao dao) {
+        List<String> entries = new ArrayList<>();
+        dao.get(null, null).forEachRemaining(entry -> entries.add(string(entry)));
+        return entries;
+    }
+
+    private static String value(InMemoryDao dao, String key) {
+        Entry<MemorySegment> entry = dao.get(segment(key));
+        return entry == null ? null : string(entry.value());
+    }
+
+    private static String string(Entry<MemorySegment> entry) {
+        return string(entry.key()) + "=" + string(entry.value());
+    }
+
+    private static String string(MemorySegment segment) {
+        return new String(segment.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    private static Entry<MemorySegment> entry(String key, String value) {
+        return new BaseEntry<>(segment(key), segment(value));
+    }
+
+    private static MemorySegment segment(String value) {
+        return MemorySegment.ofArray(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,200 @@
+package ru.vk.itmo.viktorkorotkikh;
+
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vk.itmo.BaseEntry;
+import ru.vk.itmo.BaseTest;
+import ru.vk.itmo.BasicConcurrentTest;
+import ru.vk.itmo.BasicTest;
+import ru.vk.itmo.Config;
+import ru.vk.itmo.Dao;
+import ru.vk.itmo.DaoTest;
+import ru.vk.itmo.Entry;
+import ru.vk.itmo.MusicTest;
+import ru.vk.itmo.PersistentDeletionTest;
+import ru.vk.itmo.PersistentRangeTest;
+import ru.vk.itmo.PersistentTest;
+import ru.vk.itmo.ReopenRangeTest;
+import ru.vk.itmo.UpsertRemoveTest;
+import ru.vk.itmo.test.viktorkorotkikh.FactoryImpl;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockCacheTest {
+
+    private static final int ENTRIES = 10_000;
+
+    // a single block per stripe
+    private static final long TINY_CACHE_BYTES = 16L * BlockCache.BLOCK_SIZE;
+
+    // stage of the factory, the scenarios of the later stages need compaction
+    private static final int STAGE = 3;
+
+    private static final List<Class<? extends BaseTest>> SCENARIOS = List.of(
+            BasicTest.class,
+            BasicConcurrentTest.class,
+            PersistentTest.class,
+            UpsertRemoveTest.class,
+            PersistentDeletionTest.class,
+            PersistentRangeTest.class,
+            ReopenRangeTest.class,
+            MusicTest.class
+    );
+
+    private static final long LARGE_CACHE_BYTES = 4L * 1024 * 1024;
+
+    @TempDir
+    Path basePath;
+
+    /**
+     * Shared scenarios run only against the factories of the max stage, so they are run here once more
+     * against the dao reading sstables through the tiny cache, where every read evicts.
+     */
+    @TestFactory
+    Stream<DynamicTest> sharedScenariosWithTinyCache() {
+        FactoryImpl factory = new FactoryImpl() {
+            @Override
+            public Dao<MemorySegment, Entry<MemorySegment>> createDao(Config config) {
+                return new LSMDaoImpl(config.basePath(), TINY_CACHE_BYTES);
+            }
+        };
+        List<DynamicTest> tests = new ArrayList<>();
+        for (Class<? extends BaseTest> scenarios : SCENARIOS) {
+            for (Method scenario : scenarios.getDeclaredMethods()) {
+                DaoTest daoTest = scenario.getAnnotation(DaoTest.class);
+                if (daoTest == null || daoTest.stage() > STAGE || (daoTest.maxStage() > 0 && daoTest.maxStage() < STAGE)) {
+                    continue;
+                }
+                String name = scenarios.getSimpleName() + "." + scenario.getName();
+                tests.add(DynamicTest.dynamicTest(name, () -> runScenario(factory, scenarios, scenario)));
+            }
+        }
+        tests.sort(Comparator.comparing(DynamicTest::getDisplayName));
+        return tests.stream();
+    }
+
+    private void runScenario(FactoryImpl factory, Class<? extends BaseTest> scenarios, Method scenario)
+            throws Throwable {
+        Path path = Files.createTempDirectory(basePath, scenario.getName());
+        BaseTest instance = scenarios.getDeclaredConstructor().newInstance();
+        Dao<String, Entry<String>> dao = factory.createStringDao(new Config(path, 1 << 20));
+        scenario.setAccessible(true);
+        try {
+            scenario.invoke(instance, dao);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        } finally {
+            Method shutdown = BaseTest.class.getDeclaredMethod("shutdownExecutors");
+            shutdown.setAccessible(true);
+            shutdown.invoke(instance);
+            // as DaoTest does, the scenario may have closed the dao already
+            dao.close();
+        }
+    }
+
+    @Test
+    void tinyCacheEvictsAndReadsEverything() throws IOException {
+        fill();
+        long blocks = (storageBytes() + BlockCache.BLOCK_SIZE - 1) / BlockCache.BLOCK_SIZE;
+        assertTrue(blocks > TINY_CACHE_BYTES / BlockCache.BLOCK_SIZE, "the table must not fit into the cache");
+
+        LSMDaoImpl dao = new LSMDaoImpl(basePath, TINY_CACHE_BYTES);
+        assertAll(dao);
+        for (int i = 0; i < ENTRIES; i += 97) {
+            assertEquals(value(i), string(dao.get(segment(key(i))).value()));
+        }
+        // every block is loaded at least once by the scan and evicted blocks are loaded again
+        assertTrue(dao.blockCacheMisses() >= blocks, dao.blockCacheMisses() + " misses of " + blocks + " blocks");
+        assertTrue(dao.blockCacheHits() > 0);
+        dao.close();
+    }
+
+    @Test
+    void largeCacheHitsAfterFirstScan() throws IOException {
+        fill();
+
+        LSMDaoImpl dao = new LSMDaoImpl(basePath, LARGE_CACHE_BYTES);
+        assertAll(dao);
+        long misses = dao.blockCacheMisses();
+        long hits = dao.blockCacheHits();
+        assertTrue(misses > 0);
+
+        assertAll(dao);
+        assertEquals(misses, dao.blockCacheMisses());
+        assertTrue(dao.blockCacheHits() > hits);
+        dao.close();
+    }
+
+    @Test
+    void mappedModeHasNoCache() throws IOException {
+        fill();
+
+        LSMDaoImpl dao = new LSMDaoImpl(basePath);
+        assertAll(dao);
+        assertEquals(0, dao.blockCacheHits());
+        assertEquals(0, dao.blockCacheMisses());
+        dao.close();
+    }
+
+    private void fill() throws IOException {
+        LSMDaoImpl dao = new LSMDaoImpl(basePath);
+        for (int i = 0; i < ENTRIES; i++) {
+            dao.upsert(new BaseEntry<>(segment(key(i)), segment(value(i))));
+        }
+        dao.close();
+    }
+
+    private long storageBytes() throws IOException {
+        long bytes = 0;
+        try (Stream<Path> files = Files.walk(basePath)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                bytes += Files.size(file);
+            }
+        }
+        return bytes;
+    }
+
+    private static void assertAll(LSMDaoImpl dao) {
+        Iterator<Entry<MemorySegment>> iterator = dao.get(null, null);
+        for (int i = 0; i < ENTRIES; i++) {
+            Entry<MemorySegment> entry = iterator.next();
+            assertEquals(key(i), string(entry.key()));
+            assertEquals(value(i), string(entry.value()));
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    private static String key(int i) {
+        return "key%08d".formatted(i);
+    }
+
+    private static String value(int i) {
+        return "value%08d".formatted(i);
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(MemorySegment segment) {
+        return new String(segment.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+}